@@ -18,11 +18,15 @@ package org.jboss.quickstarts.wfk;
 
 
 import io.swagger.jaxrs.config.BeanConfig;
+import org.jboss.quickstarts.wfk.contact.AdminRestService;
 import org.jboss.quickstarts.wfk.contact.ContactRestService;
+import org.jboss.quickstarts.wfk.contact.ExportRestService;
 import org.jboss.quickstarts.wfk.contact.RestaurantRestService;
 import org.jboss.quickstarts.wfk.contact.ReviewRestService;
 import org.jboss.quickstarts.wfk.contact.UserRestService;
 import org.jboss.quickstarts.wfk.util.JacksonConfig;
+import org.jboss.quickstarts.wfk.util.QueryBudgetFilter;
+import org.jboss.quickstarts.wfk.util.ResponseCacheFilter;
 import org.jboss.quickstarts.wfk.util.RestServiceExceptionHandler;
 import org.jboss.resteasy.plugins.providers.RegisterBuiltin;
 import org.jboss.resteasy.spi.ResteasyProviderFactory;
@@ -72,6 +76,10 @@ public class ContactServiceApplication extends Application {
         services.add(UserRestService.class);
         services.add(RestaurantRestService.class);
         services.add(ReviewRestService.class);
+        services.add(ExportRestService.class);
+        services.add(AdminRestService.class);
+        services.add(ResponseCacheFilter.class);
+        services.add(QueryBudgetFilter.class);
 
         //Do not edit below
         services.add(RestServiceExceptionHandler.class);
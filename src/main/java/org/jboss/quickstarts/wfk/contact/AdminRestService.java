@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+import org.jboss.quickstarts.wfk.util.QueryMetrics;
+import org.jboss.quickstarts.wfk.util.RecordingStatistics;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.PersistenceUnit;
+import javax.persistence.metamodel.EntityType;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>Reports how the application uses the database, for operators.</p>
+ *
+ * <p>The full path for accessing endpoints defined herein is: api/admin/*</p>
+ *
+ * @see RecordingStatistics
+ * @see QueryMetrics
+ */
+@Path("/admin")
+@Api(value = "/admin", description = "Database usage statistics")
+@Produces(MediaType.APPLICATION_JSON)
+@Stateless
+public class AdminRestService {
+
+    @PersistenceUnit(unitName = "contacts_pu")
+    private EntityManagerFactory emf;
+
+    @Inject
+    private QueryMetrics metrics;
+
+    /**
+     * <p>Returns the statistics of every named query since startup, sorted by name, along with the statements run by
+     * each endpoint.</p>
+     *
+     * <p>Times are in milliseconds. The p99 is taken over the latest 1024 executions of each query. Bulk updates and
+     * deletes are not counted by Hibernate, and neither are queries which have never run.</p>
+     *
+     * <p>Example: <pre>GET api/admin/query-stats</pre></p>
+     *
+     * @return A Response containing the statistics
+     */
+    @GET
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Path("/query-stats")
+    @ApiOperation(value = "Fetch query statistics", notes = "Returns the execution count, mean and p99 latency and rows returned of every named query, and the statements run by each endpoint.")
+    public Response retrieveQueryStats() {
+        Statistics statistics = emf.unwrap(SessionFactory.class).getStatistics();
+
+        Map<String, Map<String, Object>> queries = new TreeMap<>();
+        for (EntityType<?> entity : emf.getMetamodel().getEntities()) {
+            for (NamedQuery named : namedQueries(entity.getJavaType())) {
+                QueryStatistics query = statistics.getQueryStatistics(named.query());
+                if (query.getExecutionCount() == 0) {
+                    continue;
+                }
+                Map<String, Object> stats = new LinkedHashMap<>();
+                stats.put("executions", query.getExecutionCount());
+                stats.put("meanMillis", query.getExecutionAvgTime());
+                stats.put("p99Millis", statistics instanceof RecordingStatistics
+                        ? ((RecordingStatistics) statistics).getQueryP99Time(named.query())
+                        : query.getExecutionMaxTime());
+                stats.put("maxMillis", query.getExecutionMaxTime());
+                stats.put("rows", query.getExecutionRowCount());
+                queries.put(named.name(), stats);
+            }
+        }
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("statisticsEnabled", statistics.isStatisticsEnabled());
+        body.put("queries", queries);
+        body.put("endpoints", metrics.getEndpoints());
+        return Response.ok(body).build();
+    }
+
+    private static List<NamedQuery> namedQueries(Class<?> entity) {
+        List<NamedQuery> named = new ArrayList<>();
+        NamedQueries all = entity.getAnnotation(NamedQueries.class);
+        if (all != null) {
+            Collections.addAll(named, all.value());
+        }
+        NamedQuery single = entity.getAnnotation(NamedQuery.class);
+        if (single != null) {
+            named.add(single);
+        }
+        return named;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+
+/**
+ * <p>The days of the year, from today, searched for upcoming birthdays, see
+ * {@link ContactService#findUpcomingBirthdays(int)}.</p>
+ *
+ * <p>Days are encoded as month and day, see {@link Contact#monthDay(java.util.Date)}. A window running past
+ * 31 December ends before it starts, and continues in January. Birthdays on 29 February are celebrated on the 28th in
+ * other years, so a window ending on 28 February of a common year takes them in too.</p>
+ */
+final class BirthdayWindow {
+
+    /** From today, a year ahead is 365 days, or 366 across a 29 February, and holds every birthday either way. */
+    static final int WHOLE_YEAR_DAYS = 365;
+
+    private final int today;
+    private final int from;
+    private final int to;
+
+    private BirthdayWindow(int today, int from, int to) {
+        this.today = today;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @param today The first day of the window
+     * @param withinDays The number of days after today to look ahead, from 0. A year or more takes in every day.
+     * @return The window
+     */
+    static BirthdayWindow starting(LocalDate today, int withinDays) {
+        int first = monthDay(today);
+        if (withinDays >= WHOLE_YEAR_DAYS) {
+            return new BirthdayWindow(first, 101, 1231);
+        }
+
+        LocalDate last = today.plusDays(withinDays);
+        int to = monthDay(last);
+        if (to == 228 && !last.isLeapYear()) {
+            to = 229;
+        }
+        return new BirthdayWindow(first, first, to);
+    }
+
+    private static int monthDay(LocalDate day) {
+        return day.getMonthValue() * 100 + day.getDayOfMonth();
+    }
+
+    /**
+     * @return The first day of the window, as month and day
+     */
+    int getFrom() {
+        return from;
+    }
+
+    /**
+     * @return The last day of the window, as month and day. If it is before {@link #getFrom()}, the window runs past
+     * 31 December.
+     */
+    int getTo() {
+        return to;
+    }
+
+    /**
+     * @return Orders Contacts by their next birthday, so that those from today to 31 December come before those from
+     * 1 January on, and then by name
+     */
+    Comparator<ContactSummary> soonestFirst() {
+        return Comparator.comparingInt((ContactSummary contact) -> {
+            int monthDay = Contact.monthDay(contact.getBirthDate());
+            return monthDay >= today ? monthDay - today : monthDay + 1300 - today;
+        }).thenComparing(ContactSummary::getLastName).thenComparing(ContactSummary::getFirstName);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Reads and writes the restaurants of a {@link RestaurantCatalog} snapshot as a compact binary file, so that a
+ * restarted node can serve from memory straight away instead of starting cold.</p>
+ *
+ * <p>The file holds a header (magic number, format version, time written, {@link Stamp}, restaurant count) followed by
+ * each restaurant as its id and version, and its name, post code and phone number as length prefixed UTF-8. It is read
+ * through a memory mapping, and written to a temporary file which then replaces the old one, so a reader never sees
+ * half a file.</p>
+ *
+ * <p>The stamp ties the file to the database it was written from. The schema is dropped and created again on every
+ * deployment (<code>hibernate.hbm2ddl.auto=create-drop</code>), so without it a restarted node would serve the
+ * restaurants of its previous run until the next refresh.</p>
+ *
+ * <p>The file is kept in the directory named by the <code>quickstart.snapshot.dir</code> system property, or else the
+ * data directory of the server, or else the temporary directory.</p>
+ */
+final class CatalogSnapshotFile {
+
+    private static final int MAGIC = 0x52434154; // "RCAT"
+
+    private static final int FORMAT_VERSION = 2;
+
+    // magic, format version, time written, stamp, restaurant count
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 3 * 8 + 4;
+
+    /** Older files are ignored, reconciling them would cost about as much as loading from scratch. */
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final String FILE_NAME = "restaurant-catalog.bin";
+
+    private CatalogSnapshotFile() {
+    }
+
+    static Path location() {
+        String dir = System.getProperty("quickstart.snapshot.dir");
+        if (dir == null) {
+            dir = System.getProperty("jboss.server.data.dir", System.getProperty("java.io.tmpdir"));
+        }
+        return Paths.get(dir, FILE_NAME);
+    }
+
+    /**
+     * @param file The file to write
+     * @param stamp The stamp of the database, taken before the restaurants were read from it
+     * @param restaurants The restaurants to be written
+     * @throws IOException If the file cannot be written
+     */
+    static synchronized void write(Path file, Stamp stamp, List<RestaurantSummary> restaurants) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temporary = file.resolveSibling(FILE_NAME + ".tmp");
+
+        try (OutputStream stream = Files.newOutputStream(temporary);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(stamp.rows);
+            out.writeLong(stamp.maxId);
+            out.writeLong(stamp.versionSum);
+            out.writeInt(restaurants.size());
+            for (RestaurantSummary restaurant : restaurants) {
+                out.writeLong(restaurant.getId());
+                out.writeLong(restaurant.getVersion() == null ? -1L : restaurant.getVersion());
+                writeString(out, restaurant.getName());
+                writeString(out, restaurant.getPost_code());
+                writeString(out, restaurant.getPhoneNumber());
+            }
+        }
+
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param file The file to read
+     * @param stamp The stamp of the database as it is now
+     * @return The restaurants held by the file, or null if there is no usable file, or it was written from another
+     * database or before later writes
+     * @throws IOException If the file exists but cannot be read
+     */
+    static List<RestaurantSummary> read(Path file, Stamp stamp) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            if (System.currentTimeMillis() - buffer.getLong() > MAX_AGE_MILLIS) {
+                return null;
+            }
+            if (!stamp.equals(new Stamp(buffer.getLong(), buffer.getLong(), buffer.getLong()))) {
+                return null;
+            }
+
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / 16) {
+                return null;
+            }
+            List<RestaurantSummary> restaurants = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = buffer.getLong();
+                long version = buffer.getLong();
+                restaurants.add(new RestaurantSummary(id, version < 0 ? null : version,
+                        readString(buffer), readString(buffer), readString(buffer)));
+            }
+            return restaurants;
+        } catch (BufferUnderflowException e) {
+            // Truncated, fall back to the database.
+            return null;
+        }
+    }
+
+    /**
+     * <p>Identifies the state of the restaurant table: the number of rows, tombstones included, their highest id and
+     * the sum of their versions. Every write adds or removes a row or increments a version, so the stamp of another
+     * database, or of the same one before later writes, almost certainly differs.</p>
+     */
+    static final class Stamp {
+
+        private final long rows;
+        private final long maxId;
+        private final long versionSum;
+
+        Stamp(long rows, long maxId, long versionSum) {
+            this.rows = rows;
+            this.maxId = maxId;
+            this.versionSum = versionSum;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Stamp)) return false;
+            Stamp stamp = (Stamp) o;
+            return rows == stamp.rows && maxId == stamp.maxId && versionSum == stamp.versionSum;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(rows, maxId, versionSum);
+        }
+
+        @Override
+        public String toString() {
+            return rows + " rows, max id " + maxId + ", version sum " + versionSum;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.jboss.quickstarts.wfk.contact;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.hibernate.validator.constraints.Email;
 import org.hibernate.validator.constraints.NotEmpty;
 
@@ -26,7 +27,9 @@ import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
 import javax.xml.bind.annotation.XmlRootElement;
 import java.io.Serializable;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.Locale;
 import java.util.Objects;
 
 /**
@@ -41,25 +44,71 @@ import java.util.Objects;
 /*
  * The @NamedQueries included here are for searching against the table that reflects this object.  This is the most efficient
  * form of query in JPA though is it more error prone due to the syntax being in a String.  This makes it harder to debug.
+ *
+ * FIND_ALL only backs the list endpoint, so it selects straight into a ContactSummary instead of loading managed
+ * entities.
+ *
+ * The names are also stored lower cased, in columns indexed for the case insensitive prefix search by name.
+ *
+ * The month and day of the birth date are stored as one number, e.g. 1231 for 31 December, so that upcoming birthdays
+ * are an indexed range query. BIRTHDAYS_BETWEEN serves windows within a year, BIRTHDAYS_AROUND_YEAR_END windows which
+ * run past 31 December.
+ *
+ * FIND_ALL_WITHOUT_STATE finds the contacts whose state has not been resolved yet, leaving out those given up on by
+ * MARK_UNRESOLVED unless their phone number has changed since, see ContactEnrichmentService.
  */
 @Entity
 @NamedQueries({
-        @NamedQuery(name = Contact.FIND_ALL, query = "SELECT c FROM Contact c ORDER BY c.lastName ASC, c.firstName ASC"),
-        @NamedQuery(name = Contact.FIND_BY_EMAIL, query = "SELECT c FROM Contact c WHERE c.email = :email")
+        @NamedQuery(name = Contact.FIND_ALL, query = "SELECT NEW org.jboss.quickstarts.wfk.contact.ContactSummary(c.id, c.version, c.firstName, c.lastName, c.email, "
+                + "c.phoneNumber, c.birthDate, c.state) FROM Contact c ORDER BY c.lastName ASC, c.firstName ASC"),
+        @NamedQuery(name = Contact.FIND_BY_EMAIL, query = "SELECT c FROM Contact c WHERE c.email = :email"),
+        @NamedQuery(name = Contact.FIND_ALL_EMAILS, query = "SELECT c.email FROM Contact c"),
+        @NamedQuery(name = Contact.COUNT_ALL, query = "SELECT COUNT(c) FROM Contact c"),
+        @NamedQuery(name = Contact.BIRTHDAYS_BETWEEN, query = "SELECT NEW org.jboss.quickstarts.wfk.contact.ContactSummary(c.id, "
+                + "c.version, c.firstName, c.lastName, c.email, c.phoneNumber, c.birthDate, c.state) FROM Contact c "
+                + "WHERE c.birthMonthDay >= :from AND c.birthMonthDay <= :to"),
+        @NamedQuery(name = Contact.BIRTHDAYS_AROUND_YEAR_END, query = "SELECT NEW org.jboss.quickstarts.wfk.contact.ContactSummary("
+                + "c.id, c.version, c.firstName, c.lastName, c.email, c.phoneNumber, c.birthDate, c.state) FROM Contact c "
+                + "WHERE c.birthMonthDay >= :from OR c.birthMonthDay <= :to"),
+        @NamedQuery(name = Contact.UPDATE_STATE, query = "UPDATE Contact c SET c.state = :state, c.version = c.version + 1 "
+                + "WHERE c.id IN :ids"),
+        @NamedQuery(name = Contact.FIND_ALL_WITHOUT_STATE, query = "SELECT NEW org.jboss.quickstarts.wfk.contact.ContactSummary("
+                + "c.id, c.version, c.firstName, c.lastName, c.email, c.phoneNumber, c.birthDate, c.state) FROM Contact c "
+                + "WHERE c.state IS NULL AND (c.unresolvedPhoneNumber IS NULL OR c.unresolvedPhoneNumber <> c.phoneNumber) "
+                + "ORDER BY c.id"),
+        @NamedQuery(name = Contact.MARK_UNRESOLVED, query = "UPDATE Contact c SET c.unresolvedPhoneNumber = c.phoneNumber "
+                + "WHERE c.id IN :ids AND c.phoneNumber IN :phoneNumbers AND c.state IS NULL")
 })
 @XmlRootElement
-@Table(name = "contact", uniqueConstraints = @UniqueConstraint(columnNames = "email"))
+@Table(name = "contact", uniqueConstraints = @UniqueConstraint(columnNames = "email"), indexes = {
+        @Index(name = "contact_name_key", columnList = "last_name_key, first_name_key"),
+        @Index(name = "contact_first_name_key", columnList = "first_name_key"),
+        @Index(name = "contact_birth_date", columnList = "birth_date"),
+        @Index(name = "contact_birth_month_day", columnList = "birth_month_day")
+})
 public class Contact implements Serializable {
     /** Default value included to remove warning. Remove or modify at will. **/
     private static final long serialVersionUID = 1L;
 
     public static final String FIND_ALL = "Contact.findAll";
     public static final String FIND_BY_EMAIL = "Contact.findByEmail";
+    public static final String FIND_ALL_EMAILS = "Contact.findAllEmails";
+    public static final String COUNT_ALL = "Contact.countAll";
+    public static final String UPDATE_STATE = "Contact.updateState";
+    public static final String FIND_ALL_WITHOUT_STATE = "Contact.findAllWithoutState";
+    public static final String MARK_UNRESOLVED = "Contact.markUnresolved";
+    public static final String BIRTHDAYS_BETWEEN = "Contact.birthdaysBetween";
+    public static final String BIRTHDAYS_AROUND_YEAR_END = "Contact.birthdaysAroundYearEnd";
 
     @Id
     @GeneratedValue(strategy = GenerationType.TABLE)
     private Long id;
 
+    /** Incremented on every update, so that concurrent updates are detected rather than overwriting each other. */
+    @Version
+    @Column(name = "version")
+    private Long version;
+
     @NotNull
     @Size(min = 1, max = 25)
     @Pattern(regexp = "[A-Za-z-']+", message = "Please use a name without numbers or specials")
@@ -72,6 +121,16 @@ public class Contact implements Serializable {
     @Column(name = "last_name")
     private String lastName;
 
+    /** The first name lower cased, see {@link #nameKey(String)}. Kept in step by {@link #setFirstName(String)}. */
+    @JsonIgnore
+    @Column(name = "first_name_key")
+    private String firstNameKey;
+
+    /** The last name lower cased, see {@link #nameKey(String)}. Kept in step by {@link #setLastName(String)}. */
+    @JsonIgnore
+    @Column(name = "last_name_key")
+    private String lastNameKey;
+
     @NotNull
     @NotEmpty
     @Email(message = "The email address must be in the format of name@domain.com")
@@ -88,9 +147,22 @@ public class Contact implements Serializable {
     @Temporal(TemporalType.DATE)
     private Date birthDate;
 
+    /** The month and day of the birth date, see {@link #monthDay(Date)}. Kept in step by {@link #setBirthDate(Date)}. */
+    @JsonIgnore
+    @Column(name = "birth_month_day")
+    private Integer birthMonthDay;
+
     @Column(name = "state")
     private String state;
 
+    /**
+     * The phone number the state could not be resolved for, so that the contact is not queued again at every startup.
+     * Written by {@link #MARK_UNRESOLVED}. A different phone number is looked up again.
+     */
+    @JsonIgnore
+    @Column(name = "unresolved_phone_number")
+    private String unresolvedPhoneNumber;
+
     public Long getId() {
         return id;
     }
@@ -99,12 +171,21 @@ public class Contact implements Serializable {
         this.id = id;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public String getFirstName() {
         return firstName;
     }
 
     public void setFirstName(String firstName) {
         this.firstName = firstName;
+        this.firstNameKey = nameKey(firstName);
     }
 
     public String getLastName() {
@@ -113,6 +194,32 @@ public class Contact implements Serializable {
 
     public void setLastName(String lastName) {
         this.lastName = lastName;
+        this.lastNameKey = nameKey(lastName);
+    }
+
+    /**
+     * <p>Normalizes a name, or the prefix of one, for the case insensitive search by name.</p>
+     *
+     * @param name The name, may be null
+     * @return The name lower cased, or null
+     */
+    static String nameKey(String name) {
+        return name == null ? null : name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * <p>Encodes the month and day of a date as <code>month * 100 + day</code>, which sorts in calendar order.</p>
+     *
+     * @param date The date, may be null
+     * @return The month and day of the date, or null
+     */
+    static Integer monthDay(Date date) {
+        if (date == null) {
+            return null;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        return (calendar.get(Calendar.MONTH) + 1) * 100 + calendar.get(Calendar.DAY_OF_MONTH);
     }
 
     public String getEmail() {
@@ -137,6 +244,7 @@ public class Contact implements Serializable {
 
     public void setBirthDate(Date birthDate) {
         this.birthDate = birthDate;
+        this.birthMonthDay = monthDay(birthDate);
     }
 
     public void setState(String state) {
@@ -0,0 +1,346 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import org.jboss.quickstarts.wfk.area.AreaService;
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * <p>Resolves the {@link Contact#getState() state} of newly written contacts in the background.</p>
+ *
+ * <p>{@link ContactService} fires an event for every contact it writes. Once the surrounding transaction has committed
+ * the contact is put on a queue, which is drained every few seconds: the queued contacts are grouped by area code, each
+ * distinct area code is looked up once in the upstream {@link AreaService}, and the state is written back with one bulk
+ * UPDATE per area code. Writes therefore never wait on the upstream service.</p>
+ *
+ * <p>The lookups are made outside of any transaction, and each UPDATE is committed on its own by the
+ * {@link ContactStateWriter}. Contacts whose lookup or UPDATE fails are put back on the queue, up to
+ * {@link #MAX_ATTEMPTS} times. While the upstream service is unavailable the drains back off, from
+ * {@link #MIN_BACKOFF_MILLIS} doubling up to {@link #MAX_BACKOFF_MILLIS}.</p>
+ *
+ * <p>The queue is only held in memory, so at startup every contact whose state is still unresolved is queued
+ * again. Contacts given up on, because their phone number has no area code, the area code is unknown upstream, or they
+ * ran out of attempts, are marked as such in their row, and are only looked up again once their phone number
+ * changes.</p>
+ *
+ * <p>Concurrency is bean managed so that queueing a contact never blocks on a drain that is waiting on the upstream
+ * service.</p>
+ *
+ * @see ContactEnrichmentStatus
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ContactEnrichmentService {
+
+    private static final String AREA_SERVICE_URL = "http://ec2-18-119-125-232.us-east-2.compute.amazonaws.com/";
+
+    /** Upper bound on the number of queued contacts handled by a single drain. */
+    private static final int BATCH_SIZE = 500;
+
+    /** The number of failed lookups or writes after which a contact is given up on, see {@link #giveUp(List)}. */
+    static final int MAX_ATTEMPTS = 6;
+
+    /** The first pause after the upstream service has been found unavailable, one drain period. */
+    static final long MIN_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /** Upper bound on the pause while the upstream service stays unavailable. */
+    static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private ContactRepository crud;
+
+    @Inject
+    private ContactStateWriter writer;
+
+    private final Queue<PendingContact> queue = new ConcurrentLinkedQueue<>();
+
+    // ConcurrentLinkedQueue.size() walks the whole queue, so the length is tracked separately.
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final AtomicLong enriched = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile Date lastRun;
+
+    private volatile int lastBatchSize;
+
+    // Only changed by the drain holding the draining flag.
+    private volatile long backoffMillis;
+
+    private volatile long pausedUntil;
+
+    private ResteasyClient client;
+
+    /**
+     * <p>Creates the client for the upstream service, and queues the contacts left unresolved by the previous
+     * deployment.</p>
+     */
+    @PostConstruct
+    void start() {
+        // Create client service instance to make REST requests to upstream service
+        client = new ResteasyClientBuilder().build();
+
+        long now = System.currentTimeMillis();
+        List<ContactSummary> unresolved = crud.findAllWithoutState();
+        for (ContactSummary contact : unresolved) {
+            queue.add(new PendingContact(contact.getId(), contact.getPhoneNumber(), now, 0));
+        }
+        pending.addAndGet(unresolved.size());
+        if (!unresolved.isEmpty()) {
+            log.info("ContactEnrichmentService.start() - Queued " + unresolved.size() + " unresolved contacts");
+        }
+    }
+
+    @PreDestroy
+    void closeClient() {
+        client.close();
+    }
+
+    /**
+     * <p>Queues a contact for enrichment once the transaction that wrote it has committed successfully.</p>
+     *
+     * @param contact The Contact that has been created or updated
+     */
+    public void enqueue(@Observes(during = TransactionPhase.AFTER_SUCCESS) Contact contact) {
+        queue.add(new PendingContact(contact.getId(), contact.getPhoneNumber(), System.currentTimeMillis(), 0));
+        pending.incrementAndGet();
+    }
+
+    /**
+     * <p>Takes up to {@link #BATCH_SIZE} contacts off the queue and writes their state.</p>
+     *
+     * <p>If the upstream service cannot be reached the unprocessed contacts are put back on the queue and retried once
+     * the back off has passed. Contacts with an unknown area code, or which have failed {@link #MAX_ATTEMPTS} times,
+     * are dropped, see {@link #giveUp(List)}.</p>
+     */
+    @Schedule(hour = "*", minute = "*", second = "*/5", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void drain() {
+        if (System.currentTimeMillis() < pausedUntil || !draining.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            // Coalesce repeated writes of the same contact, the most recently queued phone number wins.
+            Map<Long, PendingContact> batch = new LinkedHashMap<>();
+            PendingContact next;
+            while (batch.size() < BATCH_SIZE && (next = queue.poll()) != null) {
+                pending.decrementAndGet();
+                batch.merge(next.id, next, (held, polled) -> polled.queuedAt >= held.queuedAt ? polled : held);
+            }
+
+            Map<Integer, List<PendingContact>> byAreaCode = new HashMap<>();
+            List<PendingContact> givenUp = new ArrayList<>();
+            for (PendingContact contact : batch.values()) {
+                Integer areaCode = contact.areaCode();
+                if (areaCode == null) {
+                    givenUp.add(contact);
+                } else {
+                    byAreaCode.computeIfAbsent(areaCode, k -> new ArrayList<>()).add(contact);
+                }
+            }
+
+            AreaService service = client.target(AREA_SERVICE_URL).proxy(AreaService.class);
+            List<PendingContact> retry = new ArrayList<>();
+            boolean unavailable = false;
+
+            for (Map.Entry<Integer, List<PendingContact>> entry : byAreaCode.entrySet()) {
+                if (unavailable) {
+                    // Leave the rest of the batch for the next run, without counting it as an attempt.
+                    retry.addAll(entry.getValue());
+                    continue;
+                }
+
+                String state;
+                try {
+                    state = service.getAreaById(entry.getKey()).getState();
+                } catch (WebApplicationException e) {
+                    if (e.getResponse().getStatus() == Response.Status.NOT_FOUND.getStatusCode()) {
+                        log.warning("ContactEnrichmentService.drain() - Unknown area code " + entry.getKey());
+                        givenUp.addAll(entry.getValue());
+                    } else {
+                        log.warning("ContactEnrichmentService.drain() - Area service answered "
+                                + e.getResponse().getStatus());
+                        unavailable = true;
+                        retryLater(entry.getValue(), retry, givenUp);
+                    }
+                    continue;
+                } catch (ProcessingException e) {
+                    log.warning("ContactEnrichmentService.drain() - Area service unavailable: " + e.getMessage());
+                    unavailable = true;
+                    retryLater(entry.getValue(), retry, givenUp);
+                    continue;
+                }
+
+                List<Long> ids = new ArrayList<>(entry.getValue().size());
+                for (PendingContact contact : entry.getValue()) {
+                    ids.add(contact.id);
+                }
+                try {
+                    // Only counted once the UPDATE has been committed.
+                    enriched.addAndGet(writer.writeState(state, ids));
+                } catch (RuntimeException e) {
+                    log.warning("ContactEnrichmentService.drain() - Cannot write the state of area code "
+                            + entry.getKey() + ": " + e.getMessage());
+                    retryLater(entry.getValue(), retry, givenUp);
+                }
+            }
+
+            queue.addAll(retry);
+            pending.addAndGet(retry.size());
+            giveUp(givenUp);
+
+            if (unavailable) {
+                backoffMillis = Math.min(Math.max(backoffMillis * 2, MIN_BACKOFF_MILLIS), MAX_BACKOFF_MILLIS);
+                pausedUntil = System.currentTimeMillis() + backoffMillis;
+            } else {
+                backoffMillis = 0;
+            }
+
+            lastBatchSize = batch.size();
+            lastRun = new Date();
+        } finally {
+            draining.set(false);
+        }
+    }
+
+    /**
+     * <p>Puts contacts whose lookup or write has failed back on the queue, unless they have run out of attempts.</p>
+     */
+    private void retryLater(List<PendingContact> contacts, List<PendingContact> retry, List<PendingContact> givenUp) {
+        for (PendingContact contact : contacts) {
+            if (contact.attempts + 1 >= MAX_ATTEMPTS) {
+                log.warning("ContactEnrichmentService.drain() - Giving up on contact " + contact.id + " after "
+                        + MAX_ATTEMPTS + " attempts");
+                givenUp.add(contact);
+            } else {
+                retry.add(new PendingContact(contact.id, contact.phoneNumber, contact.queuedAt, contact.attempts + 1));
+            }
+        }
+    }
+
+    /**
+     * <p>Counts the contacts whose state cannot be resolved as failed, and marks them in the database so that they are
+     * not queued again at the next startup, unless their phone number changes. If the mark cannot be written they are
+     * only queued once more at the next startup.</p>
+     */
+    private void giveUp(List<PendingContact> contacts) {
+        if (contacts.isEmpty()) {
+            return;
+        }
+        failed.addAndGet(contacts.size());
+
+        List<Long> ids = new ArrayList<>(contacts.size());
+        List<String> phoneNumbers = new ArrayList<>(contacts.size());
+        for (PendingContact contact : contacts) {
+            ids.add(contact.id);
+            if (contact.phoneNumber != null) {
+                phoneNumbers.add(contact.phoneNumber);
+            }
+        }
+        if (phoneNumbers.isEmpty()) {
+            return;
+        }
+        try {
+            writer.markUnresolved(ids, phoneNumbers);
+        } catch (RuntimeException e) {
+            log.warning("ContactEnrichmentService.drain() - Cannot mark " + ids.size() + " contacts as unresolved: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * <p>Returns a snapshot of the enrichment pipeline, including how far behind the writes it currently is.</p>
+     *
+     * @return The current ContactEnrichmentStatus
+     */
+    public ContactEnrichmentStatus status() {
+        PendingContact oldest = queue.peek();
+        long lag = oldest == null ? 0 : System.currentTimeMillis() - oldest.queuedAt;
+        return new ContactEnrichmentStatus(pending.get(), lag, lastRun, lastBatchSize, enriched.get(), failed.get());
+    }
+
+    /**
+     * <p>A contact waiting to be enriched. Only the fields needed for the lookup are kept so the queue does not hold on
+     * to detached entities.</p>
+     */
+    private static final class PendingContact {
+        private final Long id;
+        private final String phoneNumber;
+        private final long queuedAt;
+        private final int attempts;
+
+        private PendingContact(Long id, String phoneNumber, long queuedAt, int attempts) {
+            this.id = id;
+            this.phoneNumber = phoneNumber;
+            this.queuedAt = queuedAt;
+            this.attempts = attempts;
+        }
+
+        /**
+         * Phone numbers are stored as "(212) 555-1212", the area code is the three digits inside the brackets.
+         */
+        private Integer areaCode() {
+            if (phoneNumber == null || phoneNumber.length() < 4) {
+                return null;
+            }
+            try {
+                return Integer.parseInt(phoneNumber.substring(1, 4));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
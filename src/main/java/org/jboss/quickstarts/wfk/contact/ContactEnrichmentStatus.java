@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import java.util.Date;
+
+/**
+ * <p>A simple POJO describing the state of the {@link ContactEnrichmentService} queue, marshaled into JSON by
+ * jackson.</p>
+ */
+public class ContactEnrichmentStatus {
+    private final int pending;
+    private final long lagMillis;
+    private final Date lastRun;
+    private final int lastBatchSize;
+    private final long enriched;
+    private final long failed;
+
+    public ContactEnrichmentStatus(int pending, long lagMillis, Date lastRun, int lastBatchSize, long enriched,
+                                   long failed) {
+        this.pending = pending;
+        this.lagMillis = lagMillis;
+        this.lastRun = lastRun;
+        this.lastBatchSize = lastBatchSize;
+        this.enriched = enriched;
+        this.failed = failed;
+    }
+
+    /** Number of contacts waiting for their state to be resolved. */
+    public int getPending() {
+        return pending;
+    }
+
+    /** Age in milliseconds of the oldest contact still waiting, 0 when the queue is empty. */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    public Date getLastRun() {
+        return lastRun;
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /** Number of contacts whose state has been written since deployment. */
+    public long getEnriched() {
+        return enriched;
+    }
+
+    /** Number of contacts given up on, because their area code is unknown upstream or their lookup kept failing. */
+    public long getFailed() {
+        return failed;
+    }
+}
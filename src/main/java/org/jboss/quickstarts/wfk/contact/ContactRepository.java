@@ -16,16 +16,28 @@
  */
 package org.jboss.quickstarts.wfk.contact;
 
+import org.hibernate.annotations.QueryHints;
+import org.jboss.quickstarts.wfk.util.EntityUpdates;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.MergePatch;
+import org.jboss.quickstarts.wfk.util.QueryCaller;
+import org.jboss.quickstarts.wfk.util.QuerySpec;
+import org.jboss.quickstarts.wfk.util.ScrolledQuery;
+import org.jboss.quickstarts.wfk.util.UniqueViolations;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
 import javax.persistence.TypedQuery;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -39,6 +51,7 @@ import java.util.logging.Logger;
  * @see Contact
  * @see javax.persistence.EntityManager
  */
+@QueryCaller
 public class ContactRepository {
 
     @Inject
@@ -48,15 +61,35 @@ public class ContactRepository {
     private EntityManager em;
 
     /**
-     * <p>Returns a List of all persisted {@link Contact} objects, sorted alphabetically by last name.</p>
+     * <p>Returns a List of {@link ContactSummary} views of all persisted Contact objects, sorted alphabetically by name.</p>
      *
-     * @return List of Contact objects
+     * @return List of ContactSummary objects
      */
-    List<Contact> findAllOrderedByName() {
-        TypedQuery<Contact> query = em.createNamedQuery(Contact.FIND_ALL, Contact.class);
+    List<ContactSummary> findAllOrderedByName() {
+        TypedQuery<ContactSummary> query = em.createNamedQuery(Contact.FIND_ALL, ContactSummary.class);
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns {@link ContactSummary} views of the Contacts whose state has not been resolved, in id order.</p>
+     *
+     * @return List of ContactSummary objects
+     */
+    List<ContactSummary> findAllWithoutState() {
+        return em.createNamedQuery(Contact.FIND_ALL_WITHOUT_STATE, ContactSummary.class).getResultList();
+    }
+
+    /**
+     * <p>Returns only the selected fields of the Contacts matching every filter, sorted alphabetically by last name.</p>
+     *
+     * @param fields The fields to read
+     * @param filters Contact attribute names mapped to the value they must be equal to
+     * @return One map of field values per matching Contact
+     */
+    List<Map<String, Object>> findFields(FieldSelection fields, Map<String, Object> filters) {
+        return fields.select(em, Contact.class, filters, "lastName", "firstName");
+    }
+
     /**
      * <p>Returns a single Contact object, specified by a Long id.<p/>
      *
@@ -67,49 +100,117 @@ public class ContactRepository {
         return em.find(Contact.class, id);
     }
 
+    /**
+     * @return The number of Contacts
+     */
+    long countAll() {
+        return em.createNamedQuery(Contact.COUNT_ALL, Long.class).getSingleResult();
+    }
+
+    /**
+     * <p>Passes the email of every Contact to the action. The emails are read through a forward only cursor, see
+     * {@link ScrolledQuery}.</p>
+     *
+     * @param action Receives each email
+     * @return The number of emails read
+     */
+    long forEachEmail(Consumer<String> action) {
+        return ScrolledQuery.forEach(em.createNamedQuery(Contact.FIND_ALL_EMAILS), action);
+    }
+
     /**
      * <p>Returns a single Contact object, specified by a String email.</p>
      *
      * <p>If there is more than one Contact with the specified email, only the first encountered will be returned.<p/>
      *
+     * <p>A miss is an expected outcome, so it is answered without the NoResultException thrown by
+     * {@link TypedQuery#getSingleResult()}.</p>
+     *
      * @param email The email field of the Contact to be returned
-     * @return The first Contact with the specified email
+     * @return The first Contact with the specified email, or an empty Optional if there is none
      */
-    Contact findByEmail(String email) {
-        TypedQuery<Contact> query = em.createNamedQuery(Contact.FIND_BY_EMAIL, Contact.class).setParameter("email", email);
-        return query.getSingleResult();
+    Optional<Contact> findByEmail(String email) {
+        List<Contact> found = em.createNamedQuery(Contact.FIND_BY_EMAIL, Contact.class)
+                .setParameter("email", email)
+                .setMaxResults(1)
+                .getResultList();
+        return found.isEmpty() ? Optional.<Contact>empty() : Optional.of(found.get(0));
     }
 
     /**
-     * <p>Returns a list of Contact objects, specified by a String firstName.<p/>
+     * <p>Returns the Contacts whose names start with the given prefixes, ignoring case, and who were born within the
+     * given dates, sorted alphabetically by name.</p>
+     *
+     * <p>Everything is matched in one query. The names are matched against the lower cased name columns, so a search
+     * by first and last name is a range scan of the (last name, first name) index rather than two result sets to be
+     * intersected, and the dates against the indexed birth date.</p>
+     *
+     * <p>The JPQL of each combination of criteria is rendered once, see {@link QuerySpec}.</p>
      *
-     * @param firstName The firstName field of the Contacts to be returned
-     * @return The Contacts with the specified firstName
+     * @param firstName The prefix of the first name, or null to match any
+     * @param lastName The prefix of the last name, or null to match any
+     * @param bornAfter The day after which the Contacts were born, or null for no lower bound
+     * @param bornBefore The day before which the Contacts were born, or null for no upper bound
+     * @return The matching Contacts
      */
-    List<Contact> findAllByFirstName(String firstName) {
-        CriteriaBuilder cb = em.getCriteriaBuilder();
-        CriteriaQuery<Contact> criteria = cb.createQuery(Contact.class);
-        Root<Contact> contact = criteria.from(Contact.class);
-        // Swap criteria statements if you would like to try out type-safe criteria queries, a new feature in JPA 2.0.
-        // criteria.select(contact).where(cb.equal(contact.get(Contact_.firstName), firstName));
-        criteria.select(contact).where(cb.equal(contact.get("firstName"), firstName));
-        return em.createQuery(criteria).getResultList();
+    List<Contact> findAllMatching(String firstName, String lastName, Date bornAfter, Date bornBefore) {
+        return Queries.SEARCH.bind(em, prefix(lastName), prefix(firstName), bornAfter, bornBefore)
+                .setHint(QueryHints.READ_ONLY, true)
+                .getResultList();
     }
 
     /**
-     * <p>Returns a single Contact object, specified by a String lastName.<p/>
+     * <p>Returns only the selected fields of the Contacts matching the criteria of
+     * {@link #findAllMatching(String, String, Date, Date)}, sorted alphabetically by name.</p>
      *
-     * @param lastName The lastName field of the Contacts to be returned
-     * @return The Contacts with the specified lastName
+     * @param fields The fields to read
+     * @param firstName The prefix of the first name, or null to match any
+     * @param lastName The prefix of the last name, or null to match any
+     * @param bornAfter The day after which the Contacts were born, or null for no lower bound
+     * @param bornBefore The day before which the Contacts were born, or null for no upper bound
+     * @return One map of field values per matching Contact
      */
-    List<Contact> findAllByLastName(String lastName) {
-        CriteriaBuilder cb = em.getCriteriaBuilder();
-        CriteriaQuery<Contact> criteria = cb.createQuery(Contact.class);
-        Root<Contact> contact = criteria.from(Contact.class);
-        // Swap criteria statements if you would like to try out type-safe criteria queries, a new feature in JPA 2.0.
-        // criteria.select(contact).where(cb.equal(contact.get(Contact_.lastName), lastName));
-        criteria.select(contact).where(cb.equal(contact.get("lastName"), lastName));
-        return em.createQuery(criteria).getResultList();
+    List<Map<String, Object>> findFieldsMatching(FieldSelection fields, String firstName, String lastName,
+                                                 Date bornAfter, Date bornBefore) {
+        return fields.select(em, Queries.SEARCH, prefix(lastName), prefix(firstName), bornAfter, bornBefore);
+    }
+
+    /**
+     * <p>Returns {@link ContactSummary} views of the Contacts whose birthday falls within the given days of the year,
+     * in no particular order.</p>
+     *
+     * @param from The first day, as month and day, see {@link Contact#monthDay(Date)}
+     * @param to The last day, as month and day. If it is before <code>from</code>, the days run past 31 December.
+     * @return The Contacts whose birthday falls within the days
+     */
+    List<ContactSummary> findAllWithBirthdayBetween(int from, int to) {
+        String query = from <= to ? Contact.BIRTHDAYS_BETWEEN : Contact.BIRTHDAYS_AROUND_YEAR_END;
+        return em.createNamedQuery(query, ContactSummary.class)
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .getResultList();
+    }
+
+    /**
+     * @return A LIKE pattern matching the names which start with the given one, ignoring case, or null for no name
+     */
+    private static String prefix(String name) {
+        return name == null ? null : QuerySpec.startsWith(Contact.nameKey(name));
+    }
+
+    /**
+     * <p>The queries of this repository, declared on first use, once the persistence unit has initialized the static
+     * metamodel.</p>
+     */
+    private static final class Queries {
+
+        static final QuerySpec<Contact> SEARCH = QuerySpec.from(Contact.class)
+                .where(Contact_.lastNameKey, QuerySpec.Operator.LIKE)
+                .where(Contact_.firstNameKey, QuerySpec.Operator.LIKE)
+                .where(Contact_.birthDate, QuerySpec.Operator.GREATER_THAN)
+                .where(Contact_.birthDate, QuerySpec.Operator.LESS_THAN)
+                .orderBy(Contact_.lastNameKey, Contact_.firstNameKey)
+                .build();
     }
 
     /**
@@ -127,65 +228,93 @@ public class ContactRepository {
     Contact create(Contact contact) throws ConstraintViolationException, ValidationException, Exception {
         log.info("ContactRepository.create() - Creating " + contact.getFirstName() + " " + contact.getLastName());
 
-        // Write the contact to the database.
-        em.persist(contact);
+        // Write the contact to the database, flushing so that a duplicate email is reported here.
+        try {
+            em.persist(contact);
+            em.flush();
+        } catch (PersistenceException e) {
+            throw translate(e);
+        }
 
         return contact;
     }
 
     /**
-     * <p>Updates an existing Contact object in the application database with the provided Contact object.</p>
+     * <p>Writes a patch to the Contact with the given id, setting only the changed columns in one UPDATE statement.</p>
      *
-     * <p>{@link javax.persistence.EntityManager#merge(Object) merge(Object)} creates a new instance of your entity,
-     * copies the state from the supplied entity, and makes the new copy managed. The instance you pass in will not be
-     * managed (any changes you make will not be part of the transaction - unless you call merge again).</p>
+     * @param id The id of the Contact to be patched
+     * @param version The version the Contact must still be at, or null to patch it whatever its version
+     * @param patch The validated changes
+     * @return The number of rows updated, 0 if there is no Contact with the id
+     */
+    int patch(Long id, Long version, MergePatch patch) {
+        log.info("ContactRepository.patch() - Patching " + id + " " + patch.getValues().keySet());
+
+        // The columns derived from the names and the birth date are not part of the patch, so they are set alongside.
+        Map<String, Object> values = new LinkedHashMap<>(patch.getValues());
+        if (patch.changes("firstName")) {
+            values.put("firstNameKey", Contact.nameKey(patch.<String>get("firstName")));
+        }
+        if (patch.changes("lastName")) {
+            values.put("lastNameKey", Contact.nameKey(patch.<String>get("lastName")));
+        }
+        if (patch.changes("birthDate")) {
+            values.put("birthMonthDay", Contact.monthDay(patch.<Date>get("birthDate")));
+        }
+
+        try {
+            return EntityUpdates.update(em, Contact.class, id, version, values);
+        } catch (PersistenceException e) {
+            throw translate(e);
+        }
+    }
+
+    /**
+     * <p>Overwrites an existing Contact in the application database with the provided Contact object.</p>
      *
-     * <p>merge(Object) however must have an object with the @Id already generated.</p>
+     * <p>The row is written with a single UPDATE by id, see {@link EntityUpdates}, rather than
+     * {@link javax.persistence.EntityManager#merge(Object) merge(Object)}, which would first have to SELECT it.</p>
      *
-     * @param contact The Contact object to be merged with an existing Contact
-     * @return The Contact that has been merged
+     * @param contact The Contact object holding the new state, with the id of the Contact to be overwritten
+     * @return The number of rows updated, 0 if there is no Contact with the id
      * @throws ConstraintViolationException, ValidationException, Exception
      */
-    Contact update(Contact contact) throws ConstraintViolationException, ValidationException, Exception {
+    int update(Contact contact) throws ConstraintViolationException, ValidationException, Exception {
         log.info("ContactRepository.update() - Updating " + contact.getFirstName() + " " + contact.getLastName());
 
-        // Either update the contact or add it if it can't be found.
-        em.merge(contact);
-
-        return contact;
+        try {
+            return EntityUpdates.update(em, Contact.class, contact.getId(), contact);
+        } catch (PersistenceException e) {
+            throw translate(e);
+        }
     }
 
     /**
-     * <p>Deletes the provided Contact object from the application database if found there</p>
+     * <p>Translates the unique constraint violation of a write into a {@link UniqueEmailException}, the only unique key
+     * of the table being the email.</p>
      *
-     * @param contact The Contact object to be removed from the application database
-     * @return The Contact object that has been successfully removed from the application database; or null
-     * @throws Exception
+     * @param e The exception thrown by the write
+     * @return The exception to be thrown in its place
      */
-    Contact delete(Contact contact) throws Exception {
-        log.info("ContactRepository.delete() - Deleting " + contact.getFirstName() + " " + contact.getLastName());
-
-        if (contact.getId() != null) {
-            /*
-             * The Hibernate session (aka EntityManager's persistent context) is closed and invalidated after the commit(), 
-             * because it is bound to a transaction. The object goes into a detached status. If you open a new persistent 
-             * context, the object isn't known as in a persistent state in this new context, so you have to merge it. 
-             * 
-             * Merge sees that the object has a primary key (id), so it knows it is not new and must hit the database 
-             * to reattach it. 
-             * 
-             * Note, there is NO remove method which would just take a primary key (id) and a entity class as argument. 
-             * You first need an object in a persistent state to be able to delete it.
-             * 
-             * Therefore we merge first and then we can remove it.
-             */
-            em.remove(em.merge(contact));
-
-        } else {
-            log.info("ContactRepository.delete() - No ID was found so can't Delete.");
+    private RuntimeException translate(PersistenceException e) {
+        if (UniqueViolations.isUniqueViolation(e)) {
+            return new UniqueEmailException("Unique Email Violation", e);
         }
+        return e;
+    }
 
-        return contact;
+    /**
+     * <p>Deletes the Contact with the given id with a single DELETE statement, without loading it first.</p>
+     *
+     * @param id The id of the Contact to be deleted
+     * @param version The version the Contact must still be at, or null to delete it whatever its version
+     * @return The number of Contacts deleted, 0 if there is no Contact with the id
+     * @throws javax.persistence.OptimisticLockException If the Contact is no longer at the given version
+     */
+    int delete(Long id, Long version) {
+        log.info("ContactRepository.delete() - Deleting " + id);
+
+        return EntityUpdates.delete(em, Contact.class, id, version);
     }
 
 }
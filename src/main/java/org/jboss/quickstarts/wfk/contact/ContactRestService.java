@@ -18,18 +18,28 @@ package org.jboss.quickstarts.wfk.contact;
 
 import io.swagger.annotations.*;
 import org.jboss.quickstarts.wfk.area.InvalidAreaCodeException;
+import org.jboss.quickstarts.wfk.util.ETags;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.MergePatch;
+import org.jboss.quickstarts.wfk.util.PATCH;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
 import org.jboss.resteasy.annotations.cache.Cache;
 
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -64,35 +74,111 @@ public class ContactRestService {
     @Inject
     private ContactService service;
 
+    @Inject
+    private ContactEnrichmentService enrichment;
+
     /**
      * <p>Return all the Contacts.  They are sorted alphabetically by name.</p>
      *
-     * <p>The url may optionally include query parameters specifying a Contact's name</p>
+     * <p>The url may optionally include query parameters specifying a Contact's name. They match any name starting
+     * with them, ignoring case.</p>
+     *
+     * <p>The url may also include <code>bornAfter</code> and <code>bornBefore</code> dates, in the format yyyy-MM-dd,
+     * to only return the Contacts born between them.</p>
+     *
+     * <p>The url may also include a <code>fields</code> query parameter listing the fields to return.</p>
      *
-     * <p>Examples: <pre>GET api/contacts?firstname=John</pre>, <pre>GET api/contacts?firstname=John&lastname=Smith</pre></p>
+     * <p>Examples: <pre>GET api/contacts?firstname=John</pre>, <pre>GET api/contacts?firstname=John&lastname=Smith</pre>,
+     * <pre>GET api/contacts?lastname=Smith&fields=id,firstName,phoneNumber</pre>,
+     * <pre>GET api/contacts?bornAfter=1990-01-01&bornBefore=2000-01-01</pre></p>
      *
      * @return A Response containing a list of Contacts
      */
     @GET
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @ApiOperation(value = "Fetch all Contacts", notes = "Returns a JSON array of all stored Contact objects.")
-    public Response retrieveAllContacts(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname) {
-        //Create an empty collection to contain the intersection of Contacts to be returned
-        List<Contact> contacts;
-
-        if(firstname == null && lastname == null) {
-            contacts = service.findAllOrderedByName();
-        } else if(lastname == null) {
-                contacts = service.findAllByFirstName(firstname);
-        } else if(firstname == null) {
-                contacts = service.findAllByLastName(lastname);
-        } else {
-                contacts = service.findAllByFirstName(firstname);
-                contacts.retainAll(service.findAllByLastName(lastname));
+    public Response retrieveAllContacts(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname,
+            @ApiParam(value = "Only return Contacts born after this date, yyyy-MM-dd")
+            @QueryParam("bornAfter")
+            String bornAfter,
+            @ApiParam(value = "Only return Contacts born before this date, yyyy-MM-dd")
+            @QueryParam("bornBefore")
+            String bornBefore,
+            @ApiParam(value = "Comma separated list of fields to return, all fields if omitted")
+            @QueryParam("fields")
+            String fields) {
+
+        Date after = parseDate("bornAfter", bornAfter);
+        Date before = parseDate("bornBefore", bornBefore);
+
+        FieldSelection selection = FieldSelection.parse(fields, ContactSummary.FIELDS);
+        if (selection != null) {
+            return Response.ok(service.findFieldsMatching(selection, firstname, lastname, after, before)).build();
         }
 
+        if(firstname == null && lastname == null && after == null && before == null) {
+            return Response.ok(service.findAllOrderedByName()).build();
+        }
+
+        // Every criterion is matched in one query, see ContactRepository#findAllMatching.
+        List<Contact> contacts = service.findAllMatching(firstname, lastname, after, before);
+
         return Response.ok(contacts).build();
     }
 
+    /**
+     * <p>Return the Contacts whose birthday is today or within the next days, soonest first.</p>
+     *
+     * <p>Example: <pre>GET api/contacts/birthdays?withinDays=7</pre></p>
+     *
+     * @param withinDays The number of days after today to look ahead, 7 if omitted
+     * @return A Response containing a list of Contacts
+     */
+    @GET
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Path("/birthdays")
+    @ApiOperation(
+            value = "Fetch the Contacts with an upcoming birthday",
+            notes = "Returns a JSON array of the Contacts whose birthday is today or within the given number of days."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message ="Contacts found"),
+            @ApiResponse(code = 400, message = "Invalid number of days")
+    })
+    public Response retrieveUpcomingBirthdays(
+            @ApiParam(value = "Number of days after today to look ahead, from 0 to 365", defaultValue = "7")
+            @QueryParam("withinDays")
+            @DefaultValue("7")
+            int withinDays) {
+
+        if (withinDays < 0 || withinDays > 365) {
+            throw new RestServiceException("Bad Request",
+                    Collections.singletonMap("withinDays", "Please use a number of days from 0 to 365"),
+                    Response.Status.BAD_REQUEST);
+        }
+
+        return Response.ok(service.findUpcomingBirthdays(withinDays)).build();
+    }
+
+    /**
+     * @return The date, or null if the parameter is omitted
+     * @throws RestServiceException with status 400 if the parameter is not a date in the format yyyy-MM-dd
+     */
+    private static Date parseDate(String name, String value) {
+        if (value == null) {
+            return null;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setLenient(false);
+        try {
+            return format.parse(value);
+        } catch (ParseException e) {
+            throw new RestServiceException("Bad Request",
+                    Collections.singletonMap(name, "Please use a date in the format yyyy-MM-dd"),
+                    Response.Status.BAD_REQUEST);
+        }
+    }
+
     /**
      * <p>Search for and return a Contact identified by email address.<p/>
      *
@@ -101,9 +187,11 @@ public class ContactRestService {
      *
      *
      * @param email The string parameter value provided as a Contact's email
+     * @param fields The comma separated list of fields to return, or null for all of them
      * @return A Response containing a single Contact
      */
     @GET
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Cache
     @Path("/email/{email:.+[%40|@].+}")
     @ApiOperation(
@@ -117,25 +205,35 @@ public class ContactRestService {
     public Response retrieveContactsByEmail(
             @ApiParam(value = "Email of Contact to be fetched", required = true)
             @PathParam("email")
-            String email) {
-
-        Contact contact;
-        try {
-            contact = service.findByEmail(email);
-        } catch (NoResultException e) {
-            // Verify that the contact exists. Return 404, if not present.
-            throw new RestServiceException("No Contact with the email " + email + " was found!", Response.Status.NOT_FOUND);
+            String email,
+            @ApiParam(value = "Comma separated list of fields to return, all fields if omitted")
+            @QueryParam("fields")
+            String fields) {
+
+        FieldSelection selection = FieldSelection.parse(fields, ContactSummary.FIELDS);
+        if (selection != null) {
+            List<Map<String, Object>> rows = service.findFields(selection, Collections.<String, Object>singletonMap("email", email));
+            if (rows.isEmpty()) {
+                throw new RestServiceException("No Contact with the email " + email + " was found!", Response.Status.NOT_FOUND);
+            }
+            return Response.ok(rows.get(0)).build();
         }
-        return Response.ok(contact).build();
+
+        // Verify that the contact exists. Return 404, if not present.
+        Contact contact = service.findByEmail(email).orElseThrow(() ->
+                new RestServiceException("No Contact with the email " + email + " was found!", Response.Status.NOT_FOUND));
+        return Response.ok(contact).tag(ETags.of(contact.getVersion())).build();
     }
 
     /**
      * <p>Search for and return a Contact identified by id.</p>
      *
      * @param id The long parameter value provided as a Contact's id
+     * @param fields The comma separated list of fields to return, or null for all of them
      * @return A Response containing a single Contact
      */
     @GET
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Cache
     @Path("/{id:[0-9]+}")
     @ApiOperation(
@@ -149,7 +247,19 @@ public class ContactRestService {
     public Response retrieveContactById(
             @ApiParam(value = "Id of Contact to be fetched", allowableValues = "range[0, infinity]", required = true)
             @PathParam("id")
-            long id) {
+            long id,
+            @ApiParam(value = "Comma separated list of fields to return, all fields if omitted")
+            @QueryParam("fields")
+            String fields) {
+
+        FieldSelection selection = FieldSelection.parse(fields, ContactSummary.FIELDS);
+        if (selection != null) {
+            List<Map<String, Object>> rows = service.findFields(selection, Collections.<String, Object>singletonMap("id", id));
+            if (rows.isEmpty()) {
+                throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
+            }
+            return Response.ok(rows.get(0)).build();
+        }
 
         Contact contact = service.findById(id);
         if (contact == null) {
@@ -158,7 +268,26 @@ public class ContactRestService {
         }
         log.info("findById " + id + ": found Contact = " + contact.toString());
 
-        return Response.ok(contact).build();
+        return Response.ok(contact).tag(ETags.of(contact.getVersion())).build();
+    }
+
+    /**
+     * <p>Return the status of the background state enrichment of Contacts.</p>
+     *
+     * <p>The state of a Contact is resolved from its area code after it has been written, so this reports how many
+     * Contacts are still waiting and how far behind the writes the enrichment is.</p>
+     *
+     * @return A Response containing the ContactEnrichmentStatus
+     */
+    @GET
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Path("/enrichment")
+    @ApiOperation(
+            value = "Fetch the state enrichment status",
+            notes = "Returns the number of Contacts waiting for their state to be resolved and the current lag."
+    )
+    public Response retrieveEnrichmentStatus() {
+        return Response.ok(enrichment.status()).build();
     }
 
     /**
@@ -231,6 +360,7 @@ public class ContactRestService {
      * @param contact The Contact object, constructed automatically from JSON input, to be <i>updated</i> via
      * {@link ContactService#update(Contact)}
      * @param id The long parameter value provided as the id of the Contact to be updated
+     * @param ifMatch The optional If-Match header holding the version the Contact must still be at
      * @return A Response indicating the outcome of the create operation
      */
     @PUT
@@ -241,6 +371,7 @@ public class ContactRestService {
             @ApiResponse(code = 400, message = "Invalid Contact supplied in request body"),
             @ApiResponse(code = 404, message = "Contact with id not found"),
             @ApiResponse(code = 409, message = "Contact details supplied in request body conflict with another existing Contact"),
+            @ApiResponse(code = 412, message = "Contact has been changed since the version given in If-Match"),
             @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
     })
     public Response updateContact(
@@ -248,7 +379,10 @@ public class ContactRestService {
             @PathParam("id")
             long id,
             @ApiParam(value = "JSON representation of Contact object to be updated in the database", required = true)
-            Contact contact) {
+            Contact contact,
+            @ApiParam(value = "Version the Contact must still be at, as returned in its ETag")
+            @HeaderParam("If-Match")
+            String ifMatch) {
 
         if (contact == null || contact.getId() == null) {
             throw new RestServiceException("Invalid Contact supplied in request body", Response.Status.BAD_REQUEST);
@@ -262,19 +396,21 @@ public class ContactRestService {
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(contact.getId()) == null) {
-            // Verify that the contact exists. Return 404, if not present.
-            throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        // An If-Match header takes precedence over the version in the body. Without either the update is unconditional.
+        Long expectedVersion = ETags.expectedVersion(ifMatch);
+        if (expectedVersion != null) {
+            contact.setVersion(expectedVersion);
         }
 
         Response.ResponseBuilder builder;
+        int updated;
 
         try {
             // Apply the changes the Contact.
-            service.update(contact);
+            updated = service.update(contact);
 
-            // Create an OK Response and pass the contact back in case it is needed.
-            builder = Response.ok(contact);
+            // Create an OK Response and pass the contact back, now holding its new version, in case it is needed.
+            builder = Response.ok(contact).tag(ETags.of(contact.getVersion()));
 
 
         } catch (ConstraintViolationException ce) {
@@ -295,21 +431,108 @@ public class ContactRestService {
             Map<String, String> responseObj = new HashMap<>();
             responseObj.put("area_code", "The telephone area code provided is not recognised, please provide another");
             throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
+        } catch (OptimisticLockException e) {
+            // Somebody else has changed the contact since the client read it.
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The Contact has been changed by another request, please fetch it again");
+            throw new RestServiceException("Precondition Failed", responseObj, Response.Status.PRECONDITION_FAILED, e);
         } catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
 
+        if (updated == 0) {
+            // The update is written by id, so no row means the Contact does not exist. Return 404.
+            throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+
         log.info("updateContact completed. Contact = " + contact.toString());
         return builder.build();
     }
 
+    /**
+     * <p>Partially updates the Contact with the ID provided using a JSON Merge Patch. Only the fields present in the patch
+     * are validated and written, and will return a JAX-RS response with either 204 (no content) or with a map of
+     * fields, and related errors.</p>
+     *
+     * <p>Its id, and the state derived from its phone number, cannot be changed.</p>
+     *
+     * <p>Example: <pre>PATCH api/contacts/1</pre> with the body <pre>{"lastName":"Smith"}</pre></p>
+     *
+     * @param id The long parameter value provided as the id of the Contact to be patched
+     * @param body The merge patch document
+     * @param ifMatch The optional If-Match header holding the version the Contact must still be at
+     * @return A Response indicating the outcome of the patch operation
+     */
+    @PATCH
+    @Path("/{id:[0-9]+}")
+    @Consumes(MergePatch.MEDIA_TYPE)
+    @ApiOperation(value = "Partially update a Contact in the database", consumes = MergePatch.MEDIA_TYPE)
+    @ApiResponses(value = {
+            @ApiResponse(code = 204, message = "Contact patched successfully"),
+            @ApiResponse(code = 400, message = "Invalid patch supplied in request body"),
+            @ApiResponse(code = 404, message = "Contact with id not found"),
+            @ApiResponse(code = 409, message = "Patch supplied in request body conflicts with another existing Contact"),
+            @ApiResponse(code = 412, message = "Contact has been changed since the version given in If-Match"),
+            @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
+    })
+    public Response patchContact(
+            @ApiParam(value = "Id of Contact to be patched", allowableValues = "range[0, infinity]", required = true)
+            @PathParam("id")
+            long id,
+            @ApiParam(value = "JSON Merge Patch holding the fields to be changed", required = true)
+            Map<String, Object> body,
+            @ApiParam(value = "Version the Contact must still be at, as returned in its ETag")
+            @HeaderParam("If-Match")
+            String ifMatch) {
+
+        MergePatch patch = MergePatch.parse(body, Contact.class, ContactSummary.FIELDS, "id", "version", "state");
+
+        int updated;
+
+        try {
+            updated = service.patch(id, ETags.expectedVersion(ifMatch), patch);
+
+        } catch (ConstraintViolationException ce) {
+            //Handle bean validation issues
+            Map<String, String> responseObj = new HashMap<>();
+
+            for (ConstraintViolation<?> violation : ce.getConstraintViolations()) {
+                responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
+            }
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
+        } catch (UniqueEmailException e) {
+            // Handle the unique constraint violation
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("email", "That email is already used, please use a unique email");
+            throw new RestServiceException("Patch supplied in request body conflicts with another Contact",
+                    responseObj, Response.Status.CONFLICT, e);
+        } catch (OptimisticLockException e) {
+            // Somebody else has changed the contact since the client read it.
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The Contact has been changed by another request, please fetch it again");
+            throw new RestServiceException("Precondition Failed", responseObj, Response.Status.PRECONDITION_FAILED, e);
+        } catch (Exception e) {
+            // Handle generic exceptions
+            throw new RestServiceException(e);
+        }
+
+        if (updated == 0) {
+            // Verify that the contact exists. Return 404, if not present.
+            throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+
+        log.info("patchContact completed. Contact = " + id);
+        return Response.noContent().build();
+    }
+
     /**
      * <p>Deletes a contact using the ID provided. If the ID is not present then nothing can be deleted.</p>
      *
      * <p>Will return a JAX-RS response with either 204 NO CONTENT or with a map of fields, and related errors.</p>
      *
      * @param id The Long parameter value provided as the id of the Contact to be deleted
+     * @param ifMatch The optional If-Match header holding the version the Contact must still be at
      * @return A Response indicating the outcome of the delete operation
      */
     @DELETE
@@ -319,31 +542,40 @@ public class ContactRestService {
             @ApiResponse(code = 204, message = "The contact has been successfully deleted"),
             @ApiResponse(code = 400, message = "Invalid Contact id supplied"),
             @ApiResponse(code = 404, message = "Contact with id not found"),
+            @ApiResponse(code = 412, message = "Contact has been changed since the version given in If-Match"),
             @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
     })
     public Response deleteContact(
             @ApiParam(value = "Id of Contact to be deleted", allowableValues = "range[0, infinity]", required = true)
             @PathParam("id")
-            long id) {
+            long id,
+            @ApiParam(value = "Version the Contact must still be at, as returned in its ETag")
+            @HeaderParam("If-Match")
+            String ifMatch) {
 
-        Response.ResponseBuilder builder;
+        Long expectedVersion = ETags.expectedVersion(ifMatch);
 
-        Contact contact = service.findById(id);
-        if (contact == null) {
-            // Verify that the contact exists. Return 404, if not present.
-            throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
-        }
+        int deleted;
 
         try {
-            service.delete(contact);
-
-            builder = Response.noContent();
+            deleted = service.delete(id, expectedVersion);
 
+        } catch (OptimisticLockException e) {
+            // Somebody else has changed the contact since the client read it.
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The Contact has been changed by another request, please fetch it again");
+            throw new RestServiceException("Precondition Failed", responseObj, Response.Status.PRECONDITION_FAILED, e);
         } catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
-        log.info("deleteContact completed. Contact = " + contact.toString());
-        return builder.build();
+
+        if (deleted == 0) {
+            // The delete is by id, so no row means the Contact does not exist. Return 404.
+            throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+
+        log.info("deleteContact completed. Contact = " + id);
+        return Response.noContent().build();
     }
 }
@@ -16,21 +16,22 @@
  */
 package org.jboss.quickstarts.wfk.contact;
 
-import org.jboss.quickstarts.wfk.area.Area;
-import org.jboss.quickstarts.wfk.area.AreaService;
-import org.jboss.quickstarts.wfk.area.InvalidAreaCodeException;
-import org.jboss.resteasy.client.jaxrs.ResteasyClient;
-import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
-import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.MergePatch;
 
 import javax.enterprise.context.Dependent;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
-import javax.ws.rs.ClientErrorException;
-import javax.ws.rs.core.Response;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.logging.Logger;
 
 /**
@@ -46,6 +47,7 @@ import java.util.logging.Logger;
  * @author Joshua Wilson
  * @see ContactValidator
  * @see ContactRepository
+ * @see ContactEnrichmentService
  */
 //The @Dependent is the default scope is listed here so that you know what scope is being used.
 @Dependent
@@ -60,25 +62,35 @@ public class ContactService {
     @Inject
     private ContactRepository crud;
 
-    private ResteasyClient client;
+    @Inject
+    private UniqueKeyFilters uniqueKeys;
 
-    /**
-     * <p>Create a new client which will be used for our outgoing REST client communication</p>
-     */
-    public ContactService() {
-        // Create client service instance to make REST requests to upstream service
-        client = new ResteasyClientBuilder().build();
-    }
+    @Inject
+    private Event<Contact> written;
+
+    @Inject
+    private Clock clock;
 
     /**
      * <p>Returns a List of all persisted {@link Contact} objects, sorted alphabetically by last name.<p/>
      *
      * @return List of Contact objects
      */
-    List<Contact> findAllOrderedByName() {
+    List<ContactSummary> findAllOrderedByName() {
         return crud.findAllOrderedByName();
     }
 
+    /**
+     * <p>Returns only the selected fields of the Contacts matching every filter.</p>
+     *
+     * @param fields The fields to read
+     * @param filters Contact attribute names mapped to the value they must be equal to
+     * @return One map of field values per matching Contact
+     */
+    List<Map<String, Object>> findFields(FieldSelection fields, Map<String, Object> filters) {
+        return crud.findFields(fields, filters);
+    }
+
     /**
      * <p>Returns a single Contact object, specified by a Long id.<p/>
      *
@@ -95,30 +107,57 @@ public class ContactService {
      * <p>If there is more than one Contact with the specified email, only the first encountered will be returned.<p/>
      *
      * @param email The email field of the Contact to be returned
-     * @return The first Contact with the specified email
+     * @return The first Contact with the specified email, or an empty Optional if there is none
      */
-    Contact findByEmail(String email) {
+    Optional<Contact> findByEmail(String email) {
         return crud.findByEmail(email);
     }
 
     /**
-     * <p>Returns a single Contact object, specified by a String firstName.<p/>
+     * <p>Returns the Contacts whose names start with the given prefixes, ignoring case, and who were born within the
+     * given dates, sorted alphabetically by name.<p/>
      *
-     * @param firstName The firstName field of the Contact to be returned
-     * @return The first Contact with the specified firstName
+     * @param firstName The prefix of the first name, or null to match any
+     * @param lastName The prefix of the last name, or null to match any
+     * @param bornAfter The day after which the Contacts were born, or null for no lower bound
+     * @param bornBefore The day before which the Contacts were born, or null for no upper bound
+     * @return The matching Contacts
      */
-    List<Contact> findAllByFirstName(String firstName) {
-        return crud.findAllByFirstName(firstName);
+    List<Contact> findAllMatching(String firstName, String lastName, Date bornAfter, Date bornBefore) {
+        return crud.findAllMatching(firstName, lastName, bornAfter, bornBefore);
     }
 
     /**
-     * <p>Returns a single Contact object, specified by a String lastName.<p/>
+     * <p>Returns only the selected fields of the Contacts matching the criteria of
+     * {@link #findAllMatching(String, String, Date, Date)}.</p>
      *
-     * @param lastName The lastName field of the Contacts to be returned
-     * @return The Contacts with the specified lastName
+     * @param fields The fields to read
+     * @param firstName The prefix of the first name, or null to match any
+     * @param lastName The prefix of the last name, or null to match any
+     * @param bornAfter The day after which the Contacts were born, or null for no lower bound
+     * @param bornBefore The day before which the Contacts were born, or null for no upper bound
+     * @return One map of field values per matching Contact
      */
-    List<Contact> findAllByLastName(String lastName) {
-        return crud.findAllByLastName(lastName);
+    List<Map<String, Object>> findFieldsMatching(FieldSelection fields, String firstName, String lastName,
+                                                 Date bornAfter, Date bornBefore) {
+        return crud.findFieldsMatching(fields, firstName, lastName, bornAfter, bornBefore);
+    }
+
+    /**
+     * <p>Returns the Contacts whose birthday is today or within the given number of days, soonest first.<p/>
+     *
+     * <p>Windows running past 31 December continue in January, see {@link BirthdayWindow}.<p/>
+     *
+     * @param withinDays The number of days after today to look ahead, from 0 to 365. 365 returns every Contact.
+     * @return The Contacts with an upcoming birthday
+     */
+    List<ContactSummary> findUpcomingBirthdays(int withinDays) {
+        BirthdayWindow window = BirthdayWindow.starting(LocalDate.now(clock), withinDays);
+
+        List<ContactSummary> contacts = new ArrayList<>(
+                crud.findAllWithBirthdayBetween(window.getFrom(), window.getTo()));
+        contacts.sort(window.soonestFirst());
+        return contacts;
     }
 
     /**
@@ -126,6 +165,9 @@ public class ContactService {
      *
      * <p>Validates the data in the provided Contact object using a {@link ContactValidator} object.<p/>
      *
+     * <p>The state is not looked up here; the contact is queued for enrichment once the transaction commits so that
+     * the write never waits on the upstream area code service.</p>
+     *
      * @param contact The Contact object to be written to the database using a {@link ContactRepository} object
      * @return The Contact object that has been successfully written to the application database
      * @throws ConstraintViolationException, ValidationException, Exception
@@ -136,23 +178,15 @@ public class ContactService {
         // Check to make sure the data fits with the parameters in the Contact model and passes validation.
         validator.validateContact(contact);
 
-        /*//Create client service instance to make REST requests to upstream service
-        ResteasyWebTarget target = client.target("http://ec2-18-119-125-232.us-east-2.compute.amazonaws.com/");
-        AreaService service = target.proxy(AreaService.class);
-
-        try {
-            Area area = service.getAreaById(Integer.parseInt(contact.getPhoneNumber().substring(1, 4)));
-            contact.setState(area.getState());
-        } catch (ClientErrorException e) {
-            if (e.getResponse().getStatusInfo() == Response.Status.NOT_FOUND) {
-                throw new InvalidAreaCodeException("The area code provided does not exist", e);
-            } else {
-                throw e;
-            }
-        }*/
-
         // Write the contact to the database.
-        return crud.create(contact);
+        // Recorded before the write, so the validators never rule out a value which is in the database.
+        uniqueKeys.add(UniqueKeyFilters.Key.CONTACT_EMAIL, contact.getEmail());
+        crud.create(contact);
+
+        // The state is resolved from the area code once the write has committed, see ContactEnrichmentService.
+        written.fire(contact);
+
+        return contact;
     }
 
     /**
@@ -161,52 +195,68 @@ public class ContactService {
      * <p>Validates the data in the provided Contact object using a ContactValidator object.<p/>
      *
      * @param contact The Contact object to be passed as an update to the application database
-     * @return The Contact object that has been successfully updated in the application database
+     * @return The number of Contacts updated, 0 if there is no Contact with the id
      * @throws ConstraintViolationException, ValidationException, Exception
      */
-    Contact update(Contact contact) throws ConstraintViolationException, ValidationException, Exception {
+    int update(Contact contact) throws ConstraintViolationException, ValidationException, Exception {
         log.info("ContactService.update() - Updating " + contact.getFirstName() + " " + contact.getLastName());
         
         // Check to make sure the data fits with the parameters in the Contact model and passes validation.
         validator.validateContact(contact);
 
-        // Set client target location and define the proxy API class
-        /*ResteasyWebTarget target = client.target("http://ec2-18-119-125-232.us-east-2.compute.amazonaws.com/");
-        AreaService service = target.proxy(AreaService.class);
-
-        try {
-            Area area = service.getAreaById(Integer.parseInt(contact.getPhoneNumber().substring(1, 4)));
-            contact.setState(area.getState());
-        } catch (ClientErrorException e) {
-            if (e.getResponse().getStatusInfo() == Response.Status.NOT_FOUND) {
-                throw new InvalidAreaCodeException("The area code provided does not exist", e);
-            } else {
-                throw e;
-            }
-        }*/
-
-        // Either update the contact or add it if it can't be found.
-        return crud.update(contact);
+        uniqueKeys.add(UniqueKeyFilters.Key.CONTACT_EMAIL, contact.getEmail());
+        int updated = crud.update(contact);
+
+        if (updated > 0) {
+            // The phone number may have changed, so the state has to be resolved again.
+            written.fire(contact);
+        }
+
+        return updated;
     }
 
     /**
-     * <p>Deletes the provided Contact object from the application database if found there.<p/>
+     * <p>Applies a patch to the Contact with the given id.<p/>
+     *
+     * <p>Only the changed fields are validated, using a ContactValidator object, and written.<p/>
      *
-     * @param contact The Contact object to be removed from the application database
-     * @return The Contact object that has been successfully removed from the application database; or null
-     * @throws Exception
+     * @param id The id of the Contact to be patched
+     * @param version The version the Contact must still be at, or null to patch it whatever its version
+     * @param patch The changes to be applied
+     * @return The number of Contacts updated, 0 if there is no Contact with the id
+     * @throws ConstraintViolationException, ValidationException
      */
-    Contact delete(Contact contact) throws Exception {
-        log.info("delete() - Deleting " + contact.toString());
+    int patch(Long id, Long version, MergePatch patch) throws ConstraintViolationException, ValidationException {
+        log.info("ContactService.patch() - Patching " + id);
 
-        Contact deletedContact = null;
+        validator.validatePatch(id, patch);
 
-        if (contact.getId() != null) {
-            deletedContact = crud.delete(contact);
-        } else {
-            log.info("delete() - No ID was found so can't Delete.");
+        if (patch.changes("email")) {
+            uniqueKeys.add(UniqueKeyFilters.Key.CONTACT_EMAIL, patch.<String>get("email"));
         }
+        int updated = crud.patch(id, version, patch);
+
+        if (updated > 0 && patch.changes("phoneNumber")) {
+            // The phone number has changed, so the state has to be resolved again.
+            Contact contact = new Contact();
+            contact.setId(id);
+            contact.setPhoneNumber(patch.<String>get("phoneNumber"));
+            written.fire(contact);
+        }
+
+        return updated;
+    }
+
+    /**
+     * <p>Deletes the Contact with the given id from the application database if found there.<p/>
+     *
+     * @param id The id of the Contact to be deleted
+     * @param version The version the Contact must still be at, or null to delete it whatever its version
+     * @return The number of Contacts deleted, 0 if there is no Contact with the id
+     */
+    int delete(Long id, Long version) {
+        log.info("delete() - Deleting " + id);
 
-        return deletedContact;
+        return crud.delete(id, version);
     }
 }
@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import java.util.List;
+
+/**
+ * <p>Writes the states resolved by the {@link ContactEnrichmentService}, each bulk UPDATE in a transaction of its own,
+ * so that a write which fails only rolls back, and requeues, the contacts of one area code.</p>
+ *
+ * @see ContactEnrichmentService
+ */
+@Stateless
+@TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+public class ContactStateWriter {
+
+    @Inject
+    private EntityManager em;
+
+    /**
+     * @param state The state resolved for the contacts
+     * @param ids The ids of the contacts
+     * @return The number of contacts updated, which is committed once this method returns
+     */
+    public int writeState(String state, List<Long> ids) {
+        return em.createNamedQuery(Contact.UPDATE_STATE)
+                .setParameter("state", state)
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
+    /**
+     * <p>Records that the state of the contacts cannot be resolved for their current phone numbers, so that they are
+     * not queued again at startup. Contacts which have been given a state or another phone number since are left
+     * alone.</p>
+     *
+     * @param ids The ids of the contacts
+     * @param phoneNumbers The phone numbers which were looked up
+     * @return The number of contacts marked, which is committed once this method returns
+     */
+    public int markUnresolved(List<Long> ids, List<String> phoneNumbers) {
+        return em.createNamedQuery(Contact.MARK_UNRESOLVED)
+                .setParameter("ids", ids)
+                .setParameter("phoneNumbers", phoneNumbers)
+                .executeUpdate();
+    }
+}
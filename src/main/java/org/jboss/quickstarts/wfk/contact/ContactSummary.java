@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * <p>An immutable, read only view of a {@link Contact} used by the list endpoints.</p>
+ *
+ * <p>It is filled by a constructor expression in {@link Contact#FIND_ALL}, so only the serialized columns are read and
+ * no entity is ever put in the persistence context.</p>
+ */
+public final class ContactSummary {
+
+    /** The fields of a Contact that may be requested with <code>?fields=</code>, mapped to the attribute behind each. */
+    public static final Map<String, String> FIELDS = FieldSelection.available(
+            "id", "id",
+            "version", "version",
+            "firstName", "firstName",
+            "lastName", "lastName",
+            "email", "email",
+            "phoneNumber", "phoneNumber",
+            "birthDate", "birthDate",
+            "state", "state");
+
+    private final Long id;
+    private final Long version;
+    private final String firstName;
+    private final String lastName;
+    private final String email;
+    private final String phoneNumber;
+    private final Date birthDate;
+    private final String state;
+
+    public ContactSummary(Long id, Long version, String firstName, String lastName, String email, String phoneNumber,
+                          Date birthDate, String state) {
+        this.id = id;
+        this.version = version;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.email = email;
+        this.phoneNumber = phoneNumber;
+        this.birthDate = birthDate;
+        this.state = state;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    public Date getBirthDate() {
+        return birthDate;
+    }
+
+    public String getState() {
+        return state;
+    }
+}
@@ -16,13 +16,15 @@
  */
 package org.jboss.quickstarts.wfk.contact;
 
+import org.jboss.quickstarts.wfk.util.MergePatch;
+
 import javax.inject.Inject;
-import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 import javax.validation.Validator;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -40,6 +42,9 @@ public class ContactValidator {
     @Inject
     private ContactRepository crud;
 
+    @Inject
+    private UniqueKeyFilters uniqueKeys;
+
     /**
      * <p>Validates the given Contact object and throws validation exceptions based on the type of error. If the error is standard
      * bean validation errors then it will throw a ConstraintValidationException with the set of the constraints violated.<p/>
@@ -67,6 +72,32 @@ public class ContactValidator {
         }
     }
 
+    /**
+     * <p>Validates only the fields changed by a patch of the Contact with the given id.</p>
+     *
+     * <p>Each new value is checked against the constraints of its own field, and the uniqueness of the email is
+     * only checked if the patch changes it.</p>
+     *
+     * @param id The id of the Contact being patched
+     * @param patch The changes to be validated
+     * @throws ConstraintViolationException If Bean Validation errors exist
+     * @throws ValidationException If another contact already has the new email
+     */
+    void validatePatch(Long id, MergePatch patch) throws ConstraintViolationException, ValidationException {
+        Set<ConstraintViolation<Contact>> violations = new HashSet<>();
+        for (Map.Entry<String, Object> value : patch.getValues().entrySet()) {
+            violations.addAll(validator.validateValue(Contact.class, value.getKey(), value.getValue()));
+        }
+
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations));
+        }
+
+        if (patch.changes("email") && emailAlreadyExists(patch.get("email"), id)) {
+            throw new UniqueEmailException("Unique Email Violation");
+        }
+    }
+
     /**
      * <p>Checks if a contact with the same email address is already registered. This is the only way to easily capture the
      * "@UniqueConstraint(columnNames = "email")" constraint from the Contact class.</p>
@@ -74,28 +105,23 @@ public class ContactValidator {
      * <p>Since Update will being using an email that is already in the database we need to make sure that it is the email
      * from the record being updated.</p>
      *
+     * <p>The query is skipped if the {@link UniqueKeyFilters} rule the email out.</p>
+     *
      * @param email The email to check is unique
      * @param id The user id to check the email against if it was found
      * @return boolean which represents whether the email was found, and if so if it belongs to the user with id
      */
     boolean emailAlreadyExists(String email, Long id) {
-        Contact contact = null;
-        Contact contactWithID = null;
-        try {
-            contact = crud.findByEmail(email);
-        } catch (NoResultException e) {
-            // ignore
+        // Almost every new email has never been used, which the filter can tell without a query.
+        if (!uniqueKeys.mightContain(UniqueKeyFilters.Key.CONTACT_EMAIL, email)) {
+            return false;
         }
 
-        if (contact != null && id != null) {
-            try {
-                contactWithID = crud.findById(id);
-                if (contactWithID != null && contactWithID.getEmail().equals(email)) {
-                    contact = null;
-                }
-            } catch (NoResultException e) {
-                // ignore
-            }
+        Contact contact = crud.findByEmail(email).orElse(null);
+
+        // An update may keep its own email, which is not a conflict.
+        if (contact != null && id != null && contact.getId().equals(id)) {
+            contact = null;
         }
         return contact != null;
     }
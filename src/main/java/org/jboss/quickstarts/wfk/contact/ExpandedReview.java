@@ -0,0 +1,44 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+
+/**
+ * <p>A {@link ReviewSummary} with a digest of the reviewed restaurant inlined, returned by <code>?expand=restaurant</code>.</p>
+ *
+ * <p>The review fields are unwrapped so the JSON is that of a plain review with an extra <code>restaurant</code>
+ * object, which is null if the restaurant no longer exists.</p>
+ */
+public final class ExpandedReview {
+    private final ReviewSummary review;
+    private final RestaurantDigest restaurant;
+
+    public ExpandedReview(ReviewSummary review, RestaurantDigest restaurant) {
+        this.review = review;
+        this.restaurant = restaurant;
+    }
+
+    @JsonUnwrapped
+    public ReviewSummary getReview() {
+        return review;
+    }
+
+    public RestaurantDigest getRestaurant() {
+        return restaurant;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.swagger.annotations.*;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.jboss.quickstarts.wfk.util.RestServiceException;
+import org.jboss.resteasy.annotations.GZIP;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * <p>Streams whole tables as CSV or newline delimited JSON, for bulk consumers such as the nightly data warehouse
+ * sync.</p>
+ *
+ * <p>Rows are read through a forward only {@link ScrollableResults} of a {@link StatelessSession}, so nothing is kept in
+ * a persistence context, and each row is written out as soon as it has been read. Memory use does not depend on the
+ * size of the table. The session is only opened once the response body is being written, after this EJB has
+ * returned, and is closed when the last row has been written.</p>
+ *
+ * <p>The body is compressed if the client sends <code>Accept-Encoding: gzip</code>.</p>
+ *
+ * <p>The full path for accessing endpoints defined herein is: api/export/*</p>
+ *
+ * <p>Examples: <pre>GET api/export/reviews?format=csv</pre>, <pre>GET api/export/contacts?format=ndjson</pre></p>
+ */
+@Path("/export")
+@Api(value = "/export", description = "Bulk export of contacts, users and reviews")
+@Stateless
+public class ExportRestService {
+
+    /** The media type of newline delimited JSON, one object per line. */
+    public static final String NDJSON = "application/x-ndjson";
+
+    /** The media type of comma separated values. */
+    public static final String CSV = "text/csv";
+
+    /** Rows fetched from the database per round trip. */
+    private static final int FETCH_SIZE = 500;
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @PersistenceUnit(unitName = "contacts_pu")
+    private EntityManagerFactory emf;
+
+    /**
+     * <p>The tables which may be exported, with the columns written for each. Deleted users and the reviews hidden with
+     * them are left out, as they are by the list endpoints.</p>
+     */
+    enum Export {
+        CONTACTS("SELECT c.id, c.version, c.firstName, c.lastName, c.email, c.phoneNumber, c.birthDate, c.state "
+                + "FROM Contact c ORDER BY c.id",
+                "id", "version", "firstName", "lastName", "email", "phoneNumber", "birthDate", "state"),
+        USERS("SELECT c.id, c.version, c.name, c.email, c.phoneNumber FROM User c WHERE c.deleted = false ORDER BY c.id",
+                "id", "version", "name", "email", "phoneNumber"),
+        REVIEWS("SELECT c.id, c.version, c.userId, c.restaurantId, c.review, c.rating FROM Review c WHERE "
+                + Review.VISIBLE + " ORDER BY c.id",
+                "id", "version", "userId", "restaurantId", "review", "rating");
+
+        private final String query;
+        private final String[] columns;
+
+        Export(String query, String... columns) {
+            this.query = query;
+            this.columns = columns;
+        }
+    }
+
+    /**
+     * <p>Streams every row of a table.</p>
+     *
+     * @param entity The table to export: contacts, users or reviews
+     * @param format csv or ndjson, ndjson if omitted
+     * @return A Response whose body is written row by row
+     */
+    @GET
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    @GZIP
+    @Path("/{entity:contacts|users|reviews}")
+    @Produces({NDJSON, CSV})
+    @ApiOperation(
+            value = "Export a table",
+            notes = "Streams every row of the table as CSV with a header line, or as one JSON object per line."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Rows streamed"),
+            @ApiResponse(code = 400, message = "Unknown format")
+    })
+    public Response export(
+            @ApiParam(value = "The table to export", allowableValues = "contacts,users,reviews", required = true)
+            @PathParam("entity")
+            String entity,
+            @ApiParam(value = "The format of the rows", allowableValues = "csv,ndjson", defaultValue = "ndjson")
+            @QueryParam("format")
+            @DefaultValue("ndjson")
+            String format) {
+
+        Export export = Export.valueOf(entity.toUpperCase(Locale.ROOT));
+        boolean csv;
+        if ("csv".equalsIgnoreCase(format)) {
+            csv = true;
+        } else if ("ndjson".equalsIgnoreCase(format)) {
+            csv = false;
+        } else {
+            throw new RestServiceException("Bad Request",
+                    Collections.singletonMap("format", "Please use csv or ndjson"), Response.Status.BAD_REQUEST);
+        }
+
+        log.info("ExportRestService.export() - Exporting " + entity + " as " + format.toLowerCase());
+
+        StreamingOutput body = out -> {
+            StatelessSession session = emf.unwrap(SessionFactory.class).openStatelessSession();
+            try {
+                ScrollableResults rows = session.createQuery(export.query)
+                        .setReadOnly(true)
+                        .setFetchSize(FETCH_SIZE)
+                        .scroll(ScrollMode.FORWARD_ONLY);
+                try {
+                    if (csv) {
+                        writeCsv(rows, export.columns, out);
+                    } else {
+                        writeNdjson(rows, export.columns, out);
+                    }
+                } finally {
+                    rows.close();
+                }
+            } finally {
+                session.close();
+            }
+        };
+
+        return Response.ok(body, csv ? CSV : NDJSON)
+                .header("Content-Disposition", "attachment; filename=\"" + entity + (csv ? ".csv" : ".ndjson") + "\"")
+                .build();
+    }
+
+    private static void writeCsv(ScrollableResults rows, String[] columns, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        SimpleDateFormat dates = dateFormat();
+
+        writer.write(String.join(",", columns));
+        writer.write("\r\n");
+        while (rows.next()) {
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                Object value = rows.get(i);
+                if (value != null) {
+                    writer.write(csvField(value instanceof Date ? dates.format((Date) value) : value.toString()));
+                }
+            }
+            writer.write("\r\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return The value, quoted if it holds a separator, a quote or a line break (RFC 4180)
+     */
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static void writeNdjson(ScrollableResults rows, String[] columns, OutputStream out) throws IOException {
+        JsonGenerator json = new JsonFactory().createGenerator(out);
+        // The stream belongs to the container.
+        json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        SimpleDateFormat dates = dateFormat();
+
+        while (rows.next()) {
+            json.writeStartObject();
+            for (int i = 0; i < columns.length; i++) {
+                Object value = rows.get(i);
+                json.writeFieldName(columns[i]);
+                if (value == null) {
+                    json.writeNull();
+                } else if (value instanceof Long) {
+                    json.writeNumber((Long) value);
+                } else if (value instanceof Date) {
+                    json.writeString(dates.format((Date) value));
+                } else {
+                    json.writeString(value.toString());
+                }
+            }
+            json.writeEndObject();
+            json.writeRaw('\n');
+        }
+        json.close();
+    }
+
+    /**
+     * @return The format dates are written in, the same as in the JSON of the other endpoints, see JacksonConfig
+     */
+    private static SimpleDateFormat dateFormat() {
+        return new SimpleDateFormat("yyyy-MM-dd");
+    }
+}
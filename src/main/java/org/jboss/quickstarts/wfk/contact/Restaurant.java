@@ -1,6 +1,8 @@
 package org.jboss.quickstarts.wfk.contact;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.hibernate.validator.constraints.NotEmpty;
+import org.jboss.quickstarts.wfk.util.SoftDeletable;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
@@ -14,22 +16,63 @@ import java.util.Objects;
 
 @Entity
 @NamedQueries({
-        @NamedQuery(name = Restaurant.FIND_ALL, query = "SELECT c FROM Restaurant c ORDER BY c.name ASC"),
-        @NamedQuery(name = Restaurant.FIND_BY_PHONENO, query = "SELECT c FROM Restaurant c WHERE c.phoneNumber = :phoneNumber")
+        @NamedQuery(name = Restaurant.FIND_ALL, query = "SELECT NEW org.jboss.quickstarts.wfk.contact.RestaurantSummary(c.id, c.version, c.name, c.postCode, c.phoneNumber) "
+                + "FROM Restaurant c WHERE c.deleted = false ORDER BY c.name ASC"),
+        @NamedQuery(name = Restaurant.FIND_BY_IDS, query = "SELECT NEW org.jboss.quickstarts.wfk.contact.RestaurantSummary(c.id, c.version, c.name, c.postCode, c.phoneNumber) "
+                + "FROM Restaurant c WHERE c.id IN :ids AND c.deleted = false"),
+        @NamedQuery(name = Restaurant.FIND_BY_PHONENO, query = "SELECT c FROM Restaurant c WHERE c.phoneNumber = :phoneNumber AND c.deleted = false"),
+        @NamedQuery(name = Restaurant.FIND_PURGEABLE_IDS, query = "SELECT c.id FROM Restaurant c WHERE c.deleted = true AND c.deletedAt < :cutoff "
+                + "AND NOT EXISTS (SELECT r.id FROM Review r WHERE r.restaurantId = c.id)"),
+        @NamedQuery(name = Restaurant.DELETE_BY_IDS, query = "DELETE FROM Restaurant c WHERE c.id IN :ids"),
+        @NamedQuery(name = Restaurant.FIND_ALL_PHONE_NUMBERS, query = "SELECT c.phoneNumber FROM Restaurant c WHERE c.deleted = false"),
+        @NamedQuery(name = Restaurant.COUNT_ALL, query = "SELECT COUNT(c) FROM Restaurant c WHERE c.deleted = false"),
+        @NamedQuery(name = Restaurant.FIND_STAMP, query = "SELECT COUNT(c), MAX(c.id), SUM(c.version) FROM Restaurant c")
 })
 @XmlRootElement
 @Table(name = "restaurant", uniqueConstraints = @UniqueConstraint(columnNames = "phone_number"))
-public class Restaurant implements Serializable {
+public class Restaurant implements Serializable, SoftDeletable {
     /** Default value included to remove warning. Remove or modify at will. **/
     private static final long serialVersionUID = 1L;
 
     public static final String FIND_ALL = "Restaraunt.findAll";
+    public static final String FIND_BY_IDS = "Restaraunt.findByIds";
     public static final String FIND_BY_PHONENO = "Restaraunt.findByPhoneNumber";
+    public static final String FIND_PURGEABLE_IDS = "Restaraunt.findPurgeableIds";
+    public static final String DELETE_BY_IDS = "Restaraunt.deleteByIds";
+    public static final String FIND_ALL_PHONE_NUMBERS = "Restaraunt.findAllPhoneNumbers";
+    public static final String COUNT_ALL = "Restaraunt.countAll";
+    public static final String FIND_STAMP = "Restaraunt.findStamp";
 
     @Id
     @GeneratedValue(strategy = GenerationType.TABLE)
     private Long id;
 
+    /** Incremented on every update, so that concurrent updates are detected rather than overwriting each other. */
+    @Version
+    @Column(name = "version")
+    private Long version;
+
+    /**
+     * Set instead of deleting the row, which is purged together with the reviews later on. The phone number is
+     * released at once, see {@link #deletedPhoneNumber}.
+     */
+    @Column(name = "deleted", nullable = false)
+    @JsonIgnore
+    private boolean deleted;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "deleted_at")
+    @JsonIgnore
+    private Date deletedAt;
+
+    /**
+     * The phone number of a deleted Restaurant, whose phone number column then holds a placeholder so that the number
+     * can be reused.
+     */
+    @Column(name = "deleted_phone_number")
+    @JsonIgnore
+    private String deletedPhoneNumber;
+
     @NotNull
     @Size(min = 1, max = 50)
     @Pattern(regexp = "[A-Za-z- ']+", message = "Please use a name without numbers or specials")
@@ -56,6 +99,40 @@ public class Restaurant implements Serializable {
 		this.id = id;
 	}
 
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
+	@Override
+	public boolean isDeleted() {
+		return deleted;
+	}
+
+	public void setDeleted(boolean deleted) {
+		this.deleted = deleted;
+	}
+
+	@Override
+	public Date getDeletedAt() {
+		return deletedAt;
+	}
+
+	public void setDeletedAt(Date deletedAt) {
+		this.deletedAt = deletedAt;
+	}
+
+	public String getDeletedPhoneNumber() {
+		return deletedPhoneNumber;
+	}
+
+	public void setDeletedPhoneNumber(String deletedPhoneNumber) {
+		this.deletedPhoneNumber = deletedPhoneNumber;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -0,0 +1,378 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import org.jboss.quickstarts.wfk.util.ResourceChanged;
+import org.jboss.quickstarts.wfk.util.ResponseCache;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.PersistenceException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * <p>Serves reads of restaurants from an immutable in-memory snapshot of all of them, without touching the
+ * database.</p>
+ *
+ * <p>The snapshot keeps the restaurants in an array sorted by id, alongside a <code>long[]</code> of the ids, and two
+ * <code>int[]</code> permutations of it ordering the restaurants by phone number and by name. Readers simply pick up
+ * the current snapshot, so they never lock or wait.</p>
+ *
+ * <p>Writers build a new snapshot from the current one and publish it by replacing the reference (copy-on-write). A
+ * write of a single restaurant only reloads that restaurant, and merges it into copies of the arrays in linear time;
+ * the whole snapshot is only rebuilt from the database at startup and by a periodic {@link #refresh()}, which picks up
+ * rows changed without a {@link ResourceChanged}, such as by SQL run outside the application. Writers are serialized
+ * among themselves so that a snapshot is never built from a stale read.</p>
+ *
+ * <p>Every rebuild, and shutdown, also writes the snapshot to a {@link CatalogSnapshotFile}. At startup that file is
+ * used instead of the database if it was written from the database as it is now, which only takes one aggregate
+ * query to tell.</p>
+ *
+ * @see RestaurantService
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class RestaurantCatalog {
+
+    private static final Comparator<RestaurantSummary> BY_PHONE = Comparator
+            .comparing(RestaurantSummary::getPhoneNumber)
+            .thenComparing(RestaurantSummary::getId);
+
+    private static final Comparator<RestaurantSummary> BY_NAME = Comparator
+            .comparing(RestaurantSummary::getName)
+            .thenComparing(RestaurantSummary::getId);
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private RestaurantRepository crud;
+
+    @Inject
+    private ResponseCache responseCache;
+
+    private final Object writeLock = new Object();
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    /**
+     * <p>Starts from the snapshot file if there is a usable one, or else from the database.</p>
+     *
+     * <p>A file is only usable if its stamp matches the database, otherwise it was written from the database of an
+     * earlier deployment, which <code>create-drop</code> has since replaced, or before writes made since. A file which
+     * matches holds exactly the restaurants of the database, so it is served as it is, without reading them again.
+     * Writes committed from then on are applied as usual.</p>
+     */
+    @PostConstruct
+    void load() {
+        Path file = CatalogSnapshotFile.location();
+        List<RestaurantSummary> restaurants = null;
+        try {
+            restaurants = CatalogSnapshotFile.read(file, crud.findStamp());
+        } catch (IOException e) {
+            log.warning("RestaurantCatalog.load() - Cannot read " + file + ": " + e.getMessage());
+        }
+
+        if (restaurants == null) {
+            refresh();
+            log.info("RestaurantCatalog.load() - Loaded " + snapshot.orderedByName().size() + " restaurants");
+            return;
+        }
+
+        synchronized (writeLock) {
+            snapshot = Snapshot.of(restaurants);
+        }
+        log.info("RestaurantCatalog.load() - Loaded " + restaurants.size() + " restaurants from " + file);
+    }
+
+    @PreDestroy
+    void save() {
+        CatalogSnapshotFile.Stamp stamp;
+        try {
+            stamp = crud.findStamp();
+        } catch (PersistenceException e) {
+            log.warning("RestaurantCatalog.save() - Cannot stamp the snapshot file: " + e.getMessage());
+            return;
+        }
+        write(stamp, snapshot);
+    }
+
+    /**
+     * <p>Rebuilds the whole snapshot from the database, and writes it to the snapshot file.</p>
+     */
+    @Schedule(hour = "*", minute = "*/5", persistent = false)
+    public void refresh() {
+        CatalogSnapshotFile.Stamp stamp;
+        Snapshot rebuilt;
+        synchronized (writeLock) {
+            // Stamped before reading, so a write in between leaves the file looking older than it is, never newer.
+            stamp = crud.findStamp();
+            rebuilt = Snapshot.of(crud.findAllOrderedByName());
+            snapshot = rebuilt;
+        }
+        write(stamp, rebuilt);
+    }
+
+    private void write(CatalogSnapshotFile.Stamp stamp, Snapshot snapshot) {
+        Path file = CatalogSnapshotFile.location();
+        try {
+            CatalogSnapshotFile.write(file, stamp, snapshot.orderedByName());
+        } catch (IOException e) {
+            log.warning("RestaurantCatalog.write() - Cannot write " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * <p>Reloads a restaurant once a write of it has been committed, and publishes a snapshot holding the new state.</p>
+     *
+     * <p>Responses cached while the old snapshot was still current are dropped again afterwards, as the
+     * {@link ResponseCache} may have been invalidated before this observer ran.</p>
+     *
+     * <p>The observer runs once the writing transaction has completed, when it can no longer be joined, so the
+     * restaurant is read outside of any transaction.</p>
+     *
+     * @param change The resource written
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void apply(@Observes(during = TransactionPhase.AFTER_SUCCESS) ResourceChanged change) {
+        if (!RestaurantService.COLLECTION.equals(change.getCollection()) || change.getId() == null) {
+            return;
+        }
+
+        synchronized (writeLock) {
+            List<RestaurantSummary> found = crud.findByIds(Collections.singletonList(change.getId())).getResults();
+            snapshot = found.isEmpty() ? snapshot.without(change.getId()) : snapshot.with(found.get(0));
+        }
+
+        responseCache.invalidate(change);
+        log.fine("RestaurantCatalog.apply() - Published " + change);
+    }
+
+    /**
+     * @return All restaurants, sorted alphabetically by name
+     */
+    public List<RestaurantSummary> findAllOrderedByName() {
+        return snapshot.orderedByName();
+    }
+
+    /**
+     * @param id The id of the restaurant
+     * @return The restaurant with the id, or null if there is none
+     */
+    public RestaurantSummary findById(long id) {
+        return snapshot.findById(id);
+    }
+
+    /**
+     * @param phoneNumber The phone number of the restaurant
+     * @return The restaurant with the phone number, or null if there is none
+     */
+    public RestaurantSummary findByPhoneNumber(String phoneNumber) {
+        return snapshot.findByPhoneNumber(phoneNumber);
+    }
+
+    /**
+     * <p>One immutable version of the catalog.</p>
+     */
+    static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(new long[0], new RestaurantSummary[0], new int[0], new int[0]);
+
+        // Sorted ascending, ids[i] is the id of restaurants[i]
+        private final long[] ids;
+        private final RestaurantSummary[] restaurants;
+
+        // Indexes into restaurants, in phone number and in name order
+        private final int[] byPhone;
+        private final int[] byName;
+
+        private final List<RestaurantSummary> orderedByName;
+
+        private Snapshot(long[] ids, RestaurantSummary[] restaurants, int[] byPhone, int[] byName) {
+            this.ids = ids;
+            this.restaurants = restaurants;
+            this.byPhone = byPhone;
+            this.byName = byName;
+            this.orderedByName = new AbstractList<RestaurantSummary>() {
+                @Override
+                public RestaurantSummary get(int index) {
+                    return restaurants[byName[index]];
+                }
+
+                @Override
+                public int size() {
+                    return byName.length;
+                }
+            };
+        }
+
+        static Snapshot of(List<RestaurantSummary> all) {
+            RestaurantSummary[] restaurants = all.toArray(new RestaurantSummary[all.size()]);
+            Arrays.sort(restaurants, Comparator.comparing(RestaurantSummary::getId));
+
+            long[] ids = new long[restaurants.length];
+            for (int i = 0; i < restaurants.length; i++) {
+                ids[i] = restaurants[i].getId();
+            }
+            return new Snapshot(ids, restaurants, sort(restaurants, BY_PHONE), sort(restaurants, BY_NAME));
+        }
+
+        List<RestaurantSummary> orderedByName() {
+            return orderedByName;
+        }
+
+        RestaurantSummary findById(long id) {
+            int index = Arrays.binarySearch(ids, id);
+            return index < 0 ? null : restaurants[index];
+        }
+
+        RestaurantSummary findByPhoneNumber(String phoneNumber) {
+            int low = 0;
+            int high = byPhone.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                RestaurantSummary restaurant = restaurants[byPhone[mid]];
+                int compared = restaurant.getPhoneNumber().compareTo(phoneNumber);
+                if (compared < 0) {
+                    low = mid + 1;
+                } else if (compared > 0) {
+                    high = mid - 1;
+                } else {
+                    return restaurant;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return A copy of this snapshot holding the given state of the restaurant, whether or not it was held already
+         */
+        Snapshot with(RestaurantSummary restaurant) {
+            int index = Arrays.binarySearch(ids, restaurant.getId());
+
+            if (index >= 0) {
+                RestaurantSummary[] restaurants = this.restaurants.clone();
+                restaurants[index] = restaurant;
+                return new Snapshot(ids, restaurants,
+                        reorder(byPhone, index, index, 0, restaurants, index, BY_PHONE),
+                        reorder(byName, index, index, 0, restaurants, index, BY_NAME));
+            }
+
+            int inserted = -index - 1;
+            long[] ids = new long[this.ids.length + 1];
+            RestaurantSummary[] restaurants = new RestaurantSummary[this.restaurants.length + 1];
+            System.arraycopy(this.ids, 0, ids, 0, inserted);
+            System.arraycopy(this.restaurants, 0, restaurants, 0, inserted);
+            ids[inserted] = restaurant.getId();
+            restaurants[inserted] = restaurant;
+            System.arraycopy(this.ids, inserted, ids, inserted + 1, this.ids.length - inserted);
+            System.arraycopy(this.restaurants, inserted, restaurants, inserted + 1, this.restaurants.length - inserted);
+
+            return new Snapshot(ids, restaurants,
+                    reorder(byPhone, -1, inserted, 1, restaurants, inserted, BY_PHONE),
+                    reorder(byName, -1, inserted, 1, restaurants, inserted, BY_NAME));
+        }
+
+        /**
+         * @return A copy of this snapshot without the restaurant with the given id, or this snapshot if it is not held
+         */
+        Snapshot without(long id) {
+            int removed = Arrays.binarySearch(ids, id);
+            if (removed < 0) {
+                return this;
+            }
+
+            long[] ids = new long[this.ids.length - 1];
+            RestaurantSummary[] restaurants = new RestaurantSummary[this.restaurants.length - 1];
+            System.arraycopy(this.ids, 0, ids, 0, removed);
+            System.arraycopy(this.restaurants, 0, restaurants, 0, removed);
+            System.arraycopy(this.ids, removed + 1, ids, removed, ids.length - removed);
+            System.arraycopy(this.restaurants, removed + 1, restaurants, removed, restaurants.length - removed);
+
+            return new Snapshot(ids, restaurants,
+                    reorder(byPhone, removed, removed + 1, -1, restaurants, -1, BY_PHONE),
+                    reorder(byName, removed, removed + 1, -1, restaurants, -1, BY_NAME));
+        }
+
+        private static int[] sort(RestaurantSummary[] restaurants, Comparator<RestaurantSummary> comparator) {
+            Integer[] order = new Integer[restaurants.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> comparator.compare(restaurants[a], restaurants[b]));
+
+            int[] sorted = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sorted[i] = order[i];
+            }
+            return sorted;
+        }
+
+        /**
+         * <p>Carries an ordering over to the new array of restaurants in one pass, instead of sorting it again.</p>
+         *
+         * @param order The ordering of the old array
+         * @param dropped The old index to leave out, or -1
+         * @param shiftFrom The first old index which moved in the new array
+         * @param shift How far the indexes from shiftFrom moved
+         * @param restaurants The new array
+         * @param added The new index to merge into the ordering, or -1
+         * @param comparator The ordering
+         * @return The ordering of the new array
+         */
+        private static int[] reorder(int[] order, int dropped, int shiftFrom, int shift,
+                                     RestaurantSummary[] restaurants, int added, Comparator<RestaurantSummary> comparator) {
+            int[] reordered = new int[restaurants.length];
+            int next = 0;
+            boolean pending = added >= 0;
+            for (int index : order) {
+                if (index == dropped) {
+                    continue;
+                }
+                int moved = index >= shiftFrom ? index + shift : index;
+                if (pending && comparator.compare(restaurants[added], restaurants[moved]) < 0) {
+                    reordered[next++] = added;
+                    pending = false;
+                }
+                reordered[next++] = moved;
+            }
+            if (pending) {
+                reordered[next] = added;
+            }
+            return reordered;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+/**
+ * <p>An immutable digest of a {@link Restaurant} inlined into review responses by <code>?expand=restaurant</code>.</p>
+ *
+ * <p>The average rating is computed over every review of the restaurant, and is null if it has not been reviewed.</p>
+ *
+ * @see RestaurantSummaryLoader
+ */
+public final class RestaurantDigest {
+    private final Long id;
+    private final String name;
+    private final String postCode;
+    private final Double averageRating;
+    private final long reviewCount;
+
+    public RestaurantDigest(Long id, String name, String postCode, Double averageRating, long reviewCount) {
+        this.id = id;
+        this.name = name;
+        this.postCode = postCode;
+        this.averageRating = averageRating;
+        this.reviewCount = reviewCount;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPost_code() {
+        return postCode;
+    }
+
+    public Double getAverageRating() {
+        return averageRating;
+    }
+
+    public long getReviewCount() {
+        return reviewCount;
+    }
+}
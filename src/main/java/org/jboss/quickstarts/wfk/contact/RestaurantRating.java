@@ -0,0 +1,45 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+/**
+ * <p>The aggregate rating of a restaurant over all of its reviews, filled by the {@link Review#FIND_RATINGS_BY_RESTAURANT_IDS}
+ * constructor expression.</p>
+ */
+public final class RestaurantRating {
+    private final Long restaurantId;
+    private final Double average;
+    private final long count;
+
+    public RestaurantRating(Long restaurantId, Double average, Long count) {
+        this.restaurantId = restaurantId;
+        this.average = average;
+        this.count = count == null ? 0 : count;
+    }
+
+    public Long getRestaurantId() {
+        return restaurantId;
+    }
+
+    public Double getAverage() {
+        return average;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
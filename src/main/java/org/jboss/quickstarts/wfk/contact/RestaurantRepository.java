@@ -1,8 +1,17 @@
 package org.jboss.quickstarts.wfk.contact;
 
+import org.jboss.quickstarts.wfk.util.EntityUpdates;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.MergePatch;
+import org.jboss.quickstarts.wfk.util.MultiGetResult;
+import org.jboss.quickstarts.wfk.util.QueryCaller;
+import org.jboss.quickstarts.wfk.util.ScrolledQuery;
+import org.jboss.quickstarts.wfk.util.UniqueViolations;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -10,6 +19,9 @@ import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -17,6 +29,7 @@ import java.util.logging.Logger;
  * Domain/Entity Object (see {@link Restaurant}).<p/>
 
  */
+@QueryCaller
 public class RestaurantRepository {
 
     @Inject
@@ -26,23 +39,79 @@ public class RestaurantRepository {
     private EntityManager em;
 
     /**
-     * <p>Returns a List of all persisted {@link Restaurant} objects, sorted alphabetically by last name.</p>
+     * <p>Returns a List of {@link RestaurantSummary} views of all persisted Restaurant objects, sorted alphabetically by name.</p>
      *
-     * @return List of Restaurant objects
+     * @return List of RestaurantSummary objects
      */
-    List<Restaurant> findAllOrderedByName() {
-        TypedQuery<Restaurant> query = em.createNamedQuery(Restaurant.FIND_ALL, Restaurant.class);
+    List<RestaurantSummary> findAllOrderedByName() {
+        TypedQuery<RestaurantSummary> query = em.createNamedQuery(Restaurant.FIND_ALL, RestaurantSummary.class);
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns only the selected fields of the Restaurants matching every filter, sorted alphabetically by name.</p>
+     *
+     * @param fields The fields to read
+     * @param filters Restaurant attribute names mapped to the value they must be equal to
+     * @return One map of field values per matching Restaurant
+     */
+    List<Map<String, Object>> findFields(FieldSelection fields, Map<String, Object> filters) {
+        return fields.select(em, Restaurant.class, filters, "name");
+    }
+
+    /**
+     * <p>Returns {@link RestaurantSummary} views of the Restaurants with the given ids, in request order.</p>
+     *
+     * <p>The ids are looked up with one <code>IN</code> list query per {@link MultiGetResult#CHUNK_SIZE} ids.</p>
+     *
+     * @param ids The distinct ids of the Restaurants to be returned
+     * @return The Restaurants found and the ids which were not
+     */
+    MultiGetResult<RestaurantSummary> findByIds(List<Long> ids) {
+        return MultiGetResult.load(ids,
+                chunk -> em.createNamedQuery(Restaurant.FIND_BY_IDS, RestaurantSummary.class).setParameter("ids", chunk).getResultList(),
+                RestaurantSummary::getId);
+    }
+
     /**
      * <p>Returns a single Restaurant object, specified by a Long id.<p/>
      *
      * @param id The id field of the Restaurant to be returned
-     * @return The Restaurant with the specified id
+     * @return The Restaurant with the specified id, or null if there is none or it has been deleted
      */
     Restaurant findById(Long id) {
-        return em.find(Restaurant.class, id);
+        Restaurant restaurant = em.find(Restaurant.class, id);
+        return restaurant == null || restaurant.isDeleted() ? null : restaurant;
+    }
+
+    /**
+     * @return The number of Restaurants
+     */
+    long countAll() {
+        return em.createNamedQuery(Restaurant.COUNT_ALL, Long.class).getSingleResult();
+    }
+
+    /**
+     * <p>Passes the phone number of every Restaurant to the action. The phone numbers are read through a forward only
+     * cursor, see {@link ScrolledQuery}.</p>
+     *
+     * @param action Receives each phone number
+     * @return The number of phone numbers read
+     */
+    long forEachPhoneNumber(Consumer<String> action) {
+        return ScrolledQuery.forEach(em.createNamedQuery(Restaurant.FIND_ALL_PHONE_NUMBERS), action);
+    }
+
+    /**
+     * <p>Returns the {@link CatalogSnapshotFile.Stamp} of the restaurant table as it is now, tombstones included.</p>
+     *
+     * @return The number of Restaurant rows, their highest id and the sum of their versions
+     */
+    CatalogSnapshotFile.Stamp findStamp() {
+        Object[] row = em.createNamedQuery(Restaurant.FIND_STAMP, Object[].class).getSingleResult();
+        return new CatalogSnapshotFile.Stamp(((Number) row[0]).longValue(),
+                row[1] == null ? -1L : ((Number) row[1]).longValue(),
+                row[2] == null ? 0L : ((Number) row[2]).longValue());
     }
 
     /**
@@ -50,12 +119,18 @@ public class RestaurantRepository {
      *
      * <p>If there is more than one Restaurant with the specified phoneNumber, only the first encountered will be returned.<p/>
      *
+     * <p>A miss is an expected outcome, so it is answered without the NoResultException thrown by
+     * {@link TypedQuery#getSingleResult()}.</p>
+     *
      * @param email The phoneNumber field of the Restaurant to be returned
-     * @return The first Restaurant with the specified phoneNumber
+     * @return The first Restaurant with the specified phoneNumber, or an empty Optional if there is none
      */
-    Restaurant findByPhoneNumber(String phoneNumber) {
-        TypedQuery<Restaurant> query = em.createNamedQuery(Restaurant.FIND_BY_PHONENO, Restaurant.class).setParameter("phoneNumber", phoneNumber);
-        return query.getSingleResult();
+    Optional<Restaurant> findByPhoneNumber(String phoneNumber) {
+        List<Restaurant> found = em.createNamedQuery(Restaurant.FIND_BY_PHONENO, Restaurant.class)
+                .setParameter("phoneNumber", phoneNumber)
+                .setMaxResults(1)
+                .getResultList();
+        return found.isEmpty() ? Optional.<Restaurant>empty() : Optional.of(found.get(0));
     }
 
  
@@ -76,66 +151,86 @@ public class RestaurantRepository {
     Restaurant create(Restaurant restaurant) throws ConstraintViolationException, ValidationException, Exception {
         log.info("RestaurantRepository.create() - Creating " + restaurant.getName());
 
-        // Write the user to the database.
-        em.persist(restaurant);
+        // Write the restaurant to the database, flushing so that a duplicate phone number is reported here.
+        try {
+            em.persist(restaurant);
+            em.flush();
+        } catch (PersistenceException e) {
+            throw translate(e);
+        }
 
         return restaurant;
     }
 
     /**
-     * <p>Updates an existing Restaurant object in the application database with the provided Restaurant object.</p>
+     * <p>Writes a patch to the Restaurant with the given id, setting only the changed columns in one UPDATE statement.</p>
      *
-     * <p>{@link javax.persistence.EntityManager#merge(Object) merge(Object)} creates a new instance of your entity,
-     * copies the state from the supplied entity, and makes the new copy managed. The instance you pass in will not be
-     * managed (any changes you make will not be part of the transaction - unless you call merge again).</p>
+     * @param id The id of the Restaurant to be patched
+     * @param version The version the Restaurant must still be at, or null to patch it whatever its version
+     * @param patch The validated changes
+     * @return The number of rows updated, 0 if there is no Restaurant with the id
+     */
+    int patch(Long id, Long version, MergePatch patch) {
+        log.info("RestaurantRepository.patch() - Patching " + id + " " + patch.getValues().keySet());
+
+        try {
+            return patch.apply(em, Restaurant.class, id, version);
+        } catch (PersistenceException e) {
+            throw translate(e);
+        }
+    }
+
+    /**
+     * <p>Overwrites an existing Restaurant in the application database with the provided Restaurant object.</p>
      *
-     * <p>merge(Object) however must have an object with the @Id already generated.</p>
+     * <p>The row is written with a single UPDATE by id, see {@link EntityUpdates}, rather than
+     * {@link javax.persistence.EntityManager#merge(Object) merge(Object)}, which would first have to SELECT it.</p>
      *
-     * @param restaurant The Restaurant object to be merged with an existing Restaurant
-     * @return The Restaurant that has been merged
+     * @param restaurant The Restaurant object holding the new state, with the id of the Restaurant to be overwritten
+     * @return The number of rows updated, 0 if there is no Restaurant with the id
      * @throws ConstraintViolationException, ValidationException, Exception
      */
-    Restaurant update(Restaurant restaurant) throws ConstraintViolationException, ValidationException, Exception {
+    int update(Restaurant restaurant) throws ConstraintViolationException, ValidationException, Exception {
         log.info("RestaurantRepository.update() - Updating " + restaurant.getName());
 
-        // Either update the contact or add it if it can't be found.
-        em.merge(restaurant);
-
-        return restaurant;
+        try {
+            return EntityUpdates.update(em, Restaurant.class, restaurant.getId(), restaurant);
+        } catch (PersistenceException e) {
+            throw translate(e);
+        }
     }
 
     /**
-     * <p>Deletes the provided Restaurant object from the application database if found there</p>
+     * <p>Translates the unique constraint violation of a write into a {@link UniquePhoneNumberException}, the only unique key
+     * of the table being the phoneNumber.</p>
      *
-     * @param contact The Restaurant object to be removed from the application database
-     * @return The Restaurant object that has been successfully removed from the application database; or null
-     * @throws Exception
+     * @param e The exception thrown by the write
+     * @return The exception to be thrown in its place
      */
-    Restaurant delete(Restaurant restaurant) throws Exception {
-        log.info("RestaurantRepository.delete() - Deleting " + restaurant.getName());
-
-        if (restaurant.getId() != null) {
-            /*
-             * The Hibernate session (aka EntityManager's persistent context) is closed and invalidated after the commit(), 
-             * because it is bound to a transaction. The object goes into a detached status. If you open a new persistent 
-             * context, the object isn't known as in a persistent state in this new context, so you have to merge it. 
-             * 
-             * Merge sees that the object has a primary key (id), so it knows it is not new and must hit the database 
-             * to reattach it. 
-             * 
-             * Note, there is NO remove method which would just take a primary key (id) and a entity class as argument. 
-             * You first need an object in a persistent state to be able to delete it.
-             * 
-             * Therefore we merge first and then we can remove it.
-             */
-            em.remove(em.merge(restaurant));
-
-        } else {
-            log.info("RestaurantRepository.delete() - No ID was found so can't Delete.");
+    private RuntimeException translate(PersistenceException e) {
+        if (UniqueViolations.isUniqueViolation(e)) {
+            return new UniquePhoneNumberException("Unique PhoneNumber Violation", e);
         }
+        return e;
+    }
 
-        return restaurant;
+    /**
+     * <p>Deletes the Restaurant with the given id by marking it with a tombstone, see {@link EntityUpdates#tombstone}.</p>
+     *
+     * <p>Its phone number is released at once, so that a new Restaurant can be registered with it. Its reviews are
+     * hidden from then on, and are only removed, together with the Restaurant, by the {@link TombstonePurgeJob}. A
+     * popular restaurant can have thousands of reviews, which would otherwise all be deleted and locked within the
+     * request.</p>
+     *
+     * @param id The id of the Restaurant to be deleted
+     * @param version The version the Restaurant must still be at, or null to delete it whatever its version
+     * @return The number of Restaurants deleted, 0 if there is no Restaurant with the id
+     * @throws javax.persistence.OptimisticLockException If the Restaurant is no longer at the given version
+     */
+    int delete(Long id, Long version) {
+        log.info("RestaurantRepository.delete() - Deleting " + id);
+
+        return EntityUpdates.tombstone(em, Restaurant.class, id, version, "phoneNumber", "deletedPhoneNumber");
     }
 
 }
-
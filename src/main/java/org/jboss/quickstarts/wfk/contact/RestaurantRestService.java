@@ -18,18 +18,26 @@ package org.jboss.quickstarts.wfk.contact;
 
 import io.swagger.annotations.*;
 import org.jboss.quickstarts.wfk.area.InvalidAreaCodeException;
+import org.jboss.quickstarts.wfk.util.ETags;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.MergePatch;
+import org.jboss.quickstarts.wfk.util.MultiGetResult;
+import org.jboss.quickstarts.wfk.util.PATCH;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
 import org.jboss.resteasy.annotations.cache.Cache;
 
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +54,9 @@ import java.util.logging.Logger;
  * <p>It is Stateless to "inform the container that this RESTful web service should also be treated as an EJB and allow
  * transaction demarcation when accessing the database." - Antonio Goncalves</p>
  *
+ * <p>Read only endpoints are marked SUPPORTS so that they do not start a transaction of their own. The entities they
+ * load are detached as soon as each query completes and are never dirty checked.</p>
+ *
  * <p>The full path for accessing endpoints defined herein is: api/restaurants/*</p>
  * 
  * @author Joshua Wilson
@@ -67,15 +78,41 @@ public class RestaurantRestService {
     /**
      * <p>Return all the Restaurants.  They are sorted alphabetically by name.</p>
      *
-     * <p>The url may optionally include query parameters specifying a Restaurant's name</p>
+     * <p>The url may optionally include a <code>fields</code> query parameter listing the fields to return.</p>
+     *
+     * <p>Alternatively the url may include an <code>ids</code> query parameter listing the ids of the Restaurants to
+     * return. They are returned in the order requested, along with the ids which could not be found, and the
+     * <code>fields</code> parameter is ignored.</p>
+     *
+     * <p>Examples: <pre>GET api/restaurants?fields=id,name</pre>, <pre>GET api/restaurants?ids=3,1,2</pre></p>
      *
+     * @param ids The comma separated list of ids to return, or null for all Restaurants
+     * @param fields The comma separated list of fields to return, or null for all of them
      * @return A Response containing a list of Restaurants
      */
     @GET
-    @ApiOperation(value = "Fetch all Restaurants", notes = "Returns a JSON array of all stored Restaurant objects.")
-    public Response retrieveAllRestaurants() {
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @ApiOperation(value = "Fetch all Restaurants", notes = "Returns a JSON array of all stored Restaurant objects, or an object holding the Restaurants with the requested ids and the ids which were not found.")
+    public Response retrieveAllRestaurants(
+            @ApiParam(value = "Comma separated list of Restaurant ids to fetch, all Restaurants if omitted")
+            @QueryParam("ids")
+            String ids,
+            @ApiParam(value = "Comma separated list of fields to return, all fields if omitted")
+            @QueryParam("fields")
+            String fields) {
+
+        List<Long> requested = MultiGetResult.parseIds(ids);
+        if (requested != null) {
+            return Response.ok(service.findByIds(requested)).build();
+        }
+
+        FieldSelection selection = FieldSelection.parse(fields, RestaurantSummary.FIELDS);
+        if (selection != null) {
+            return Response.ok(service.findFields(selection, Collections.<String, Object>emptyMap())).build();
+        }
+
         //Create an empty collection to contain the intersection of Contacts to be returned
-        List<Restaurant> restaurants;
+        List<RestaurantSummary> restaurants;
 
         restaurants = service.findAllOrderedByName();
 
@@ -86,9 +123,11 @@ public class RestaurantRestService {
      * <p>Search for and return a Restaurant identified by phone number.<p/>
      *
      * @param phone number The string parameter value provided as a Restaurant's phone number
+     * @param fields The comma separated list of fields to return, or null for all of them
      * @return A Response containing a single Restaurant
      */
     @GET
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Cache
     @Path("/phoneNumber/{phoneNumber:0[0-9]{10}}")
     @ApiOperation(
@@ -102,25 +141,38 @@ public class RestaurantRestService {
     public Response retrieveRestaurantsByPhoneNumber(
             @ApiParam(value = "Email of Restaurant to be fetched", required = true)
             @PathParam("phoneNumber")
-            String phoneNumber) {
+            String phoneNumber,
+            @ApiParam(value = "Comma separated list of fields to return, all fields if omitted")
+            @QueryParam("fields")
+            String fields) {
+
+        FieldSelection selection = FieldSelection.parse(fields, RestaurantSummary.FIELDS);
+        if (selection != null) {
+            List<Map<String, Object>> rows = service.findFields(selection,
+                    Collections.<String, Object>singletonMap("phoneNumber", phoneNumber));
+            if (rows.isEmpty()) {
+                throw new RestServiceException("No restaurant with the phone number " + phoneNumber + " was found!", Response.Status.NOT_FOUND);
+            }
+            return Response.ok(rows.get(0)).build();
+        }
 
-    	Restaurant restaurant;
-        try {
-        	restaurant = service.findByPhoneNumber(phoneNumber);
-        } catch (NoResultException e) {
+        RestaurantSummary restaurant = service.findSummaryByPhoneNumber(phoneNumber);
+        if (restaurant == null) {
             // Verify that the contact exists. Return 404, if not present.
             throw new RestServiceException("No restaurant with the phone number " + phoneNumber + " was found!", Response.Status.NOT_FOUND);
         }
-        return Response.ok(restaurant).build();
+        return Response.ok(restaurant).tag(ETags.of(restaurant.getVersion())).build();
     }
 
     /**
      * <p>Search for and return a Restaurant identified by id.</p>
      *
      * @param id The long parameter value provided as a Restaurant's id
+     * @param fields The comma separated list of fields to return, or null for all of them
      * @return A Response containing a single Restaurant
      */
     @GET
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Cache
     @Path("/{id:[0-9]+}")
     @ApiOperation(
@@ -134,16 +186,28 @@ public class RestaurantRestService {
     public Response retrieveRestaurantById(
             @ApiParam(value = "Id of Restaurant to be fetched", allowableValues = "range[0, infinity]", required = true)
             @PathParam("id")
-            long id) {
+            long id,
+            @ApiParam(value = "Comma separated list of fields to return, all fields if omitted")
+            @QueryParam("fields")
+            String fields) {
+
+        FieldSelection selection = FieldSelection.parse(fields, RestaurantSummary.FIELDS);
+        if (selection != null) {
+            List<Map<String, Object>> rows = service.findFields(selection, Collections.<String, Object>singletonMap("id", id));
+            if (rows.isEmpty()) {
+                throw new RestServiceException("No Restaurant with the id " + id + " was found!", Response.Status.NOT_FOUND);
+            }
+            return Response.ok(rows.get(0)).build();
+        }
 
-    	Restaurant restaurant = service.findById(id);
+        RestaurantSummary restaurant = service.findSummaryById(id);
         if (restaurant == null) {
             // Verify that the contact exists. Return 404, if not present.
             throw new RestServiceException("No User with the id " + id + " was found!", Response.Status.NOT_FOUND);
         }
-        log.info("findById " + id + ": found Restaurant = " + restaurant.toString());
+        log.info("findById " + id + ": found Restaurant = " + restaurant.getName());
 
-        return Response.ok(restaurant).build();
+        return Response.ok(restaurant).tag(ETags.of(restaurant.getVersion())).build();
     }
 
     /**
@@ -213,6 +277,7 @@ public class RestaurantRestService {
      * @param contact The Restaurant object, constructed automatically from JSON input, to be <i>updated</i> via
      * {@link RestaurantService#update(Restaurant)}
      * @param id The long parameter value provided as the id of the Restaurant to be updated
+     * @param ifMatch The optional If-Match header holding the version the Restaurant must still be at
      * @return A Response indicating the outcome of the create operation
      */
     @PUT
@@ -223,6 +288,7 @@ public class RestaurantRestService {
             @ApiResponse(code = 400, message = "Invalid Restaurant supplied in request body"),
             @ApiResponse(code = 404, message = "Restaurant with id not found"),
             @ApiResponse(code = 409, message = "Restaurant details supplied in request body conflict with another existing Restaurant"),
+            @ApiResponse(code = 412, message = "Restaurant has been changed since the version given in If-Match"),
             @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
     })
     public Response updateRestaurant(
@@ -230,7 +296,10 @@ public class RestaurantRestService {
             @PathParam("id")
             long id,
             @ApiParam(value = "JSON representation of Restaurant object to be updated in the database", required = true)
-            Restaurant restaurant) {
+            Restaurant restaurant,
+            @ApiParam(value = "Version the Restaurant must still be at, as returned in its ETag")
+            @HeaderParam("If-Match")
+            String ifMatch) {
 
         if (restaurant == null || restaurant.getId() == null) {
             throw new RestServiceException("Invalid Restaurant supplied in request body", Response.Status.BAD_REQUEST);
@@ -244,19 +313,21 @@ public class RestaurantRestService {
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(restaurant.getId()) == null) {
-            // Verify that the contact exists. Return 404, if not present.
-            throw new RestServiceException("No Restaurant with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        // An If-Match header takes precedence over the version in the body. Without either the update is unconditional.
+        Long expectedVersion = ETags.expectedVersion(ifMatch);
+        if (expectedVersion != null) {
+            restaurant.setVersion(expectedVersion);
         }
 
         Response.ResponseBuilder builder;
+        int updated;
 
         try {
             // Apply the changes the Contact.
-            service.update(restaurant);
+            updated = service.update(restaurant);
 
-            // Create an OK Response and pass the contact back in case it is needed.
-            builder = Response.ok(restaurant);
+            // Create an OK Response and pass the contact back, now holding its new version, in case it is needed.
+            builder = Response.ok(restaurant).tag(ETags.of(restaurant.getVersion()));
 
 
         } catch (ConstraintViolationException ce) {
@@ -277,21 +348,111 @@ public class RestaurantRestService {
             Map<String, String> responseObj = new HashMap<>();
             responseObj.put("area_code", "The telephone area code provided is not recognised, please provide another");
             throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
+        } catch (OptimisticLockException e) {
+            // Somebody else has changed the restaurant since the client read it.
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The Restaurant has been changed by another request, please fetch it again");
+            throw new RestServiceException("Precondition Failed", responseObj, Response.Status.PRECONDITION_FAILED, e);
         } catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
 
+        if (updated == 0) {
+            // The update is written by id, so no row means the Restaurant does not exist. Return 404.
+            throw new RestServiceException("No Restaurant with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+
         log.info("updateUser completed. Restaurant = " + restaurant.toString());
         return builder.build();
     }
 
+    /**
+     * <p>Partially updates the Restaurant with the ID provided using a JSON Merge Patch. Only the fields present in the patch
+     * are validated and written, and will return a JAX-RS response with either 204 (no content) or with a map of
+     * fields, and related errors.</p>
+     *
+     * <p>Its id cannot be changed.</p>
+     *
+     * <p>Example: <pre>PATCH api/restaurants/1</pre> with the body <pre>{"name":"Bistro"}</pre></p>
+     *
+     * @param id The long parameter value provided as the id of the Restaurant to be patched
+     * @param body The merge patch document
+     * @param ifMatch The optional If-Match header holding the version the Restaurant must still be at
+     * @return A Response indicating the outcome of the patch operation
+     */
+    @PATCH
+    @Path("/{id:[0-9]+}")
+    @Consumes(MergePatch.MEDIA_TYPE)
+    @ApiOperation(value = "Partially update a Restaurant in the database", consumes = MergePatch.MEDIA_TYPE)
+    @ApiResponses(value = {
+            @ApiResponse(code = 204, message = "Restaurant patched successfully"),
+            @ApiResponse(code = 400, message = "Invalid patch supplied in request body"),
+            @ApiResponse(code = 404, message = "Restaurant with id not found"),
+            @ApiResponse(code = 409, message = "Patch supplied in request body conflicts with another existing Restaurant"),
+            @ApiResponse(code = 412, message = "Restaurant has been changed since the version given in If-Match"),
+            @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
+    })
+    public Response patchRestaurant(
+            @ApiParam(value = "Id of Restaurant to be patched", allowableValues = "range[0, infinity]", required = true)
+            @PathParam("id")
+            long id,
+            @ApiParam(value = "JSON Merge Patch holding the fields to be changed", required = true)
+            Map<String, Object> body,
+            @ApiParam(value = "Version the Restaurant must still be at, as returned in its ETag")
+            @HeaderParam("If-Match")
+            String ifMatch) {
+
+        MergePatch patch = MergePatch.parse(body, Restaurant.class, RestaurantSummary.FIELDS, "id", "version");
+
+        int updated;
+
+        try {
+            updated = service.patch(id, ETags.expectedVersion(ifMatch), patch);
+
+        } catch (ConstraintViolationException ce) {
+            //Handle bean validation issues
+            Map<String, String> responseObj = new HashMap<>();
+
+            for (ConstraintViolation<?> violation : ce.getConstraintViolations()) {
+                responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
+            }
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
+        } catch (UniquePhoneNumberException e) {
+            // Handle the unique constraint violation
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("phone number", "That phone number is already used, please use a unique phone number");
+            throw new RestServiceException("Patch supplied in request body conflicts with another Restaurant",
+                    responseObj, Response.Status.CONFLICT, e);
+        } catch (OptimisticLockException e) {
+            // Somebody else has changed the restaurant since the client read it.
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The Restaurant has been changed by another request, please fetch it again");
+            throw new RestServiceException("Precondition Failed", responseObj, Response.Status.PRECONDITION_FAILED, e);
+        } catch (Exception e) {
+            // Handle generic exceptions
+            throw new RestServiceException(e);
+        }
+
+        if (updated == 0) {
+            // Verify that the restaurant exists. Return 404, if not present.
+            throw new RestServiceException("No Restaurant with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+
+        log.info("patchRestaurant completed. Restaurant = " + id);
+        return Response.noContent().build();
+    }
+
     /**
      * <p>Deletes a Restaurant using the ID provided. If the ID is not present then nothing can be deleted.</p>
      *
+     * <p>The Restaurant is hidden straight away, but is only removed from the database, along with its reviews, by the
+     * {@link TombstonePurgeJob} outside of peak hours.</p>
+     *
      * <p>Will return a JAX-RS response with either 204 NO CONTENT or with a map of fields, and related errors.</p>
      *
      * @param id The Long parameter value provided as the id of the Restaurant to be deleted
+     * @param ifMatch The optional If-Match header holding the version the Restaurant must still be at
      * @return A Response indicating the outcome of the delete operation
      */
     @DELETE
@@ -301,32 +462,41 @@ public class RestaurantRestService {
             @ApiResponse(code = 204, message = "The Restaurant has been successfully deleted"),
             @ApiResponse(code = 400, message = "Invalid Restaurant id supplied"),
             @ApiResponse(code = 404, message = "Restaurant with id not found"),
+            @ApiResponse(code = 412, message = "Restaurant has been changed since the version given in If-Match"),
             @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
     })
     public Response deleteRestaurant(
             @ApiParam(value = "Id of Restaurant to be deleted", allowableValues = "range[0, infinity]", required = true)
             @PathParam("id")
-            long id) {
+            long id,
+            @ApiParam(value = "Version the Restaurant must still be at, as returned in its ETag")
+            @HeaderParam("If-Match")
+            String ifMatch) {
 
-        Response.ResponseBuilder builder;
+        Long expectedVersion = ETags.expectedVersion(ifMatch);
 
-        Restaurant restaurant = service.findById(id);
-        if (restaurant == null) {
-            // Verify that the contact exists. Return 404, if not present.
-            throw new RestServiceException("No Restaurant with the id " + id + " was found!", Response.Status.NOT_FOUND);
-        }
+        int deleted;
 
         try {
-            service.delete(restaurant);
-
-            builder = Response.noContent();
+            deleted = service.delete(id, expectedVersion);
 
+        } catch (OptimisticLockException e) {
+            // Somebody else has changed the restaurant since the client read it.
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The Restaurant has been changed by another request, please fetch it again");
+            throw new RestServiceException("Precondition Failed", responseObj, Response.Status.PRECONDITION_FAILED, e);
         } catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
-        log.info("deleteRestaurant completed. User = " + restaurant.toString());
-        return builder.build();
+
+        if (deleted == 0) {
+            // The delete is by id, so no row means the Restaurant does not exist. Return 404.
+            throw new RestServiceException("No Restaurant with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+
+        log.info("deleteRestaurant completed. Restaurant = " + id);
+        return Response.noContent().build();
     }
 }
 
@@ -3,11 +3,16 @@ package org.jboss.quickstarts.wfk.contact;
 import org.jboss.quickstarts.wfk.area.Area;
 import org.jboss.quickstarts.wfk.area.AreaService;
 import org.jboss.quickstarts.wfk.area.InvalidAreaCodeException;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.MergePatch;
+import org.jboss.quickstarts.wfk.util.MultiGetResult;
+import org.jboss.quickstarts.wfk.util.ResourceChanged;
 import org.jboss.resteasy.client.jaxrs.ResteasyClient;
 import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
 import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
 
 import javax.enterprise.context.Dependent;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.validation.ConstraintViolationException;
@@ -15,6 +20,8 @@ import javax.validation.ValidationException;
 import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.core.Response;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.logging.Logger;
 
 /**
@@ -35,6 +42,9 @@ import java.util.logging.Logger;
 @Dependent
 public class RestaurantService {
 
+    /** The collection Restaurants are served under, see {@link RestaurantRestService}. */
+    static final String COLLECTION = "restaurants";
+
     @Inject
     private @Named("logger") Logger log;
 
@@ -44,6 +54,15 @@ public class RestaurantService {
     @Inject
     private RestaurantRepository crud;
 
+    @Inject
+    private UniqueKeyFilters uniqueKeys;
+
+    @Inject
+    private RestaurantCatalog catalog;
+
+    @Inject
+    private Event<ResourceChanged> changed;
+
     private ResteasyClient client;
 
     /**
@@ -57,10 +76,33 @@ public class RestaurantService {
     /**
      * <p>Returns a List of all persisted {@link Restaurant} objects, sorted alphabetically by name.<p/>
      *
+     * <p>The list is served by the {@link RestaurantCatalog}, without a query.<p/>
+     *
      * @return List of Restaurant objects
      */
-    List<Restaurant> findAllOrderedByName() {
-        return crud.findAllOrderedByName();
+    List<RestaurantSummary> findAllOrderedByName() {
+        return catalog.findAllOrderedByName();
+    }
+
+    /**
+     * <p>Returns only the selected fields of the Restaurants matching every filter.</p>
+     *
+     * @param fields The fields to read
+     * @param filters Restaurant attribute names mapped to the value they must be equal to
+     * @return One map of field values per matching Restaurant
+     */
+    List<Map<String, Object>> findFields(FieldSelection fields, Map<String, Object> filters) {
+        return crud.findFields(fields, filters);
+    }
+
+    /**
+     * <p>Returns {@link RestaurantSummary} views of the Restaurants with the given ids, in request order.</p>
+     *
+     * @param ids The distinct ids of the Restaurants to be returned
+     * @return The Restaurants found and the ids which were not
+     */
+    MultiGetResult<RestaurantSummary> findByIds(List<Long> ids) {
+        return crud.findByIds(ids);
     }
 
     /**
@@ -73,15 +115,37 @@ public class RestaurantService {
         return crud.findById(id);
     }
 
+    /**
+     * <p>Returns a {@link RestaurantSummary} view of the Restaurant with the given id from the {@link RestaurantCatalog},
+     * without a query.<p/>
+     *
+     * @param id The id of the Restaurant to be returned
+     * @return The Restaurant with the specified id, or null if there is none
+     */
+    RestaurantSummary findSummaryById(long id) {
+        return catalog.findById(id);
+    }
+
+    /**
+     * <p>Returns a {@link RestaurantSummary} view of the Restaurant with the given phoneNumber from the
+     * {@link RestaurantCatalog}, without a query.<p/>
+     *
+     * @param phoneNumber The phoneNumber of the Restaurant to be returned
+     * @return The Restaurant with the specified phoneNumber, or null if there is none
+     */
+    RestaurantSummary findSummaryByPhoneNumber(String phoneNumber) {
+        return catalog.findByPhoneNumber(phoneNumber);
+    }
+
     /**
      * <p>Returns a single Restaurant object, specified by a String phoneNumber.</p>
      *
      * <p>If there is more than one Restaurant with the specified phoneNumber, only the first encountered will be returned.<p/>
      *
      * @param phoneNumber The phoneNumber field of the Restaurant to be returned
-     * @return The first Restaurant with the specified phoneNumber
+     * @return The first Restaurant with the specified phoneNumber, or an empty Optional if there is none
      */
-    Restaurant findByPhoneNumber(String phoneNumber) {
+    Optional<Restaurant> findByPhoneNumber(String phoneNumber) {
         return crud.findByPhoneNumber(phoneNumber);
     }
 
@@ -117,7 +181,11 @@ public class RestaurantService {
         }*/
 
         // Write the contact to the database.
-        return crud.create(restaurant);
+        // Recorded before the write, so the validators never rule out a value which is in the database.
+        uniqueKeys.add(UniqueKeyFilters.Key.RESTAURANT_PHONE_NUMBER, restaurant.getPhoneNumber());
+        Restaurant created = crud.create(restaurant);
+        changed.fire(new ResourceChanged(COLLECTION, created.getId()));
+        return created;
     }
 
     /**
@@ -126,10 +194,10 @@ public class RestaurantService {
      * <p>Validates the data in the provided Restaurant object using a RestaurantValidator object.<p/>
      *
      * @param restaurant The Restaurant object to be passed as an update to the application database
-     * @return The Restaurant object that has been successfully updated in the application database
+     * @return The number of Restaurants updated, 0 if there is no Restaurant with the id
      * @throws ConstraintViolationException, ValidationException, Exception
      */
-    Restaurant update(Restaurant restaurant) throws ConstraintViolationException, ValidationException, Exception {
+    int update(Restaurant restaurant) throws ConstraintViolationException, ValidationException, Exception {
         log.info("RestaurantService.update() - Updating " + restaurant.getName());
         
         // Check to make sure the data fits with the parameters in the Contact model and passes validation.
@@ -151,27 +219,55 @@ public class RestaurantService {
         }*/
 
         // Either update the contact or add it if it can't be found.
-        return crud.update(restaurant);
+        uniqueKeys.add(UniqueKeyFilters.Key.RESTAURANT_PHONE_NUMBER, restaurant.getPhoneNumber());
+        int updated = crud.update(restaurant);
+        if (updated > 0) {
+            changed.fire(new ResourceChanged(COLLECTION, restaurant.getId()));
+        }
+        return updated;
     }
 
     /**
-     * <p>Deletes the provided Restaurant object from the application database if found there.<p/>
+     * <p>Applies a patch to the Restaurant with the given id.<p/>
+     *
+     * <p>Only the changed fields are validated, using a RestaurantValidator object, and written.<p/>
      *
-     * @return The Restaurant object that has been successfully removed from the application database; or null
-     * @throws Exception
+     * @param id The id of the Restaurant to be patched
+     * @param version The version the Restaurant must still be at, or null to patch it whatever its version
+     * @param patch The changes to be applied
+     * @return The number of Restaurants updated, 0 if there is no Restaurant with the id
+     * @throws ConstraintViolationException, ValidationException
      */
-    Restaurant delete(Restaurant restaurant) throws Exception {
-        log.info("delete() - Deleting " + restaurant.toString());
+    int patch(Long id, Long version, MergePatch patch) throws ConstraintViolationException, ValidationException {
+        log.info("RestaurantService.patch() - Patching " + id);
 
-        Restaurant deletedRestaurant = null;
+        validator.validatePatch(id, patch);
 
-        if (restaurant.getId() != null) {
-            deletedRestaurant = crud.delete(restaurant);
-        } else {
-            log.info("delete() - No ID was found so can't Delete.");
+        if (patch.changes("phoneNumber")) {
+            uniqueKeys.add(UniqueKeyFilters.Key.RESTAURANT_PHONE_NUMBER, patch.<String>get("phoneNumber"));
+        }
+        int updated = crud.patch(id, version, patch);
+        if (updated > 0) {
+            changed.fire(new ResourceChanged(COLLECTION, id));
         }
+        return updated;
+    }
 
-        return deletedRestaurant;
+    /**
+     * <p>Deletes the Restaurant with the given id from the application database if found there.<p/>
+     *
+     * @param id The id of the Restaurant to be deleted
+     * @param version The version the Restaurant must still be at, or null to delete it whatever its version
+     * @return The number of Restaurants deleted, 0 if there is no Restaurant with the id
+     */
+    int delete(Long id, Long version) {
+        log.info("delete() - Deleting " + id);
+
+        int deleted = crud.delete(id, version);
+        if (deleted > 0) {
+            changed.fire(new ResourceChanged(COLLECTION, id));
+        }
+        return deleted;
     }
 }
 
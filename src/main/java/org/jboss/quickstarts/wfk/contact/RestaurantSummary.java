@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+
+import java.util.Map;
+
+/**
+ * <p>An immutable, read only view of a {@link Restaurant} used by the list endpoints.</p>
+ *
+ * <p>It is filled by a constructor expression in {@link Restaurant#FIND_ALL}, so only the serialized columns are read
+ * and no entity is ever put in the persistence context. The getters mirror those of Restaurant so that the JSON is
+ * unchanged.</p>
+ */
+public final class RestaurantSummary {
+
+    /** The fields of a Restaurant that may be requested with <code>?fields=</code>, mapped to the attribute behind each. */
+    public static final Map<String, String> FIELDS = FieldSelection.available(
+            "id", "id",
+            "version", "version",
+            "name", "name",
+            "post_code", "postCode",
+            "phoneNumber", "phoneNumber");
+
+    private final Long id;
+    private final Long version;
+    private final String name;
+    private final String postCode;
+    private final String phoneNumber;
+
+    public RestaurantSummary(Long id, Long version, String name, String postCode, String phoneNumber) {
+        this.id = id;
+        this.version = version;
+        this.name = name;
+        this.postCode = postCode;
+        this.phoneNumber = phoneNumber;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPost_code() {
+        return postCode;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+}
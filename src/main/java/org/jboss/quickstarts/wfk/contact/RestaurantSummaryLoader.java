@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Resolves {@link RestaurantDigest}s for a page of reviews in one batch.</p>
+ *
+ * <p>Reviews only hold a restaurant id, so rendering a page of reviews with their restaurants would otherwise cost one
+ * lookup per review. Instead the distinct ids of the whole page are collected and resolved together. The name and
+ * post code of each restaurant are read from the {@link RestaurantCatalog} in memory, so the only statement is one
+ * grouped query for the ratings of the restaurants found, whatever the page size.</p>
+ *
+ * <p>The loader is request scoped and remembers every digest it has resolved, so a restaurant referenced more than once
+ * while handling a request is only ever read once.</p>
+ */
+@RequestScoped
+public class RestaurantSummaryLoader {
+
+    @Inject
+    private RestaurantCatalog catalog;
+
+    @Inject
+    private ReviewRepository reviews;
+
+    // Restaurant id -> digest, or null once an id is known not to exist.
+    private final Map<Long, RestaurantDigest> loaded = new HashMap<>();
+
+    /**
+     * <p>Returns the digests of the given restaurants, loading those not already resolved in one batch.</p>
+     *
+     * @param ids The restaurant ids, may contain nulls and repeats
+     * @return Restaurant id mapped to its digest, missing restaurants are mapped to null
+     */
+    Map<Long, RestaurantDigest> loadAll(Collection<Long> ids) {
+        LinkedHashSet<Long> wanted = new LinkedHashSet<>();
+        for (Long id : ids) {
+            if (id != null && !loaded.containsKey(id)) {
+                wanted.add(id);
+            }
+        }
+
+        List<RestaurantSummary> found = new ArrayList<>(wanted.size());
+        for (Long id : wanted) {
+            RestaurantSummary restaurant = catalog.findById(id);
+            if (restaurant == null) {
+                loaded.put(id, null);
+            } else {
+                found.add(restaurant);
+            }
+        }
+
+        if (!found.isEmpty()) {
+            List<Long> batch = new ArrayList<>(found.size());
+            for (RestaurantSummary restaurant : found) {
+                batch.add(restaurant.getId());
+            }
+            Map<Long, RestaurantRating> ratings = reviews.findRatingsByRestaurantIds(batch);
+
+            for (RestaurantSummary restaurant : found) {
+                RestaurantRating rating = ratings.get(restaurant.getId());
+                loaded.put(restaurant.getId(), new RestaurantDigest(restaurant.getId(), restaurant.getName(),
+                        restaurant.getPost_code(), rating == null ? null : rating.getAverage(),
+                        rating == null ? 0 : rating.getCount()));
+            }
+        }
+
+        Map<Long, RestaurantDigest> result = new HashMap<>();
+        for (Long id : ids) {
+            if (id != null) {
+                result.put(id, loaded.get(id));
+            }
+        }
+        return result;
+    }
+}
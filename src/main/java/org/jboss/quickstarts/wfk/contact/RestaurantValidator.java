@@ -1,17 +1,23 @@
 package org.jboss.quickstarts.wfk.contact;
 
+import org.jboss.quickstarts.wfk.util.MergePatch;
+import org.jboss.quickstarts.wfk.util.UniquenessMode;
+
 import javax.inject.Inject;
-import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 import javax.validation.Validator;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * <p>This class provides methods to check Restaurant objects against arbitrary requirements.</p>
  *
+ * <p>The phone number is only looked up before a write in {@link UniquenessMode#QUERY} mode. By default the unique constraint
+ * of the table is relied on instead, and the repository translates its violation.</p>
+ *
  * @author Joshua Wilson
  * @see Restaurant
  * @see RestaurantRepository
@@ -24,6 +30,9 @@ public class RestaurantValidator {
     @Inject
     private RestaurantRepository crud;
 
+    @Inject
+    private UniqueKeyFilters uniqueKeys;
+
     /**
      * <p>Validates the given Restaurant object and throws validation exceptions based on the type of error. If the error is standard
      * bean validation errors then it will throw a ConstraintValidationException with the set of the constraints violated.<p/>
@@ -46,7 +55,34 @@ public class RestaurantValidator {
         }
 
         // Check the uniqueness of the email address
-        if (phoneNumberAlreadyExists(restaurant.getPhoneNumber(), restaurant.getId())) {
+        if (UniquenessMode.checkWithQuery() && phoneNumberAlreadyExists(restaurant.getPhoneNumber(), restaurant.getId())) {
+            throw new UniquePhoneNumberException("Unique PhoneNumber Violation");
+        }
+    }
+
+    /**
+     * <p>Validates only the fields changed by a patch of the Restaurant with the given id.</p>
+     *
+     * <p>Each new value is checked against the constraints of its own field, and the uniqueness of the phone number is
+     * only checked if the patch changes it.</p>
+     *
+     * @param id The id of the Restaurant being patched
+     * @param patch The changes to be validated
+     * @throws ConstraintViolationException If Bean Validation errors exist
+     * @throws ValidationException If another restaurant already has the new phone number
+     */
+    void validatePatch(Long id, MergePatch patch) throws ConstraintViolationException, ValidationException {
+        Set<ConstraintViolation<Restaurant>> violations = new HashSet<>();
+        for (Map.Entry<String, Object> value : patch.getValues().entrySet()) {
+            violations.addAll(validator.validateValue(Restaurant.class, value.getKey(), value.getValue()));
+        }
+
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations));
+        }
+
+        if (UniquenessMode.checkWithQuery() && patch.changes("phoneNumber")
+                && phoneNumberAlreadyExists(patch.get("phoneNumber"), id)) {
             throw new UniquePhoneNumberException("Unique PhoneNumber Violation");
         }
     }
@@ -58,28 +94,23 @@ public class RestaurantValidator {
      * <p>Since Update will being using an phoneNumber that is already in the database we need to make sure that it is the phoneNumber
      * from the record being updated.</p>
      *
+     * <p>The query is skipped if the {@link UniqueKeyFilters} rule the phone number out.</p>
+     *
      * @param phoneNumber The phoneNumber to check is unique
      * @param id The user id to check the phoneNumber against if it was found
      * @return boolean which represents whether the phoneNumber was found, and if so if it belongs to the restaurant with id
      */
     boolean phoneNumberAlreadyExists(String phoneNumber, Long id) {
-    	Restaurant restaurant = null;
-    	Restaurant restaurantWithID = null;
-        try {
-        	restaurant = crud.findByPhoneNumber(phoneNumber);
-        } catch (NoResultException e) {
-            // ignore
+        // Almost every new phone number has never been used, which the filter can tell without a query.
+        if (!uniqueKeys.mightContain(UniqueKeyFilters.Key.RESTAURANT_PHONE_NUMBER, phoneNumber)) {
+            return false;
         }
 
-        if (restaurant != null && id != null) {
-            try {
-            	restaurantWithID = crud.findById(id);
-                if (restaurantWithID != null && restaurantWithID.getPhoneNumber().equals(phoneNumber)) {
-                	restaurant = null;
-                }
-            } catch (NoResultException e) {
-                // ignore
-            }
+        Restaurant restaurant = crud.findByPhoneNumber(phoneNumber).orElse(null);
+
+        // An update may keep its own phone number, which is not a conflict.
+        if (restaurant != null && id != null && restaurant.getId().equals(id)) {
+            restaurant = null;
         }
         return restaurant != null;
     }
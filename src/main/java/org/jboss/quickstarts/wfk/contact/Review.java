@@ -12,8 +12,19 @@ import java.util.Objects;
 
 @Entity
 @NamedQueries({
-        @NamedQuery(name = Review.FIND_ALL, query = "SELECT c FROM Review c ORDER BY c.userId ASC, c.restaurantId ASC"),
-        @NamedQuery(name = Review.FIND_BY_USER_ID, query = "SELECT c FROM Review c WHERE c.userId = :userId")
+        @NamedQuery(name = Review.FIND_ALL, query = "SELECT NEW org.jboss.quickstarts.wfk.contact.ReviewSummary(c.id, c.version, c.userId, c.restaurantId, "
+                + "c.review, c.rating) FROM Review c WHERE " + Review.VISIBLE + " ORDER BY c.userId ASC, c.restaurantId ASC"),
+        @NamedQuery(name = Review.FIND_BY_IDS, query = "SELECT NEW org.jboss.quickstarts.wfk.contact.ReviewSummary(c.id, c.version, c.userId, c.restaurantId, "
+                + "c.review, c.rating) FROM Review c WHERE c.id IN :ids AND " + Review.VISIBLE),
+        @NamedQuery(name = Review.FIND_RATINGS_BY_RESTAURANT_IDS, query = "SELECT NEW org.jboss.quickstarts.wfk.contact.RestaurantRating("
+                + "c.restaurantId, AVG(CAST(c.rating AS integer)), COUNT(c)) FROM Review c WHERE c.restaurantId IN :ids AND c.user.deleted = false "
+                + "GROUP BY c.restaurantId"),
+        @NamedQuery(name = Review.FIND_BY_USER_ID, query = "SELECT c FROM Review c WHERE c.userId = :userId AND " + Review.VISIBLE),
+        @NamedQuery(name = Review.FIND_SUMMARIES_BY_USER_ID, query = "SELECT NEW org.jboss.quickstarts.wfk.contact.ReviewSummary(c.id, c.version, "
+                + "c.userId, c.restaurantId, c.review, c.rating) FROM Review c WHERE c.userId = :userId AND " + Review.VISIBLE),
+        @NamedQuery(name = Review.FIND_PURGEABLE_IDS, query = "SELECT c.id FROM Review c WHERE (c.user.deleted = true AND c.user.deletedAt < :cutoff) "
+                + "OR EXISTS (SELECT r.id FROM Restaurant r WHERE r.id = c.restaurantId AND r.deleted = true AND r.deletedAt < :cutoff)"),
+        @NamedQuery(name = Review.DELETE_BY_IDS, query = "DELETE FROM Review c WHERE c.id IN :ids")
 })
 @XmlRootElement
 @Table(name = "review")
@@ -23,11 +34,25 @@ public class Review implements Serializable {
     private static final long serialVersionUID = 1L;
 
     public static final String FIND_ALL = "Review.findAll";
+    public static final String FIND_BY_IDS = "Review.findByIds";
+    public static final String FIND_RATINGS_BY_RESTAURANT_IDS = "Review.findRatingsByRestaurantIds";
     public static final String FIND_BY_USER_ID = "Review.findByUserId";
+    public static final String FIND_SUMMARIES_BY_USER_ID = "Review.findSummariesByUserId";
+    public static final String FIND_PURGEABLE_IDS = "Review.findPurgeableIds";
+    public static final String DELETE_BY_IDS = "Review.deleteByIds";
+
+    /** Hides the reviews of deleted users and restaurants until they are purged along with them. */
+    static final String VISIBLE = "c.user.deleted = false "
+            + "AND NOT EXISTS (SELECT r.id FROM Restaurant r WHERE r.id = c.restaurantId AND r.deleted = true)";
     
     @Id
     @GeneratedValue(strategy = GenerationType.TABLE)
     private Long id;
+
+    /** Incremented on every update, so that concurrent updates are detected rather than overwriting each other. */
+    @Version
+    @Column(name = "version")
+    private Long version;
     
     
     @Column(name = "user")
@@ -46,6 +71,7 @@ public class Review implements Serializable {
     @NotNull
     @Size(min = 1, max = 300)
     @Pattern(regexp = "[A-Za-z-' ,.]+", message = "Please use a text without numbers or specials")
+    @Basic(fetch = FetchType.LAZY)
     @Column(name = "review")
     private String review;
     
@@ -66,6 +92,14 @@ public class Review implements Serializable {
 		this.id = id;
 	}
 
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
 
 	public Long getUserId() {
 		return userId;
@@ -1,15 +1,25 @@
 package org.jboss.quickstarts.wfk.contact;
 
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.MultiGetResult;
+import org.jboss.quickstarts.wfk.util.QueryCaller;
+import org.jboss.quickstarts.wfk.util.SoftDeletable;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityNotFoundException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -23,8 +33,15 @@ import java.util.logging.Logger;
  * @see Review
  * @see javax.persistence.EntityManager
  */
+@QueryCaller
 public class ReviewRepository {
 
+    /** The reason given when a Review names a user which does not exist or has been deleted. */
+    static final String UNKNOWN_USER = "The user id does not exist";
+
+    /** The reason given when a Review names a restaurant which has been deleted. */
+    static final String DELETED_RESTAURANT = "The restaurant id does not exist";
+
     @Inject
     private @Named("logger") Logger log;
 
@@ -32,22 +49,117 @@ public class ReviewRepository {
     private EntityManager em;
     
     @Inject
-    private UserService service;
-    
-    List<Review> findAll() {
-        TypedQuery<Review> query = em.createNamedQuery(Review.FIND_ALL, Review.class);
+    private UserRepository users;
+
+    List<ReviewSummary> findAll() {
+        TypedQuery<ReviewSummary> query = em.createNamedQuery(Review.FIND_ALL, ReviewSummary.class);
         return query.getResultList();
     }
+
+    /**
+     * <p>Returns only the selected fields of the Reviews matching every filter, sorted by user and restaurant.</p>
+     *
+     * @param fields The fields to read
+     * @param filters Review attribute names mapped to the value they must be equal to
+     * @return One map of field values per matching Review
+     */
+    List<Map<String, Object>> findFields(FieldSelection fields, Map<String, Object> filters) {
+        return fields.select(em, Review.class, filters, ReviewRepository::visible, "userId", "restaurantId");
+    }
+
+    /**
+     * <p>The criteria equivalent of {@link Review#VISIBLE}, hiding the reviews of deleted users and restaurants.</p>
+     */
+    private static Predicate visible(CriteriaBuilder cb, CriteriaQuery<?> query, Root<Review> review) {
+        Subquery<Long> tombstoned = query.subquery(Long.class);
+        Root<Restaurant> restaurant = tombstoned.from(Restaurant.class);
+        tombstoned.select(restaurant.<Long>get("id")).where(
+                cb.equal(restaurant.get("id"), review.get("restaurantId")),
+                cb.isTrue(restaurant.<Boolean>get(SoftDeletable.DELETED)));
+
+        return cb.and(cb.isFalse(review.get("user").<Boolean>get(SoftDeletable.DELETED)), cb.not(cb.exists(tombstoned)));
+    }
+
+    /**
+     * <p>Returns {@link ReviewSummary} views of the Reviews with the given ids, in request order.</p>
+     *
+     * <p>The ids are looked up with one <code>IN</code> list query per {@link MultiGetResult#CHUNK_SIZE} ids.</p>
+     *
+     * @param ids The distinct ids of the Reviews to be returned
+     * @return The Reviews found and the ids which were not
+     */
+    MultiGetResult<ReviewSummary> findByIds(List<Long> ids) {
+        return MultiGetResult.load(ids,
+                chunk -> em.createNamedQuery(Review.FIND_BY_IDS, ReviewSummary.class).setParameter("ids", chunk).getResultList(),
+                ReviewSummary::getId);
+    }
     
+    /**
+     * <p>Returns the aggregate rating of each of the given restaurants which has been reviewed.</p>
+     *
+     * @param restaurantIds The distinct ids of the restaurants
+     * @return Restaurant id mapped to its rating, restaurants without reviews are absent
+     */
+    Map<Long, RestaurantRating> findRatingsByRestaurantIds(List<Long> restaurantIds) {
+        Map<Long, RestaurantRating> ratings = new HashMap<>();
+        for (int from = 0; from < restaurantIds.size(); from += MultiGetResult.CHUNK_SIZE) {
+            List<Long> chunk = restaurantIds.subList(from, Math.min(from + MultiGetResult.CHUNK_SIZE, restaurantIds.size()));
+            for (RestaurantRating rating : em.createNamedQuery(Review.FIND_RATINGS_BY_RESTAURANT_IDS, RestaurantRating.class)
+                    .setParameter("ids", chunk).getResultList()) {
+                ratings.put(rating.getRestaurantId(), rating);
+            }
+        }
+        return ratings;
+    }
+
+    /**
+     * <p>Returns the Reviews given by a user as managed entities.</p>
+     *
+     * <p>The review text is a lazy attribute, so it is only read from the database if it is accessed.</p>
+     *
+     * @param user_id The id of the user
+     * @return The Reviews given by the user
+     */
     List<Review> findByUserId(Long user_id) {
         TypedQuery<Review> query = em.createNamedQuery(Review.FIND_BY_USER_ID, Review.class).setParameter("userId", user_id);
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns {@link ReviewSummary} views of the Reviews given by a user, text included.</p>
+     *
+     * @param user_id The id of the user
+     * @return The Reviews given by the user
+     */
+    List<ReviewSummary> findSummariesByUserId(Long user_id) {
+        return em.createNamedQuery(Review.FIND_SUMMARIES_BY_USER_ID, ReviewSummary.class)
+                .setParameter("userId", user_id)
+                .getResultList();
+    }
+
 
+    /**
+     * <p>Writes the provided Review object to the application database, attached to its user.</p>
+     *
+     * <p>Deleted users and restaurants are only hidden until they are purged, so a review of either is refused rather
+     * than written hidden.</p>
+     *
+     * @param review The Review object to be written
+     * @return The Review object that has been written
+     * @throws EntityNotFoundException If the user does not exist or has been deleted, or the restaurant has been
+     * deleted
+     */
     Review create(Review review) throws ConstraintViolationException, ValidationException, Exception {
         log.info("ReviewRepository.create() - Creating " + review.getUserId() + review.getRestaurantId());
-        User user = em.getReference(User.class, review.getUserId());
+        User user = users.findById(review.getUserId());
+        if (user == null) {
+            throw new EntityNotFoundException(UNKNOWN_USER);
+        }
+        // Reviews only hold the id of their restaurant, so an id which has never existed is accepted as before.
+        Restaurant restaurant = em.find(Restaurant.class, review.getRestaurantId());
+        if (restaurant != null && restaurant.isDeleted()) {
+            throw new EntityNotFoundException(DELETED_RESTAURANT);
+        }
         review.setUser(user);
         user.addReview(review);
         // Write the user to the database.
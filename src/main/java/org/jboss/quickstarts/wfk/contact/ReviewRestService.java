@@ -18,10 +18,14 @@ package org.jboss.quickstarts.wfk.contact;
 
 import io.swagger.annotations.*;
 import org.jboss.quickstarts.wfk.area.InvalidAreaCodeException;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.MultiGetResult;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
 import org.jboss.resteasy.annotations.cache.Cache;
 
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityNotFoundException;
@@ -31,6 +35,7 @@ import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -69,13 +74,37 @@ public class ReviewRestService {
     /**
      * <p>Return all the Reviews.  They are sorted alphabetically by name.</p>
      *
+     * <p>The url may optionally include a <code>fields</code> query parameter listing the fields to return, or
+     * <code>expand=restaurant</code> to inline the name, postcode and average rating of each reviewed restaurant.</p>
+     *
+     * <p>Examples: <pre>GET api/reviews?fields=id,rating</pre>, <pre>GET api/reviews?expand=restaurant</pre></p>
+     *
+     * @param fields The comma separated list of fields to return, or null for all of them
+     * @param expand The related resource to inline, or null for none
      * @return A Response containing a list of Reviews
      */
     @GET
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @ApiOperation(value = "Fetch all Reviews", notes = "Returns a JSON array of all stored Review objects.")
-    public Response retrieveAllReviews() {
+    public Response retrieveAllReviews(
+            @ApiParam(value = "Comma separated list of fields to return, all fields if omitted")
+            @QueryParam("fields")
+            String fields,
+            @ApiParam(value = "Related resources to inline, only restaurant is supported", allowableValues = "restaurant")
+            @QueryParam("expand")
+            String expand) {
+
+        if (expandRestaurant(expand, fields)) {
+            return Response.ok(service.expandRestaurants(service.findAll())).build();
+        }
+
+        FieldSelection selection = FieldSelection.parse(fields, ReviewSummary.FIELDS);
+        if (selection != null) {
+            return Response.ok(service.findFields(selection, Collections.<String, Object>emptyMap())).build();
+        }
+
         //Create an empty collection to contain the intersection of Reviews to be returned
-        List<Review> reviews;
+        List<ReviewSummary> reviews;
 
         reviews = service.findAll();
 
@@ -87,10 +116,13 @@ public class ReviewRestService {
      *
      *
      * @param user_id The string parameter value provided as a User's user id
+     * @param fields The comma separated list of fields to return, or null for all of them
+     * @param expand The related resource to inline, or null for none
      * @return A Response containing a list of Reviews
      */
 
     @GET
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Cache
     @Path("/{user_id:[0-9]+}")
     @ApiOperation(
@@ -104,18 +136,100 @@ public class ReviewRestService {
     public Response retrieveReviewsById(
             @ApiParam(value = "User ID of Reviews to be fetched", allowableValues = "range[0, infinity]", required = true)
             @PathParam("user_id")
-            long user_id) {
+            long user_id,
+            @ApiParam(value = "Comma separated list of fields to return, all fields if omitted")
+            @QueryParam("fields")
+            String fields,
+            @ApiParam(value = "Related resources to inline, only restaurant is supported", allowableValues = "restaurant")
+            @QueryParam("expand")
+            String expand) {
+
+        boolean expandRestaurant = expandRestaurant(expand, fields);
+
+        FieldSelection selection = FieldSelection.parse(fields, ReviewSummary.FIELDS);
+        if (selection != null) {
+            List<Map<String, Object>> rows = service.findFields(selection, Collections.<String, Object>singletonMap("userId", user_id));
+            if (rows.isEmpty()) {
+                throw new RestServiceException("No review with the user id " + user_id + " was found!", Response.Status.NOT_FOUND);
+            }
+            return Response.ok(rows).build();
+        }
 
-    	List<Review> reviews = service.findByUser_id(user_id);
+    	List<ReviewSummary> reviews = service.findByUser_id(user_id);
         if (reviews.isEmpty()) {
             // Verify that the reviews exists. Return 404, if not present.
             throw new RestServiceException("No review with the user id " + user_id + " was found!", Response.Status.NOT_FOUND);
         }
-        log.info("findByUser_id " + user_id + ": found Reviews = " + reviews.toString());
+        log.info("findByUser_id " + user_id + ": found " + reviews.size() + " Reviews");
+
+        if (expandRestaurant) {
+            return Response.ok(service.expandRestaurants(reviews)).build();
+        }
+
+        return Response.ok(reviews).build();
+    }
+
+    /**
+     * <p>Fetches many Reviews by id in one request.</p>
+     *
+     * <p>The ids are sent in the request body rather than the url so that long lists are not truncated. The Reviews
+     * are returned in the order requested, along with the ids which could not be found.</p>
+     *
+     * <p>Example: <pre>POST api/reviews/lookup</pre> with the body <pre>[3, 1, 2]</pre></p>
+     *
+     * @param ids The ids of the Reviews to be fetched
+     * @param expand The related resource to inline, or null for none
+     * @return A Response containing the Reviews found and the ids which were not
+     */
+    @POST
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Path("/lookup")
+    @ApiOperation(
+            value = "Fetch many Reviews by id",
+            notes = "Returns a JSON object holding the Reviews with the ids supplied, in the order supplied, and the ids which were not found."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Lookup completed"),
+            @ApiResponse(code = 400, message = "No ids, or too many ids, supplied in request body")
+    })
+    public Response lookupReviews(
+            @ApiParam(value = "JSON array of the ids of the Reviews to be fetched", required = true)
+            List<Long> ids,
+            @ApiParam(value = "Related resources to inline, only restaurant is supported", allowableValues = "restaurant")
+            @QueryParam("expand")
+            String expand) {
 
+        MultiGetResult<ReviewSummary> reviews = service.findByIds(MultiGetResult.distinctIds(ids));
+        if (expandRestaurant(expand, null)) {
+            return Response.ok(reviews.map(service::expandRestaurants)).build();
+        }
         return Response.ok(reviews).build();
     }
 
+    /**
+     * <p>Checks the <code>expand</code> query parameter.</p>
+     *
+     * @param expand The value of the expand parameter, may be null
+     * @param fields The value of the fields parameter, which cannot be combined with expand
+     * @return true if the reviewed restaurants should be inlined
+     * @throws RestServiceException with status 400 if the expansion is unknown or fields were also requested
+     */
+    private static boolean expandRestaurant(String expand, String fields) {
+        if (expand == null || expand.trim().isEmpty()) {
+            return false;
+        }
+        Map<String, String> responseObj = new HashMap<>();
+        if (!"restaurant".equals(expand.trim())) {
+            responseObj.put("expand", "Unknown expansion, please use restaurant");
+        } else if (fields != null && !fields.trim().isEmpty()) {
+            responseObj.put("expand", "Cannot be combined with fields");
+        }
+        if (!responseObj.isEmpty()) {
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST);
+        }
+        return true;
+    }
+
     /**
      * <p>Creates a new review from the values provided. Performs validation and will return a JAX-RS response with
      * either 201 (Resource created) or with a map of fields, and related errors.</p>
@@ -174,7 +288,11 @@ public class ReviewRestService {
         }
         catch (EntityNotFoundException e) {
         	Map<String, String> responseObj = new HashMap<>();
-        	responseObj.put("user_id", "The user id does not exist");
+        	if (ReviewRepository.DELETED_RESTAURANT.equals(e.getMessage())) {
+        	    responseObj.put("restaurant_id", ReviewRepository.DELETED_RESTAURANT);
+        	} else {
+        	    responseObj.put("user_id", ReviewRepository.UNKNOWN_USER);
+        	}
         	throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
         }
          catch (Exception e) {
@@ -3,6 +3,8 @@ package org.jboss.quickstarts.wfk.contact;
 import org.jboss.quickstarts.wfk.area.Area;
 import org.jboss.quickstarts.wfk.area.AreaService;
 import org.jboss.quickstarts.wfk.area.InvalidAreaCodeException;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.MultiGetResult;
 import org.jboss.resteasy.client.jaxrs.ResteasyClient;
 import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
 import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
@@ -14,7 +16,9 @@ import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.core.Response;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -44,6 +48,9 @@ public class ReviewService {
     @Inject
     private ReviewRepository crud;
 
+    @Inject
+    private RestaurantSummaryLoader restaurants;
+
     private ResteasyClient client;
 
     /**
@@ -57,20 +64,63 @@ public class ReviewService {
     /**
      * <p>Returns a List of all persisted {@link Review} objects<p/>
      *
-     * @return List of Review objects
+     * @return List of ReviewSummary objects
      */
-    List<Review> findAll() {
+    List<ReviewSummary> findAll() {
         return crud.findAll();
     }
 
     /**
-     * <p>Returns a list of Review objects, specified by a Long user id.<p/>
+     * <p>Returns only the selected fields of the Reviews matching every filter.</p>
+     *
+     * @param fields The fields to read
+     * @param filters Review attribute names mapped to the value they must be equal to
+     * @return One map of field values per matching Review
+     */
+    List<Map<String, Object>> findFields(FieldSelection fields, Map<String, Object> filters) {
+        return crud.findFields(fields, filters);
+    }
+
+    /**
+     * <p>Returns {@link ReviewSummary} views of the Reviews with the given ids, in request order.</p>
+     *
+     * @param ids The distinct ids of the Reviews to be returned
+     * @return The Reviews found and the ids which were not
+     */
+    MultiGetResult<ReviewSummary> findByIds(List<Long> ids) {
+        return crud.findByIds(ids);
+    }
+
+    /**
+     * <p>Inlines a digest of the reviewed restaurant into each of the given reviews.</p>
+     *
+     * <p>The restaurants of the whole list are resolved in one batch by the {@link RestaurantSummaryLoader}.</p>
+     *
+     * @param reviews The reviews to expand
+     * @return The expanded reviews, in the same order
+     */
+    List<ExpandedReview> expandRestaurants(List<ReviewSummary> reviews) {
+        List<Long> restaurantIds = new ArrayList<>(reviews.size());
+        for (ReviewSummary review : reviews) {
+            restaurantIds.add(review.getRestaurantId());
+        }
+        Map<Long, RestaurantDigest> digests = restaurants.loadAll(restaurantIds);
+
+        List<ExpandedReview> expanded = new ArrayList<>(reviews.size());
+        for (ReviewSummary review : reviews) {
+            expanded.add(new ExpandedReview(review, digests.get(review.getRestaurantId())));
+        }
+        return expanded;
+    }
+
+    /**
+     * <p>Returns {@link ReviewSummary} views of the Reviews given by a user, specified by a Long user id.<p/>
      *
      * @param user_id The id field of the user 
      * @return The list of Reviews given by the user
      */
-    List<Review> findByUser_id(Long user_id) {
-        return crud.findByUserId(user_id);
+    List<ReviewSummary> findByUser_id(Long user_id) {
+        return crud.findSummariesByUserId(user_id);
     }
 
 
@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+
+import java.util.Map;
+
+/**
+ * <p>An immutable, read only view of a {@link Review} used by the list endpoints.</p>
+ *
+ * <p>It is filled by a constructor expression in {@link Review#FIND_ALL}, which reads the user id column directly
+ * instead of loading the eager {@link Review#getUser() user} association for every row.</p>
+ */
+public final class ReviewSummary {
+
+    /** The fields of a Review that may be requested with <code>?fields=</code>, mapped to the attribute behind each. */
+    public static final Map<String, String> FIELDS = FieldSelection.available(
+            "id", "id",
+            "version", "version",
+            "userId", "userId",
+            "restaurantId", "restaurantId",
+            "review", "review",
+            "rating", "rating");
+
+    private final Long id;
+    private final Long version;
+    private final Long userId;
+    private final Long restaurantId;
+    private final String review;
+    private final String rating;
+
+    public ReviewSummary(Long id, Long version, Long userId, Long restaurantId, String review, String rating) {
+        this.id = id;
+        this.version = version;
+        this.userId = userId;
+        this.restaurantId = restaurantId;
+        this.review = review;
+        this.rating = rating;
+    }
+
+    /**
+     * <p>Copies the serialized fields of a loaded Review.</p>
+     *
+     * @param review The Review to summarise
+     * @return The ReviewSummary of the Review
+     */
+    public static ReviewSummary of(Review review) {
+        return new ReviewSummary(review.getId(), review.getVersion(), review.getUserId(), review.getRestaurantId(),
+                review.getReview(), review.getRating());
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Long getRestaurantId() {
+        return restaurantId;
+    }
+
+    public String getReview() {
+        return review;
+    }
+
+    public String getRating() {
+        return rating;
+    }
+}
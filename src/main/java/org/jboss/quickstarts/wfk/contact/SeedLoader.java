@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import org.jboss.quickstarts.wfk.util.ResponseCache;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.logging.Logger;
+
+/**
+ * <p>Fills the database with a large synthetic data set of restaurants, users and reviews, for benchmarks and load
+ * tests, on top of the few rows of <code>import.sql</code>.</p>
+ *
+ * <p>Nothing is loaded unless the number of rows is configured with system properties, e.g.
+ * <pre>-Dquickstart.seed.restaurants=100000 -Dquickstart.seed.users=1000000 -Dquickstart.seed.reviews=5000000</pre>
+ * The rows are derived from <code>quickstart.seed</code>, 42 if omitted, so the same properties always produce the
+ * same data set.</p>
+ *
+ * <p>The rows are written by a {@link SeedWriter} in chunks of {@link #CHUNK_SIZE}, each a batched insert in a
+ * transaction of its own, from a timer shortly after startup so that the deployment does not wait for them. Once they
+ * are all in, the {@link RestaurantCatalog} and the {@link UniqueKeyFilters} are rebuilt.</p>
+ */
+@Singleton
+@Startup
+@DependsOn({"RestaurantCatalog", "UniqueKeyFilters"})
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class SeedLoader {
+
+    /** Rows inserted per transaction. */
+    static final int CHUNK_SIZE = 5000;
+
+    private static final String PREFIX = "quickstart.seed";
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private SeedWriter writer;
+
+    @Inject
+    private RestaurantCatalog catalog;
+
+    @Inject
+    private UniqueKeyFilters uniqueKeys;
+
+    @Inject
+    private ResponseCache responseCache;
+
+    @Resource
+    private TimerService timerService;
+
+    @PostConstruct
+    void schedule() {
+        if (count("restaurants") > 0 || count("users") > 0) {
+            timerService.createSingleActionTimer(0, new TimerConfig(null, false));
+        }
+    }
+
+    @Timeout
+    void load() {
+        long seed = Long.getLong(PREFIX, 42L);
+        long restaurants = count("restaurants");
+        long users = count("users");
+        long reviews = Math.min(count("reviews"), users * restaurants);
+
+        if (writer.isSeeded()) {
+            log.info("SeedLoader.load() - The database is already seeded");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        for (long from = 0; from < restaurants; from += CHUNK_SIZE) {
+            writer.insertRestaurants(seed, from, Math.min(from + CHUNK_SIZE, restaurants));
+        }
+        for (long from = 0; from < users; from += CHUNK_SIZE) {
+            writer.insertUsers(seed, from, Math.min(from + CHUNK_SIZE, users));
+        }
+        for (long from = 0; from < reviews; from += CHUNK_SIZE) {
+            writer.insertReviews(seed, from, Math.min(from + CHUNK_SIZE, reviews), users, restaurants);
+        }
+
+        catalog.refresh();
+        responseCache.invalidateCollection(RestaurantService.COLLECTION);
+        responseCache.invalidateCollection(UserService.COLLECTION);
+        uniqueKeys.rebuild();
+
+        log.info("SeedLoader.load() - Seeded " + restaurants + " restaurants, " + users + " users and " + reviews
+                + " reviews with seed " + seed + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private static long count(String table) {
+        return Math.max(0L, Long.getLong(PREFIX + "." + table, 0L));
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import org.hibernate.Session;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.SplittableRandom;
+
+/**
+ * <p>Inserts one chunk of synthetic rows per call, each in a transaction of its own, with a single batched JDBC
+ * statement on the connection of the persistence context.</p>
+ *
+ * <p>Every value is derived from the seed and the index of the row: the unique keys straight from the index, the rest
+ * from a {@link SplittableRandom} seeded per chunk. The same seed therefore always produces the same rows, whatever the
+ * timing of the chunks.</p>
+ *
+ * <p>Seeded ids start at {@link #ID_BASE}, far above the ids handed out by the id generator, so later writes never
+ * collide with them.</p>
+ *
+ * @see SeedLoader
+ */
+@Stateless
+@TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+public class SeedWriter {
+
+    /** The id of the first seeded row of each table. */
+    static final long ID_BASE = 1_000_000_000L;
+
+    private static final String[] FIRST_NAMES = {"Amelia", "Oliver", "Isla", "George", "Ava", "Noah", "Emily", "Harry",
+            "Sophia", "Jack", "Grace", "Leo", "Mia", "Oscar", "Ella", "Charlie", "Freya", "Arthur", "Lily", "Henry"};
+
+    private static final String[] LAST_NAMES = {"Smith", "Jones", "Taylor", "Brown", "Williams", "Wilson", "Johnson",
+            "Davies", "Patel", "Robinson", "Wright", "Thompson", "Evans", "Walker", "White", "Roberts", "Green", "Hall"};
+
+    private static final String[] ADJECTIVES = {"Golden", "Royal", "Little", "Old", "Blue", "Spicy", "Happy", "Silver",
+            "Grand", "Hidden", "Red", "Green", "Lucky", "Corner", "Village", "Harbour"};
+
+    private static final String[] NOUNS = {"Dragon", "Lantern", "Kitchen", "Table", "Garden", "Oven", "Spoon", "Tandoor",
+            "Bistro", "Grill", "Noodle Bar", "Curry House", "Trattoria", "Diner", "Cantina", "Brasserie"};
+
+    private static final String[] VERDICTS = {"good food", "great meal", "bad food", "friendly staff", "slow service",
+            "lovely atmosphere", "too noisy", "fair prices", "cold dishes", "will come back", "generous portions",
+            "tasty, but pricey"};
+
+    @Inject
+    private EntityManager em;
+
+    /**
+     * @return true if the database already holds seeded rows
+     */
+    public boolean isSeeded() {
+        return em.createQuery("SELECT COUNT(c) FROM Restaurant c WHERE c.id >= :base", Long.class)
+                .setParameter("base", ID_BASE)
+                .getSingleResult() > 0
+                || em.createQuery("SELECT COUNT(c) FROM User c WHERE c.id >= :base", Long.class)
+                .setParameter("base", ID_BASE)
+                .getSingleResult() > 0;
+    }
+
+    /**
+     * @param seed The seed the rows are derived from
+     * @param from The index of the first restaurant to insert
+     * @param to The index after the last restaurant to insert
+     */
+    public void insertRestaurants(long seed, long from, long to) {
+        SplittableRandom random = random(seed, 1, from);
+        batch("insert into Restaurant (id, name, post_code, phone_number, version, deleted) values (?, ?, ?, ?, 0, false)",
+                from, to, (statement, i) -> {
+                    statement.setLong(1, ID_BASE + i);
+                    statement.setString(2, pick(random, ADJECTIVES) + " " + pick(random, NOUNS));
+                    statement.setString(3, postCode(random));
+                    statement.setString(4, phoneNumber(i));
+                });
+    }
+
+    /**
+     * @param seed The seed the rows are derived from
+     * @param from The index of the first user to insert
+     * @param to The index after the last user to insert
+     */
+    public void insertUsers(long seed, long from, long to) {
+        SplittableRandom random = random(seed, 2, from);
+        batch("insert into User (id, name, email, phone_number, version, deleted) values (?, ?, ?, ?, 0, false)",
+                from, to, (statement, i) -> {
+                    statement.setLong(1, ID_BASE + i);
+                    statement.setString(2, pick(random, FIRST_NAMES) + " " + pick(random, LAST_NAMES));
+                    statement.setString(3, "user" + i + "@seed.example.com");
+                    statement.setString(4, phoneNumber(i));
+                });
+    }
+
+    /**
+     * <p>Inserts reviews spread evenly over the users. The reviews of a user are of distinct restaurants, starting at
+     * an offset derived from the seed and the user.</p>
+     *
+     * @param seed The seed the rows are derived from
+     * @param from The index of the first review to insert
+     * @param to The index after the last review to insert
+     * @param users The number of seeded users, at least 1
+     * @param restaurants The number of seeded restaurants, at least <code>to / users</code>
+     */
+    public void insertReviews(long seed, long from, long to, long users, long restaurants) {
+        SplittableRandom random = random(seed, 3, from);
+        batch("insert into Review (id, user, restaurant, review, rating, user_id, version) values (?, ?, ?, ?, ?, ?, 0)",
+                from, to, (statement, i) -> {
+                    long user = i % users;
+                    long offset = Math.floorMod(mix(seed, 4, user), restaurants);
+                    long restaurant = (offset + i / users) % restaurants;
+                    statement.setLong(1, ID_BASE + i);
+                    statement.setLong(2, ID_BASE + user);
+                    statement.setLong(3, ID_BASE + restaurant);
+                    statement.setString(4, pick(random, VERDICTS));
+                    statement.setString(5, rating(random));
+                    statement.setLong(6, ID_BASE + user);
+                });
+    }
+
+    @FunctionalInterface
+    private interface RowWriter {
+
+        void write(PreparedStatement statement, long index) throws SQLException;
+    }
+
+    private void batch(String sql, long from, long to, RowWriter row) {
+        em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (long i = from; i < to; i++) {
+                    row.write(statement, i);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        });
+    }
+
+    /**
+     * @return A generator for one chunk of one table, the same for the same seed, table and chunk
+     */
+    private static SplittableRandom random(long seed, int table, long from) {
+        return new SplittableRandom(mix(seed, table, from));
+    }
+
+    /**
+     * @return A well spread hash of the values, so that neighbouring chunks get unrelated generators
+     */
+    private static long mix(long seed, int table, long index) {
+        long h = seed * 0x9E3779B97F4A7C15L + table;
+        h = (h ^ (h >>> 31)) * 0xBF58476D1CE4E5B9L + index;
+        return h ^ (h >>> 29);
+    }
+
+    private static String pick(SplittableRandom random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * @return A unique phone number in the format validated by Restaurant and User, <code>0</code> and ten digits
+     */
+    private static String phoneNumber(long index) {
+        return String.format("0%010d", 9_000_000_000L + index);
+    }
+
+    private static String postCode(SplittableRandom random) {
+        StringBuilder postCode = new StringBuilder(6);
+        for (int i = 0; i < 6; i++) {
+            int c = random.nextInt(36);
+            postCode.append((char) (c < 10 ? '0' + c : 'A' + c - 10));
+        }
+        return postCode.toString();
+    }
+
+    /**
+     * @return A rating from 0 to 5, skewed towards the good ones as real ratings are
+     */
+    private static String rating(SplittableRandom random) {
+        int roll = random.nextInt(20);
+        return Integer.toString(roll < 1 ? 0 : roll < 2 ? 1 : roll < 4 ? 2 : roll < 8 ? 3 : roll < 14 ? 4 : 5);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+import java.util.logging.Logger;
+
+/**
+ * <p>Removes deleted users and restaurants, and their reviews, for good during off-peak hours.</p>
+ *
+ * <p>Deleting a user or restaurant only marks its row with a tombstone, see {@link UserRepository#delete} and
+ * {@link RestaurantRepository#delete}. Every quarter of an hour between 02:00 and 04:59 server time, this job deletes
+ * the reviews of tombstones older than {@link #RETENTION_MINUTES}, then the tombstones themselves, in chunks of
+ * {@link #CHUNK_SIZE} rows with one short transaction per chunk. A run stops once its time budget is spent and the next
+ * run carries on where it left off.</p>
+ *
+ * @see TombstonePurger
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class TombstonePurgeJob {
+
+    /** Upper bound on the number of rows deleted in a single transaction. */
+    private static final int CHUNK_SIZE = 200;
+
+    /** Tombstones younger than this are left alone, so that a delete is never purged while its request is in flight. */
+    private static final long RETENTION_MINUTES = 60;
+
+    /** Upper bound on the time spent by a single run. */
+    private static final long RUN_BUDGET_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private TombstonePurger purger;
+
+    private final AtomicBoolean purging = new AtomicBoolean();
+
+    @Schedule(hour = "2-4", minute = "*/15", persistent = false)
+    public void purge() {
+        if (!purging.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(RETENTION_MINUTES));
+            long deadline = System.currentTimeMillis() + RUN_BUDGET_MILLIS;
+
+            int reviews = drain(() -> purger.purgeReviews(cutoff, CHUNK_SIZE), deadline);
+            int users = drain(() -> purger.purgeUsers(cutoff, CHUNK_SIZE), deadline);
+            int restaurants = drain(() -> purger.purgeRestaurants(cutoff, CHUNK_SIZE), deadline);
+
+            if (reviews + users + restaurants > 0) {
+                log.info("TombstonePurgeJob.purge() - Purged " + users + " users, " + restaurants + " restaurants and "
+                        + reviews + " reviews");
+            }
+        } finally {
+            purging.set(false);
+        }
+    }
+
+    /**
+     * <p>Purges chunks until none are left or the deadline has passed.</p>
+     */
+    private static int drain(IntSupplier chunk, long deadline) {
+        int purged = 0;
+        int count;
+        while (System.currentTimeMillis() < deadline && (count = chunk.getAsInt()) > 0) {
+            purged += count;
+        }
+        return purged;
+    }
+}
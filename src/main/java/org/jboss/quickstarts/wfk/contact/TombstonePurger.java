@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.TemporalType;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>Removes one bounded chunk of tombstoned rows per call, each in a transaction of its own, so that the locks taken
+ * by a purge are only ever held for a single chunk.</p>
+ *
+ * <p>Reviews have to be purged before the users and restaurants they belong to; a user or restaurant is only purged
+ * once none of its reviews are left.</p>
+ *
+ * @see TombstonePurgeJob
+ */
+@Stateless
+@TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+public class TombstonePurger {
+
+    @Inject
+    private EntityManager em;
+
+    /**
+     * @param cutoff Only the reviews of users and restaurants deleted before this time are purged
+     * @param chunkSize The maximum number of reviews to purge
+     * @return The number of reviews purged, 0 once there are none left
+     */
+    public int purgeReviews(Date cutoff, int chunkSize) {
+        return purge(Review.FIND_PURGEABLE_IDS, Review.DELETE_BY_IDS, cutoff, chunkSize);
+    }
+
+    /**
+     * @param cutoff Only users deleted before this time are purged
+     * @param chunkSize The maximum number of users to purge
+     * @return The number of users purged, 0 once there are none left
+     */
+    public int purgeUsers(Date cutoff, int chunkSize) {
+        return purge(User.FIND_PURGEABLE_IDS, User.DELETE_BY_IDS, cutoff, chunkSize);
+    }
+
+    /**
+     * @param cutoff Only restaurants deleted before this time are purged
+     * @param chunkSize The maximum number of restaurants to purge
+     * @return The number of restaurants purged, 0 once there are none left
+     */
+    public int purgeRestaurants(Date cutoff, int chunkSize) {
+        return purge(Restaurant.FIND_PURGEABLE_IDS, Restaurant.DELETE_BY_IDS, cutoff, chunkSize);
+    }
+
+    private int purge(String findIds, String deleteByIds, Date cutoff, int chunkSize) {
+        List<Long> ids = em.createNamedQuery(findIds, Long.class)
+                .setParameter("cutoff", cutoff, TemporalType.TIMESTAMP)
+                .setMaxResults(chunkSize)
+                .getResultList();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return em.createNamedQuery(deleteByIds).setParameter("ids", ids).executeUpdate();
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.jboss.quickstarts.wfk.util.UniquenessMode;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * <p>Bloom filters of the values of every unique key checked by the validators, so that a value which has never been
+ * used can be accepted without querying for it.</p>
+ *
+ * <p>A filter never answers "absent" for a value which has been added, but may answer "present" for one which has not
+ * (about one in a hundred), in which case the validator simply falls back to its query. Values are added as they are
+ * written, before the transaction commits, so a rolled back write only costs a false positive. Values are never
+ * removed; a filter is rebuilt from the database at startup and every hour, which also resizes it as the table
+ * grows.</p>
+ *
+ * <p>The user email and restaurant phone number filters are only read in {@link UniquenessMode#QUERY} mode; by default
+ * the unique constraints of those tables are relied on instead. In the default mode the two filters are neither built
+ * nor updated, and answer "might be present" for every value. A rebuild reads the values through a forward only cursor,
+ * so it never holds more than the filter itself.</p>
+ *
+ * @see UserValidator
+ * @see ContactValidator
+ * @see RestaurantValidator
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class UniqueKeyFilters {
+
+    /** The unique keys filtered. */
+    public enum Key {
+        USER_EMAIL(true), CONTACT_EMAIL(false), RESTAURANT_PHONE_NUMBER(true);
+
+        private final boolean queryModeOnly;
+
+        Key(boolean queryModeOnly) {
+            this.queryModeOnly = queryModeOnly;
+        }
+
+        /**
+         * @return true if the validator of this key reads its filter in the current {@link UniquenessMode}
+         */
+        boolean isChecked() {
+            return !queryModeOnly || UniquenessMode.checkWithQuery();
+        }
+    }
+
+    /** The false positive rate the filters are sized for. */
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    /** Room is left for this many times the current number of values before the filter degrades. */
+    private static final int GROWTH = 4;
+
+    private static final int MIN_CAPACITY = 10000;
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private UserRepository users;
+
+    @Inject
+    private ContactRepository contacts;
+
+    @Inject
+    private RestaurantRepository restaurants;
+
+    private final Map<Key, KeyFilter> filters = new EnumMap<>(Key.class);
+
+    public UniqueKeyFilters() {
+        for (Key key : Key.values()) {
+            filters.put(key, new KeyFilter());
+        }
+    }
+
+    @PostConstruct
+    void load() {
+        rebuild();
+    }
+
+    @Schedule(hour = "*", minute = "17", persistent = false)
+    public void rebuild() {
+        for (Key key : Key.values()) {
+            if (key.isChecked()) {
+                rebuild(key);
+            } else {
+                filters.get(key).drop();
+            }
+        }
+    }
+
+    /**
+     * @param key The unique key
+     * @param value The value to look for
+     * @return false if no row can have the value, true if one might
+     */
+    public boolean mightContain(Key key, String value) {
+        return value != null && filters.get(key).mightContain(value);
+    }
+
+    /**
+     * <p>Records a value of a unique key which is being written.</p>
+     *
+     * @param key The unique key
+     * @param value The value written, ignored if null
+     */
+    public void add(Key key, String value) {
+        if (value != null) {
+            filters.get(key).put(value);
+        }
+    }
+
+    private void rebuild(Key key) {
+        KeyFilter filter = filters.get(key);
+        filter.startRecording();
+
+        long count;
+        try {
+            BloomFilter<CharSequence> rebuilt;
+            switch (key) {
+                case USER_EMAIL:
+                    rebuilt = create(users.countAll());
+                    count = users.forEachEmail(rebuilt::put);
+                    break;
+                case CONTACT_EMAIL:
+                    rebuilt = create(contacts.countAll());
+                    count = contacts.forEachEmail(rebuilt::put);
+                    break;
+                default:
+                    rebuilt = create(restaurants.countAll());
+                    count = restaurants.forEachPhoneNumber(rebuilt::put);
+                    break;
+            }
+            filter.replace(rebuilt);
+        } catch (RuntimeException e) {
+            filter.stopRecording();
+            throw e;
+        }
+        log.fine("UniqueKeyFilters.rebuild() - " + key + " holds " + count + " values");
+    }
+
+    private static BloomFilter<CharSequence> create(long size) {
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8),
+                Math.max(MIN_CAPACITY, size * GROWTH), FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * <p>One filter, which can be replaced without losing the values written while its replacement was being built.</p>
+     */
+    private static final class KeyFilter {
+
+        // Null while the filter is not maintained, until it is first built
+        private volatile BloomFilter<CharSequence> filter;
+
+        // The values added while a replacement is being built, null otherwise
+        private List<String> recorded;
+
+        boolean mightContain(String value) {
+            BloomFilter<CharSequence> current = filter;
+            return current == null || current.mightContain(value);
+        }
+
+        synchronized void put(String value) {
+            if (filter != null) {
+                filter.put(value);
+            }
+            if (recorded != null) {
+                recorded.add(value);
+            }
+        }
+
+        /**
+         * <p>Stops maintaining the filter, which then might contain any value.</p>
+         */
+        synchronized void drop() {
+            filter = null;
+        }
+
+        synchronized void startRecording() {
+            recorded = new ArrayList<>();
+        }
+
+        synchronized void stopRecording() {
+            recorded = null;
+        }
+
+        synchronized void replace(BloomFilter<CharSequence> replacement) {
+            for (String value : recorded) {
+                replacement.put(value);
+            }
+            filter = replacement;
+            recorded = null;
+        }
+    }
+}
@@ -41,7 +41,12 @@ public class UniqueReviewException extends ValidationException {
     public UniqueReviewException(Throwable cause) {
         super(cause);
     }
-}
-
-
 
+    /**
+     * <p>A conflict is an expected answer to a request, reported as a 409, so no stack trace is recorded.</p>
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -4,6 +4,7 @@ import org.hibernate.validator.constraints.Email;
 import org.hibernate.validator.constraints.NotEmpty;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.jboss.quickstarts.wfk.util.SoftDeletable;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
@@ -18,21 +19,57 @@ import java.util.List;
 import java.util.Objects;
 
 @Entity
-@NamedQueries({ @NamedQuery(name = User.FIND_ALL, query = "SELECT c FROM User c ORDER BY c.name ASC"),
-		@NamedQuery(name = User.FIND_BY_EMAIL, query = "SELECT c FROM User c WHERE c.email = :email") })
+@NamedQueries({ @NamedQuery(name = User.FIND_ALL, query = "SELECT NEW org.jboss.quickstarts.wfk.contact.UserSummary(c.id, c.version, c.name, c.email, c.phoneNumber) "
+				+ "FROM User c WHERE c.deleted = false ORDER BY c.name ASC"),
+		@NamedQuery(name = User.FIND_BY_IDS, query = "SELECT NEW org.jboss.quickstarts.wfk.contact.UserSummary(c.id, c.version, c.name, c.email, c.phoneNumber) "
+				+ "FROM User c WHERE c.id IN :ids AND c.deleted = false"),
+		@NamedQuery(name = User.FIND_PURGEABLE_IDS, query = "SELECT c.id FROM User c WHERE c.deleted = true AND c.deletedAt < :cutoff "
+				+ "AND NOT EXISTS (SELECT r.id FROM Review r WHERE r.user = c)"),
+		@NamedQuery(name = User.DELETE_BY_IDS, query = "DELETE FROM User c WHERE c.id IN :ids"),
+		@NamedQuery(name = User.FIND_ALL_EMAILS, query = "SELECT c.email FROM User c WHERE c.deleted = false"),
+		@NamedQuery(name = User.COUNT_ALL, query = "SELECT COUNT(c) FROM User c WHERE c.deleted = false"),
+		@NamedQuery(name = User.FIND_BY_EMAIL, query = "SELECT c FROM User c WHERE c.email = :email AND c.deleted = false") })
 @XmlRootElement
 @Table(name = "user", uniqueConstraints = @UniqueConstraint(columnNames = "email"))
-public class User implements Serializable {
+public class User implements Serializable, SoftDeletable {
 	/** Default value included to remove warning. Remove or modify at will. **/
 	private static final long serialVersionUID = 1L;
 
 	public static final String FIND_ALL = "User.findAll";
+	public static final String FIND_BY_IDS = "User.findByIds";
 	public static final String FIND_BY_EMAIL = "User.findByEmail";
+	public static final String FIND_PURGEABLE_IDS = "User.findPurgeableIds";
+	public static final String DELETE_BY_IDS = "User.deleteByIds";
+	public static final String FIND_ALL_EMAILS = "User.findAllEmails";
+	public static final String COUNT_ALL = "User.countAll";
 
 	@Id
 	@GeneratedValue(strategy = GenerationType.TABLE)
 	private Long id;
 
+	/** Incremented on every update, so that concurrent updates are detected rather than overwriting each other. */
+	@Version
+	@Column(name = "version")
+	private Long version;
+
+	/**
+	 * Set instead of deleting the row, which is purged together with the reviews later on. The email is released at
+	 * once, see {@link #deletedEmail}.
+	 */
+	@Column(name = "deleted", nullable = false)
+	@JsonIgnore
+	private boolean deleted;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "deleted_at")
+	@JsonIgnore
+	private Date deletedAt;
+
+	/** The email of a deleted User, whose email column then holds a placeholder so that the email can be reused. */
+	@Column(name = "deleted_email")
+	@JsonIgnore
+	private String deletedEmail;
+
 	@NotNull
 	@Size(min = 1, max = 50)
 	@Pattern(regexp = "[A-Za-z- ']+", message = "Please use a name without numbers or specials")
@@ -73,6 +110,40 @@ public class User implements Serializable {
 		this.id = id;
 	}
 
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
+	@Override
+	public boolean isDeleted() {
+		return deleted;
+	}
+
+	public void setDeleted(boolean deleted) {
+		this.deleted = deleted;
+	}
+
+	@Override
+	public Date getDeletedAt() {
+		return deletedAt;
+	}
+
+	public void setDeletedAt(Date deletedAt) {
+		this.deletedAt = deletedAt;
+	}
+
+	public String getDeletedEmail() {
+		return deletedEmail;
+	}
+
+	public void setDeletedEmail(String deletedEmail) {
+		this.deletedEmail = deletedEmail;
+	}
+
 	public static long getSerialversionuid() {
 		return serialVersionUID;
 	}
@@ -1,8 +1,17 @@
 package org.jboss.quickstarts.wfk.contact;
 
+import org.jboss.quickstarts.wfk.util.EntityUpdates;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.MergePatch;
+import org.jboss.quickstarts.wfk.util.MultiGetResult;
+import org.jboss.quickstarts.wfk.util.QueryCaller;
+import org.jboss.quickstarts.wfk.util.ScrolledQuery;
+import org.jboss.quickstarts.wfk.util.UniqueViolations;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -10,6 +19,9 @@ import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -23,6 +35,7 @@ import java.util.logging.Logger;
  * @see User
  * @see javax.persistence.EntityManager
  */
+@QueryCaller
 public class UserRepository {
 
     @Inject
@@ -32,23 +45,67 @@ public class UserRepository {
     private EntityManager em;
 
     /**
-     * <p>Returns a List of all persisted {@link User} objects, sorted alphabetically by last name.</p>
+     * <p>Returns a List of {@link UserSummary} views of all persisted User objects, sorted alphabetically by name.</p>
      *
-     * @return List of User objects
+     * @return List of UserSummary objects
      */
-    List<User> findAllOrderedByName() {
-        TypedQuery<User> query = em.createNamedQuery(User.FIND_ALL, User.class);
+    List<UserSummary> findAllOrderedByName() {
+        TypedQuery<UserSummary> query = em.createNamedQuery(User.FIND_ALL, UserSummary.class);
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns only the selected fields of the Users matching every filter, sorted alphabetically by name.</p>
+     *
+     * @param fields The fields to read
+     * @param filters User attribute names mapped to the value they must be equal to
+     * @return One map of field values per matching User
+     */
+    List<Map<String, Object>> findFields(FieldSelection fields, Map<String, Object> filters) {
+        return fields.select(em, User.class, filters, "name");
+    }
+
+    /**
+     * <p>Returns {@link UserSummary} views of the Users with the given ids, in request order.</p>
+     *
+     * <p>The ids are looked up with one <code>IN</code> list query per {@link MultiGetResult#CHUNK_SIZE} ids.</p>
+     *
+     * @param ids The distinct ids of the Users to be returned
+     * @return The Users found and the ids which were not
+     */
+    MultiGetResult<UserSummary> findByIds(List<Long> ids) {
+        return MultiGetResult.load(ids,
+                chunk -> em.createNamedQuery(User.FIND_BY_IDS, UserSummary.class).setParameter("ids", chunk).getResultList(),
+                UserSummary::getId);
+    }
+
     /**
      * <p>Returns a single User object, specified by a Long id.<p/>
      *
      * @param id The id field of the User to be returned
-     * @return The User with the specified id
+     * @return The User with the specified id, or null if there is none or it has been deleted
      */
     User findById(Long id) {
-        return em.find(User.class, id);
+        User user = em.find(User.class, id);
+        return user == null || user.isDeleted() ? null : user;
+    }
+
+    /**
+     * @return The number of Users
+     */
+    long countAll() {
+        return em.createNamedQuery(User.COUNT_ALL, Long.class).getSingleResult();
+    }
+
+    /**
+     * <p>Passes the email of every User to the action. The emails are read through a forward only cursor, see
+     * {@link ScrolledQuery}.</p>
+     *
+     * @param action Receives each email
+     * @return The number of emails read
+     */
+    long forEachEmail(Consumer<String> action) {
+        return ScrolledQuery.forEach(em.createNamedQuery(User.FIND_ALL_EMAILS), action);
     }
 
     /**
@@ -56,12 +113,18 @@ public class UserRepository {
      *
      * <p>If there is more than one User with the specified email, only the first encountered will be returned.<p/>
      *
+     * <p>A miss is an expected outcome, so it is answered without the NoResultException thrown by
+     * {@link TypedQuery#getSingleResult()}.</p>
+     *
      * @param email The email field of the User to be returned
-     * @return The first User with the specified email
+     * @return The first User with the specified email, or an empty Optional if there is none
      */
-    User findByEmail(String email) {
-        TypedQuery<User> query = em.createNamedQuery(User.FIND_BY_EMAIL, User.class).setParameter("email", email);
-        return query.getSingleResult();
+    Optional<User> findByEmail(String email) {
+        List<User> found = em.createNamedQuery(User.FIND_BY_EMAIL, User.class)
+                .setParameter("email", email)
+                .setMaxResults(1)
+                .getResultList();
+        return found.isEmpty() ? Optional.<User>empty() : Optional.of(found.get(0));
     }
 
  
@@ -82,65 +145,85 @@ public class UserRepository {
     User create(User user) throws ConstraintViolationException, ValidationException, Exception {
         log.info("UserRepository.create() - Creating " + user.getName());
 
-        // Write the user to the database.
-        em.persist(user);
+        // Write the user to the database, flushing so that a duplicate email is reported here.
+        try {
+            em.persist(user);
+            em.flush();
+        } catch (PersistenceException e) {
+            throw translate(e);
+        }
 
         return user;
     }
 
     /**
-     * <p>Updates an existing User object in the application database with the provided User object.</p>
+     * <p>Writes a patch to the User with the given id, setting only the changed columns in one UPDATE statement.</p>
      *
-     * <p>{@link javax.persistence.EntityManager#merge(Object) merge(Object)} creates a new instance of your entity,
-     * copies the state from the supplied entity, and makes the new copy managed. The instance you pass in will not be
-     * managed (any changes you make will not be part of the transaction - unless you call merge again).</p>
+     * @param id The id of the User to be patched
+     * @param version The version the User must still be at, or null to patch it whatever its version
+     * @param patch The validated changes
+     * @return The number of rows updated, 0 if there is no User with the id
+     */
+    int patch(Long id, Long version, MergePatch patch) {
+        log.info("UserRepository.patch() - Patching " + id + " " + patch.getValues().keySet());
+
+        try {
+            return patch.apply(em, User.class, id, version);
+        } catch (PersistenceException e) {
+            throw translate(e);
+        }
+    }
+
+    /**
+     * <p>Overwrites an existing User in the application database with the provided User object.</p>
      *
-     * <p>merge(Object) however must have an object with the @Id already generated.</p>
+     * <p>The row is written with a single UPDATE by id, see {@link EntityUpdates}, rather than
+     * {@link javax.persistence.EntityManager#merge(Object) merge(Object)}, which would first have to SELECT it.</p>
      *
-     * @param user The User object to be merged with an existing User
-     * @return The User that has been merged
+     * @param user The User object holding the new state, with the id of the User to be overwritten
+     * @return The number of rows updated, 0 if there is no User with the id
      * @throws ConstraintViolationException, ValidationException, Exception
      */
-    User update(User user) throws ConstraintViolationException, ValidationException, Exception {
+    int update(User user) throws ConstraintViolationException, ValidationException, Exception {
         log.info("UserRepository.update() - Updating " + user.getName());
 
-        // Either update the contact or add it if it can't be found.
-        em.merge(user);
-
-        return user;
+        try {
+            return EntityUpdates.update(em, User.class, user.getId(), user);
+        } catch (PersistenceException e) {
+            throw translate(e);
+        }
     }
 
     /**
-     * <p>Deletes the provided User object from the application database if found there</p>
+     * <p>Translates the unique constraint violation of a write into a {@link UniqueEmailException}, the only unique key
+     * of the table being the email.</p>
      *
-     * @param user The User object to be removed from the application database
-     * @return The User object that has been successfully removed from the application database; or null
-     * @throws Exception
+     * @param e The exception thrown by the write
+     * @return The exception to be thrown in its place
      */
-    User delete(User user) throws Exception {
-        log.info("UserRepository.delete() - Deleting " + user.getName());
-
-        if (user.getId() != null) {
-            /*
-             * The Hibernate session (aka EntityManager's persistent context) is closed and invalidated after the commit(), 
-             * because it is bound to a transaction. The object goes into a detached status. If you open a new persistent 
-             * context, the object isn't known as in a persistent state in this new context, so you have to merge it. 
-             * 
-             * Merge sees that the object has a primary key (id), so it knows it is not new and must hit the database 
-             * to reattach it. 
-             * 
-             * Note, there is NO remove method which would just take a primary key (id) and a entity class as argument. 
-             * You first need an object in a persistent state to be able to delete it.
-             * 
-             * Therefore we merge first and then we can remove it.
-             */
-            em.remove(em.merge(user));
-
-        } else {
-            log.info("UserRepository.delete() - No ID was found so can't Delete.");
+    private RuntimeException translate(PersistenceException e) {
+        if (UniqueViolations.isUniqueViolation(e)) {
+            return new UniqueEmailException("Unique Email Violation", e);
         }
+        return e;
+    }
 
-        return user;
+    /**
+     * <p>Deletes the User with the given id by marking it with a tombstone, see {@link EntityUpdates#tombstone}.</p>
+     *
+     * <p>Their email is released at once, so that a new User can register with it. Their reviews are hidden from then
+     * on, and are only removed, together with the User, by the {@link TombstonePurgeJob}. The request therefore never
+     * waits on deleting an unbounded number of reviews.</p>
+     *
+     * @param id The id of the User to be deleted
+     * @param version The version the User must still be at, or null to delete it whatever its version
+     * @return The number of Users deleted, 0 if there is no User with the id
+     * @throws javax.persistence.OptimisticLockException If the User is no longer at the given version
+     */
+    int delete(Long id, Long version) {
+        log.info("UserRepository.delete() - Deleting " + id);
+
+        return EntityUpdates.tombstone(em, User.class, id, version, "email", "deletedEmail");
     }
 
 }
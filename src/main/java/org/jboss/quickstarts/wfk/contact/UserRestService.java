@@ -18,18 +18,26 @@ package org.jboss.quickstarts.wfk.contact;
 
 import io.swagger.annotations.*;
 import org.jboss.quickstarts.wfk.area.InvalidAreaCodeException;
+import org.jboss.quickstarts.wfk.util.ETags;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.MergePatch;
+import org.jboss.quickstarts.wfk.util.MultiGetResult;
+import org.jboss.quickstarts.wfk.util.PATCH;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
 import org.jboss.resteasy.annotations.cache.Cache;
 
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -67,15 +75,41 @@ public class UserRestService {
     /**
      * <p>Return all the Users.  They are sorted alphabetically by name.</p>
      *
-     * <p>The url may optionally include query parameters specifying a User's name</p>
+     * <p>The url may optionally include a <code>fields</code> query parameter listing the fields to return.</p>
      *
+     * <p>Alternatively the url may include an <code>ids</code> query parameter listing the ids of the Users to
+     * return. They are returned in the order requested, along with the ids which could not be found, and the
+     * <code>fields</code> parameter is ignored.</p>
+     *
+     * <p>Examples: <pre>GET api/users?fields=id,email</pre>, <pre>GET api/users?ids=3,1,2</pre></p>
+     *
+     * @param ids The comma separated list of ids to return, or null for all Users
+     * @param fields The comma separated list of fields to return, or null for all of them
      * @return A Response containing a list of Users
      */
     @GET
-    @ApiOperation(value = "Fetch all Users", notes = "Returns a JSON array of all stored User objects.")
-    public Response retrieveAllUsers() {
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @ApiOperation(value = "Fetch all Users", notes = "Returns a JSON array of all stored User objects, or an object holding the Users with the requested ids and the ids which were not found.")
+    public Response retrieveAllUsers(
+            @ApiParam(value = "Comma separated list of User ids to fetch, all Users if omitted")
+            @QueryParam("ids")
+            String ids,
+            @ApiParam(value = "Comma separated list of fields to return, all fields if omitted")
+            @QueryParam("fields")
+            String fields) {
+
+        List<Long> requested = MultiGetResult.parseIds(ids);
+        if (requested != null) {
+            return Response.ok(service.findByIds(requested)).build();
+        }
+
+        FieldSelection selection = FieldSelection.parse(fields, UserSummary.FIELDS);
+        if (selection != null) {
+            return Response.ok(service.findFields(selection, Collections.<String, Object>emptyMap())).build();
+        }
+
         //Create an empty collection to contain the intersection of Users to be returned
-        List<User> users;
+        List<UserSummary> users;
 
         	users = service.findAllOrderedByName();
 
@@ -90,9 +124,11 @@ public class UserRestService {
      *
      *
      * @param email The string parameter value provided as a User email
+     * @param fields The comma separated list of fields to return, or null for all of them
      * @return A Response containing a single User
      */
     @GET
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Cache
     @Path("/email/{email:.+[%40|@].+}")
     @ApiOperation(
@@ -106,25 +142,35 @@ public class UserRestService {
     public Response retrieveUsersByEmail(
             @ApiParam(value = "Email of User to be fetched", required = true)
             @PathParam("email")
-            String email) {
-
-    	User user;
-        try {
-        	user = service.findByEmail(email);
-        } catch (NoResultException e) {
-            // Verify that the contact exists. Return 404, if not present.
-            throw new RestServiceException("No User with the email " + email + " was found!", Response.Status.NOT_FOUND);
+            String email,
+            @ApiParam(value = "Comma separated list of fields to return, all fields if omitted")
+            @QueryParam("fields")
+            String fields) {
+
+        FieldSelection selection = FieldSelection.parse(fields, UserSummary.FIELDS);
+        if (selection != null) {
+            List<Map<String, Object>> rows = service.findFields(selection, Collections.<String, Object>singletonMap("email", email));
+            if (rows.isEmpty()) {
+                throw new RestServiceException("No User with the email " + email + " was found!", Response.Status.NOT_FOUND);
+            }
+            return Response.ok(rows.get(0)).build();
         }
-        return Response.ok(user).build();
+
+        // Verify that the user exists. Return 404, if not present.
+        User user = service.findByEmail(email).orElseThrow(() ->
+                new RestServiceException("No User with the email " + email + " was found!", Response.Status.NOT_FOUND));
+        return Response.ok(user).tag(ETags.of(user.getVersion())).build();
     }
 
     /**
      * <p>Search for and return a User identified by id.</p>
      *
      * @param id The long parameter value provided as a User id
+     * @param fields The comma separated list of fields to return, or null for all of them
      * @return A Response containing a single User
      */
     @GET
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Cache
     @Path("/{id:[0-9]+}")
     @ApiOperation(
@@ -138,7 +184,19 @@ public class UserRestService {
     public Response retrieveUserById(
             @ApiParam(value = "Id of User to be fetched", allowableValues = "range[0, infinity]", required = true)
             @PathParam("id")
-            long id) {
+            long id,
+            @ApiParam(value = "Comma separated list of fields to return, all fields if omitted")
+            @QueryParam("fields")
+            String fields) {
+
+        FieldSelection selection = FieldSelection.parse(fields, UserSummary.FIELDS);
+        if (selection != null) {
+            List<Map<String, Object>> rows = service.findFields(selection, Collections.<String, Object>singletonMap("id", id));
+            if (rows.isEmpty()) {
+                throw new RestServiceException("No User with the id " + id + " was found!", Response.Status.NOT_FOUND);
+            }
+            return Response.ok(rows.get(0)).build();
+        }
 
     	User user = service.findById(id);
         if (user == null) {
@@ -147,7 +205,7 @@ public class UserRestService {
         }
         log.info("findById " + id + ": found User = " + user.toString());
 
-        return Response.ok(user).build();
+        return Response.ok(user).tag(ETags.of(user.getVersion())).build();
     }
 
     /**
@@ -220,6 +278,7 @@ public class UserRestService {
      * @param user The User object, constructed automatically from JSON input, to be <i>updated</i> via
      * {@link UserService#update(Contact)}
      * @param id The long parameter value provided as the id of the User to be updated
+     * @param ifMatch The optional If-Match header holding the version the User must still be at
      * @return A Response indicating the outcome of the create operation
      */
     @PUT
@@ -230,6 +289,7 @@ public class UserRestService {
             @ApiResponse(code = 400, message = "Invalid User supplied in request body"),
             @ApiResponse(code = 404, message = "User with id not found"),
             @ApiResponse(code = 409, message = "User details supplied in request body conflict with another existing User"),
+            @ApiResponse(code = 412, message = "User has been changed since the version given in If-Match"),
             @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
     })
     public Response updateUser(
@@ -237,7 +297,10 @@ public class UserRestService {
             @PathParam("id")
             long id,
             @ApiParam(value = "JSON representation of User object to be updated in the database", required = true)
-            User user) {
+            User user,
+            @ApiParam(value = "Version the User must still be at, as returned in its ETag")
+            @HeaderParam("If-Match")
+            String ifMatch) {
 
         if (user == null || user.getId() == null) {
             throw new RestServiceException("Invalid User supplied in request body", Response.Status.BAD_REQUEST);
@@ -251,19 +314,21 @@ public class UserRestService {
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(user.getId()) == null) {
-            // Verify that the User exists. Return 404, if not present.
-            throw new RestServiceException("No User with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        // An If-Match header takes precedence over the version in the body. Without either the update is unconditional.
+        Long expectedVersion = ETags.expectedVersion(ifMatch);
+        if (expectedVersion != null) {
+            user.setVersion(expectedVersion);
         }
 
         Response.ResponseBuilder builder;
+        int updated;
 
         try {
             // Apply the changes the User.
-            service.update(user);
+            updated = service.update(user);
 
-            // Create an OK Response and pass the user back in case it is needed.
-            builder = Response.ok(user);
+            // Create an OK Response and pass the user back, now holding its new version, in case it is needed.
+            builder = Response.ok(user).tag(ETags.of(user.getVersion()));
 
 
         } catch (ConstraintViolationException ce) {
@@ -284,21 +349,111 @@ public class UserRestService {
             Map<String, String> responseObj = new HashMap<>();
             responseObj.put("area_code", "The telephone area code provided is not recognised, please provide another");
             throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
+        } catch (OptimisticLockException e) {
+            // Somebody else has changed the user since the client read it.
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The User has been changed by another request, please fetch it again");
+            throw new RestServiceException("Precondition Failed", responseObj, Response.Status.PRECONDITION_FAILED, e);
         } catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
 
+        if (updated == 0) {
+            // The update is written by id, so no row means the User does not exist. Return 404.
+            throw new RestServiceException("No User with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+
         log.info("updateUser completed. User = " + user.toString());
         return builder.build();
     }
 
+    /**
+     * <p>Partially updates the User with the ID provided using a JSON Merge Patch. Only the fields present in the patch
+     * are validated and written, and will return a JAX-RS response with either 204 (no content) or with a map of
+     * fields, and related errors.</p>
+     *
+     * <p>Its id cannot be changed.</p>
+     *
+     * <p>Example: <pre>PATCH api/users/1</pre> with the body <pre>{"phoneNumber":"01234567890"}</pre></p>
+     *
+     * @param id The long parameter value provided as the id of the User to be patched
+     * @param body The merge patch document
+     * @param ifMatch The optional If-Match header holding the version the User must still be at
+     * @return A Response indicating the outcome of the patch operation
+     */
+    @PATCH
+    @Path("/{id:[0-9]+}")
+    @Consumes(MergePatch.MEDIA_TYPE)
+    @ApiOperation(value = "Partially update a User in the database", consumes = MergePatch.MEDIA_TYPE)
+    @ApiResponses(value = {
+            @ApiResponse(code = 204, message = "User patched successfully"),
+            @ApiResponse(code = 400, message = "Invalid patch supplied in request body"),
+            @ApiResponse(code = 404, message = "User with id not found"),
+            @ApiResponse(code = 409, message = "Patch supplied in request body conflicts with another existing User"),
+            @ApiResponse(code = 412, message = "User has been changed since the version given in If-Match"),
+            @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
+    })
+    public Response patchUser(
+            @ApiParam(value = "Id of User to be patched", allowableValues = "range[0, infinity]", required = true)
+            @PathParam("id")
+            long id,
+            @ApiParam(value = "JSON Merge Patch holding the fields to be changed", required = true)
+            Map<String, Object> body,
+            @ApiParam(value = "Version the User must still be at, as returned in its ETag")
+            @HeaderParam("If-Match")
+            String ifMatch) {
+
+        MergePatch patch = MergePatch.parse(body, User.class, UserSummary.FIELDS, "id", "version");
+
+        int updated;
+
+        try {
+            updated = service.patch(id, ETags.expectedVersion(ifMatch), patch);
+
+        } catch (ConstraintViolationException ce) {
+            //Handle bean validation issues
+            Map<String, String> responseObj = new HashMap<>();
+
+            for (ConstraintViolation<?> violation : ce.getConstraintViolations()) {
+                responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
+            }
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
+        } catch (UniqueEmailException e) {
+            // Handle the unique constraint violation
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("email", "That email is already used, please use a unique email");
+            throw new RestServiceException("Patch supplied in request body conflicts with another User",
+                    responseObj, Response.Status.CONFLICT, e);
+        } catch (OptimisticLockException e) {
+            // Somebody else has changed the user since the client read it.
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The User has been changed by another request, please fetch it again");
+            throw new RestServiceException("Precondition Failed", responseObj, Response.Status.PRECONDITION_FAILED, e);
+        } catch (Exception e) {
+            // Handle generic exceptions
+            throw new RestServiceException(e);
+        }
+
+        if (updated == 0) {
+            // Verify that the user exists. Return 404, if not present.
+            throw new RestServiceException("No User with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+
+        log.info("patchUser completed. User = " + id);
+        return Response.noContent().build();
+    }
+
     /**
      * <p>Deletes a user using the ID provided. If the ID is not present then nothing can be deleted.</p>
      *
+     * <p>The User is hidden straight away, but is only removed from the database, along with their reviews, by the
+     * {@link TombstonePurgeJob} outside of peak hours.</p>
+     *
      * <p>Will return a JAX-RS response with either 204 NO CONTENT or with a map of fields, and related errors.</p>
      *
      * @param id The Long parameter value provided as the id of the User to be deleted
+     * @param ifMatch The optional If-Match header holding the version the User must still be at
      * @return A Response indicating the outcome of the delete operation
      */
     @DELETE
@@ -308,31 +463,40 @@ public class UserRestService {
             @ApiResponse(code = 204, message = "The User has been successfully deleted"),
             @ApiResponse(code = 400, message = "Invalid User id supplied"),
             @ApiResponse(code = 404, message = "User with id not found"),
+            @ApiResponse(code = 412, message = "User has been changed since the version given in If-Match"),
             @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
     })
     public Response deleteUser(
             @ApiParam(value = "Id of User to be deleted", allowableValues = "range[0, infinity]", required = true)
             @PathParam("id")
-            long id) {
+            long id,
+            @ApiParam(value = "Version the User must still be at, as returned in its ETag")
+            @HeaderParam("If-Match")
+            String ifMatch) {
 
-        Response.ResponseBuilder builder;
+        Long expectedVersion = ETags.expectedVersion(ifMatch);
 
-        User user = service.findById(id);
-        if (user == null) {
-            // Verify that the user exists. Return 404, if not present.
-            throw new RestServiceException("No User with the id " + id + " was found!", Response.Status.NOT_FOUND);
-        }
+        int deleted;
 
         try {
-            service.delete(user);
-
-            builder = Response.noContent();
+            deleted = service.delete(id, expectedVersion);
 
+        } catch (OptimisticLockException e) {
+            // Somebody else has changed the user since the client read it.
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The User has been changed by another request, please fetch it again");
+            throw new RestServiceException("Precondition Failed", responseObj, Response.Status.PRECONDITION_FAILED, e);
         } catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
-        log.info("deleteUser completed. User = " + user.toString());
-        return builder.build();
+
+        if (deleted == 0) {
+            // The delete is by id, so no row means the User does not exist. Return 404.
+            throw new RestServiceException("No User with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+
+        log.info("deleteUser completed. User = " + id);
+        return Response.noContent().build();
     }
 }
@@ -3,11 +3,17 @@ package org.jboss.quickstarts.wfk.contact;
 import org.jboss.quickstarts.wfk.area.Area;
 import org.jboss.quickstarts.wfk.area.AreaService;
 import org.jboss.quickstarts.wfk.area.InvalidAreaCodeException;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.MergePatch;
+import org.jboss.quickstarts.wfk.util.MissCache;
+import org.jboss.quickstarts.wfk.util.MultiGetResult;
+import org.jboss.quickstarts.wfk.util.ResourceChanged;
 import org.jboss.resteasy.client.jaxrs.ResteasyClient;
 import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
 import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
 
 import javax.enterprise.context.Dependent;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.validation.ConstraintViolationException;
@@ -15,6 +21,8 @@ import javax.validation.ValidationException;
 import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.core.Response;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.logging.Logger;
 
 /**
@@ -35,6 +43,9 @@ import java.util.logging.Logger;
 @Dependent
 public class UserService {
 
+    /** The collection Users are served under, see {@link UserRestService}. */
+    static final String COLLECTION = "users";
+
     @Inject
     private @Named("logger") Logger log;
 
@@ -44,6 +55,15 @@ public class UserService {
     @Inject
     private UserRepository crud;
 
+    @Inject
+    private UniqueKeyFilters uniqueKeys;
+
+    @Inject
+    private MissCache misses;
+
+    @Inject
+    private Event<ResourceChanged> changed;
+
     private ResteasyClient client;
 
     /**
@@ -59,18 +79,41 @@ public class UserService {
      *
      * @return List of User objects
      */
-    List<User> findAllOrderedByName() {
+    List<UserSummary> findAllOrderedByName() {
         return crud.findAllOrderedByName();
     }
 
+    /**
+     * <p>Returns only the selected fields of the Users matching every filter.</p>
+     *
+     * @param fields The fields to read
+     * @param filters User attribute names mapped to the value they must be equal to
+     * @return One map of field values per matching User
+     */
+    List<Map<String, Object>> findFields(FieldSelection fields, Map<String, Object> filters) {
+        return crud.findFields(fields, filters);
+    }
+
+    /**
+     * <p>Returns {@link UserSummary} views of the Users with the given ids, in request order.</p>
+     *
+     * @param ids The distinct ids of the Users to be returned
+     * @return The Users found and the ids which were not
+     */
+    MultiGetResult<UserSummary> findByIds(List<Long> ids) {
+        return crud.findByIds(ids);
+    }
+
     /**
      * <p>Returns a single User object, specified by a Long id.<p/>
      *
+     * <p>Ids which were recently not found are answered from the {@link MissCache}, without a query.<p/>
+     *
      * @param id The id field of the User to be returned
      * @return The User with the specified id
      */
     User findById(Long id) {
-        return crud.findById(id);
+        return misses.lookup(COLLECTION, "id", id, () -> crud.findById(id));
     }
 
     /**
@@ -78,11 +121,13 @@ public class UserService {
      *
      * <p>If there is more than one User with the specified email, only the first encountered will be returned.<p/>
      *
+     * <p>Emails which were recently not found are answered from the {@link MissCache}, without a query.<p/>
+     *
      * @param email The email field of the User to be returned
-     * @return The first User with the specified email
+     * @return The first User with the specified email, or an empty Optional if there is none
      */
-    User findByEmail(String email) {
-        return crud.findByEmail(email);
+    Optional<User> findByEmail(String email) {
+        return Optional.ofNullable(misses.lookup(COLLECTION, "email", email, () -> crud.findByEmail(email).orElse(null)));
     }
 
 
@@ -117,7 +162,11 @@ public class UserService {
         }*/
 
         // Write the user to the database.
-        return crud.create(user);
+        // Recorded before the write, so the validators never rule out a value which is in the database.
+        uniqueKeys.add(UniqueKeyFilters.Key.USER_EMAIL, user.getEmail());
+        User created = crud.create(user);
+        changed.fire(new ResourceChanged(COLLECTION, created.getId()));
+        return created;
     }
 
     /**
@@ -126,10 +175,10 @@ public class UserService {
      * <p>Validates the data in the provided User object using a UserValidator object.<p/>
      *
      * @param user The User object to be passed as an update to the application database
-     * @return The User object that has been successfully updated in the application database
+     * @return The number of Users updated, 0 if there is no User with the id
      * @throws ConstraintViolationException, ValidationException, Exception
      */
-    User update(User user) throws ConstraintViolationException, ValidationException, Exception {
+    int update(User user) throws ConstraintViolationException, ValidationException, Exception {
         log.info("UserService.update() - Updating " + user.getName());
         
         // Check to make sure the data fits with the parameters in the User model and passes validation.
@@ -151,28 +200,55 @@ public class UserService {
         }*/
 
         // Either update the user or add it if it can't be found.
-        return crud.update(user);
+        uniqueKeys.add(UniqueKeyFilters.Key.USER_EMAIL, user.getEmail());
+        int updated = crud.update(user);
+        if (updated > 0) {
+            changed.fire(new ResourceChanged(COLLECTION, user.getId()));
+        }
+        return updated;
     }
 
     /**
-     * <p>Deletes the provided User object from the application database if found there.<p/>
+     * <p>Applies a patch to the User with the given id.<p/>
+     *
+     * <p>Only the changed fields are validated, using a UserValidator object, and written.<p/>
      *
-     * @param user The User object to be removed from the application database
-     * @return The User object that has been successfully removed from the application database; or null
-     * @throws Exception
+     * @param id The id of the User to be patched
+     * @param version The version the User must still be at, or null to patch it whatever its version
+     * @param patch The changes to be applied
+     * @return The number of Users updated, 0 if there is no User with the id
+     * @throws ConstraintViolationException, ValidationException
      */
-    User delete(User user) throws Exception {
-        log.info("delete() - Deleting " + user.toString());
+    int patch(Long id, Long version, MergePatch patch) throws ConstraintViolationException, ValidationException {
+        log.info("UserService.patch() - Patching " + id);
 
-        User deletedUser = null;
+        validator.validatePatch(id, patch);
 
-        if (user.getId() != null) {
-            deletedUser = crud.delete(user);
-        } else {
-            log.info("delete() - No ID was found so can't Delete.");
+        if (patch.changes("email")) {
+            uniqueKeys.add(UniqueKeyFilters.Key.USER_EMAIL, patch.<String>get("email"));
         }
+        int updated = crud.patch(id, version, patch);
+        if (updated > 0) {
+            changed.fire(new ResourceChanged(COLLECTION, id));
+        }
+        return updated;
+    }
 
-        return deletedUser;
+    /**
+     * <p>Deletes the User with the given id from the application database if found there.<p/>
+     *
+     * @param id The id of the User to be deleted
+     * @param version The version the User must still be at, or null to delete it whatever its version
+     * @return The number of Users deleted, 0 if there is no User with the id
+     */
+    int delete(Long id, Long version) {
+        log.info("delete() - Deleting " + id);
+
+        int deleted = crud.delete(id, version);
+        if (deleted > 0) {
+            changed.fire(new ResourceChanged(COLLECTION, id));
+        }
+        return deleted;
     }
 }
 
@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+
+import java.util.Map;
+
+/**
+ * <p>An immutable, read only view of a {@link User} used by the list endpoints.</p>
+ *
+ * <p>It is filled by a constructor expression in {@link User#FIND_ALL}, so the reviews collection is never proxied and
+ * no entity is ever put in the persistence context.</p>
+ */
+public final class UserSummary {
+
+    /** The fields of a User that may be requested with <code>?fields=</code>, mapped to the attribute behind each. */
+    public static final Map<String, String> FIELDS = FieldSelection.available(
+            "id", "id",
+            "version", "version",
+            "name", "name",
+            "email", "email",
+            "phoneNumber", "phoneNumber");
+
+    private final Long id;
+    private final Long version;
+    private final String name;
+    private final String email;
+    private final String phoneNumber;
+
+    public UserSummary(Long id, Long version, String name, String email, String phoneNumber) {
+        this.id = id;
+        this.version = version;
+        this.name = name;
+        this.email = email;
+        this.phoneNumber = phoneNumber;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+}
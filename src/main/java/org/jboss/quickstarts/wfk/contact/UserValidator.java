@@ -1,17 +1,23 @@
 package org.jboss.quickstarts.wfk.contact;
 
+import org.jboss.quickstarts.wfk.util.MergePatch;
+import org.jboss.quickstarts.wfk.util.UniquenessMode;
+
 import javax.inject.Inject;
-import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 import javax.validation.Validator;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * <p>This class provides methods to check User objects against arbitrary requirements.</p>
  *
+ * <p>The email is only looked up before a write in {@link UniquenessMode#QUERY} mode. By default the unique constraint
+ * of the table is relied on instead, and the repository translates its violation.</p>
+ *
  * @author Joshua Wilson
  * @see User
  * @see UserRepository
@@ -24,6 +30,9 @@ public class UserValidator {
     @Inject
     private UserRepository crud;
 
+    @Inject
+    private UniqueKeyFilters uniqueKeys;
+
     /**
      * <p>Validates the given User object and throws validation exceptions based on the type of error. If the error is standard
      * bean validation errors then it will throw a ConstraintValidationException with the set of the constraints violated.<p/>
@@ -46,7 +55,34 @@ public class UserValidator {
         }
 
         // Check the uniqueness of the email address
-        if (emailAlreadyExists(user.getEmail(), user.getId())) {
+        if (UniquenessMode.checkWithQuery() && emailAlreadyExists(user.getEmail(), user.getId())) {
+            throw new UniqueEmailException("Unique Email Violation");
+        }
+    }
+
+    /**
+     * <p>Validates only the fields changed by a patch of the User with the given id.</p>
+     *
+     * <p>Each new value is checked against the constraints of its own field, and the uniqueness of the email is
+     * only checked if the patch changes it.</p>
+     *
+     * @param id The id of the User being patched
+     * @param patch The changes to be validated
+     * @throws ConstraintViolationException If Bean Validation errors exist
+     * @throws ValidationException If another user already has the new email
+     */
+    void validatePatch(Long id, MergePatch patch) throws ConstraintViolationException, ValidationException {
+        Set<ConstraintViolation<User>> violations = new HashSet<>();
+        for (Map.Entry<String, Object> value : patch.getValues().entrySet()) {
+            violations.addAll(validator.validateValue(User.class, value.getKey(), value.getValue()));
+        }
+
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations));
+        }
+
+        if (UniquenessMode.checkWithQuery() && patch.changes("email")
+                && emailAlreadyExists(patch.get("email"), id)) {
             throw new UniqueEmailException("Unique Email Violation");
         }
     }
@@ -55,28 +91,23 @@ public class UserValidator {
      * <p>Checks if a user with the same email address is already registered. This is the only way to easily capture the
      * "@UniqueConstraint(columnNames = "email")" constraint from the User class.</p>
      * 
+     * <p>The query is skipped if the {@link UniqueKeyFilters} rule the email out.</p>
+     *
      * @param email The email to check is unique
      * @param id The user id to check the email against if it was found
      * @return boolean which represents whether the email was found, and if so if it belongs to the user with id
      */
     boolean emailAlreadyExists(String email, Long id) {
-    	User user = null;
-    	User userWithID = null;
-        try {
-            user = crud.findByEmail(email);
-        } catch (NoResultException e) {
-            // ignore
+        // Almost every new email has never been used, which the filter can tell without a query.
+        if (!uniqueKeys.mightContain(UniqueKeyFilters.Key.USER_EMAIL, email)) {
+            return false;
         }
 
-        if (user != null && id != null) {
-            try {
-            	userWithID = crud.findById(id);
-                if (userWithID != null && userWithID.getEmail().equals(email)) {
-                	user = null;
-                }
-            } catch (NoResultException e) {
-                // ignore
-            }
+        User user = crud.findByEmail(email).orElse(null);
+
+        // An update may keep its own email, which is not a conflict.
+        if (user != null && id != null && user.getId().equals(id)) {
+            user = null;
         }
         return user != null;
     }
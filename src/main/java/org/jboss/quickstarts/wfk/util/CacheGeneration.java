@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import com.google.common.cache.Cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Counts the invalidations of a cache, so that a value read before an invalidation is never stored after it.</p>
+ *
+ * <p>A caller reads the generation before loading a value, and stores the value with
+ * {@link #putIfCurrent(Cache, Object, Object, long)}, which only keeps it if no invalidation has run since.</p>
+ *
+ * @see ResponseCache
+ * @see MissCache
+ */
+final class CacheGeneration {
+
+    // Incremented on every invalidation
+    private final AtomicLong current = new AtomicLong();
+
+    /**
+     * @return The current generation, to be read before the value to be cached is loaded
+     */
+    long get() {
+        return current.get();
+    }
+
+    /**
+     * <p>Starts a new generation, to be called before the invalidated entries are dropped.</p>
+     */
+    void advance() {
+        current.incrementAndGet();
+    }
+
+    /**
+     * <p>Stores a value, unless the cache has been invalidated since the given generation.</p>
+     *
+     * @param cache The cache to store the value in
+     * @param key The key of the value
+     * @param value The value loaded
+     * @param generation The generation read before the value was loaded
+     * @return true if the value was stored
+     */
+    <K, V> boolean putIfCurrent(Cache<K, V> cache, K key, V value, long generation) {
+        if (current.get() != generation) {
+            return false;
+        }
+        cache.put(key, value);
+        // An invalidation may have run between the check and the put, and missed the new entry.
+        if (current.get() != generation) {
+            cache.invalidate(key);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import java.util.Collections;
+
+/**
+ * <p>Maps the <code>@Version</code> of an entity to and from HTTP entity tags.</p>
+ *
+ * <p>Single resource GETs return the version as a strong ETag. Clients send it back in an <code>If-Match</code> header
+ * when they update or delete the resource, and the write only succeeds if nobody else has changed it in between.</p>
+ *
+ * <p>Example: <pre>PUT api/restaurants/101</pre> with the header <pre>If-Match: "3"</pre></p>
+ */
+public final class ETags {
+
+    private ETags() {
+    }
+
+    /**
+     * @param version The version of the entity
+     * @return The entity tag for the version, or null if the entity has no version yet
+     */
+    public static EntityTag of(Long version) {
+        return version == null ? null : new EntityTag(version.toString());
+    }
+
+    /**
+     * <p>Reads the version a client expects to be replacing from an <code>If-Match</code> header.</p>
+     *
+     * @param ifMatch The value of the If-Match header, may be null
+     * @return The expected version, or null if the header is missing or <code>*</code>
+     * @throws RestServiceException with status 412 if the header holds a tag which cannot be a version, as that can
+     * never match
+     */
+    public static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().isEmpty() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+
+        String tag = ifMatch.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            tag = tag.substring(1, tag.length() - 1);
+        }
+        try {
+            return Long.valueOf(tag);
+        } catch (NumberFormatException e) {
+            throw new RestServiceException("Precondition Failed",
+                    Collections.singletonMap("If-Match", ifMatch + " does not match the current version"),
+                    Response.Status.PRECONDITION_FAILED);
+        }
+    }
+}
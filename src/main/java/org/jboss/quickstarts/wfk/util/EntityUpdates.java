@@ -0,0 +1,314 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import javax.persistence.EntityManager;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Writes the state of a detached entity with a single targeted UPDATE, instead of
+ * {@link EntityManager#merge(Object) merge(Object)} which first SELECTs the row to copy the state onto, and deletes
+ * entities by id without loading them.</p>
+ *
+ * <p>Every basic and embedded attribute except the id and the version is written. Associations are left untouched,
+ * as they are not part of the JSON representation the entity was read from. The version is checked and incremented
+ * in the same statement, so concurrent writers are detected without holding any lock.</p>
+ *
+ * <p>Rows of {@link SoftDeletable} entities which have been tombstoned are treated as if they did not exist.</p>
+ */
+public final class EntityUpdates {
+
+    /**
+     * Prefixes the id of a tombstoned row to give the value of its released unique key, which can be no valid email or
+     * phone number.
+     */
+    private static final String RELEASED_PREFIX = "deleted:";
+
+    private EntityUpdates() {
+    }
+
+    /**
+     * <p>Overwrites the row of the given entity with its current state.</p>
+     *
+     * <p>If the entity holds a version, the row is only overwritten if it is still at that version, otherwise the
+     * update is unconditional. Either way the version of the row is incremented, and the new version is set on the
+     * entity, so that it can be handed back to the client. After an unconditional update the new version is read back
+     * from the row, which the UPDATE keeps locked until the transaction ends.</p>
+     *
+     * <p>The UPDATE bypasses the persistence context, so no managed instance of the entity should be relied on
+     * afterwards within the same transaction.</p>
+     *
+     * @param em The EntityManager to update with
+     * @param type The entity class
+     * @param id The id of the row to be overwritten
+     * @param entity The entity holding the new state
+     * @return The number of rows updated, 0 if there is no row with the id
+     * @throws OptimisticLockException If the row exists but is no longer at the version held by the entity
+     */
+    public static <T> int update(EntityManager em, Class<T> type, Object id, T entity) {
+        EntityType<T> entityType = em.getMetamodel().entity(type);
+
+        Map<String, Object> values = new LinkedHashMap<>();
+        SingularAttribute<? super T, ?> version = null;
+        Long expectedVersion = null;
+        for (SingularAttribute<? super T, ?> attribute : entityType.getSingularAttributes()) {
+            if (attribute.isVersion()) {
+                version = attribute;
+                expectedVersion = (Long) read(attribute.getJavaMember(), entity);
+            } else if (!attribute.isId() && !attribute.isAssociation() && !isTombstone(type, attribute.getName())) {
+                values.put(attribute.getName(), read(attribute.getJavaMember(), entity));
+            }
+        }
+
+        int updated = update(em, type, id, expectedVersion, values);
+        if (updated > 0 && version != null) {
+            write(version.getJavaMember(), entity,
+                    expectedVersion != null ? expectedVersion + 1 : currentVersion(em, entityType, version, id));
+        }
+        return updated;
+    }
+
+    /**
+     * <p>Sets the given attributes of the row with the given id in one UPDATE statement, incrementing its version.</p>
+     *
+     * @param em The EntityManager to update with
+     * @param type The entity class
+     * @param id The id of the row to be updated
+     * @param expectedVersion The version the row must still be at, or null to update it whatever its version
+     * @param values Entity attribute names mapped to their new values
+     * @return The number of rows updated, 0 if there is no row with the id
+     * @throws OptimisticLockException If the row exists but is no longer at the expected version
+     */
+    public static <T> int update(EntityManager em, Class<T> type, Object id, Long expectedVersion,
+                                 Map<String, Object> values) {
+        EntityType<T> entityType = em.getMetamodel().entity(type);
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaUpdate<T> update = cb.createCriteriaUpdate(type);
+        Root<T> root = update.from(type);
+
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            update.set(root.<Object>get(value.getKey()), value.getValue());
+        }
+
+        return execute(em, entityType, update, root, id, expectedVersion);
+    }
+
+    /**
+     * <p>Marks the row of a {@link SoftDeletable} entity with the given id as deleted in one UPDATE statement,
+     * incrementing its version.</p>
+     *
+     * <p>Nothing depending on the row is touched, so the statement only ever locks the one row. From then on the row
+     * is treated as missing, until it is removed for good.</p>
+     *
+     * @param em The EntityManager to update with
+     * @param type The entity class
+     * @param id The id of the row to be tombstoned
+     * @param expectedVersion The version the row must still be at, or null to tombstone it whatever its version
+     * @return The number of rows tombstoned, 0 if there is no live row with the id
+     * @throws OptimisticLockException If the row exists but is no longer at the expected version
+     */
+    public static <T extends SoftDeletable> int tombstone(EntityManager em, Class<T> type, Object id,
+                                                          Long expectedVersion) {
+        return tombstone(em, type, id, expectedVersion, null, null);
+    }
+
+    /**
+     * <p>Marks the row of a {@link SoftDeletable} entity with the given id as deleted, like
+     * {@link #tombstone(EntityManager, Class, Object, Long)}, and releases its value of a unique key in the same
+     * statement.</p>
+     *
+     * <p>The value is moved to another attribute, and the unique key is set to a value derived from the id which no
+     * live row can hold. A new row can therefore take the value straight away, instead of only once the tombstone has
+     * been purged.</p>
+     *
+     * @param em The EntityManager to update with
+     * @param type The entity class
+     * @param id The id of the row to be tombstoned
+     * @param expectedVersion The version the row must still be at, or null to tombstone it whatever its version
+     * @param uniqueKey The name of the <code>String</code> attribute whose value is released, or null for none
+     * @param releasedKey The name of the <code>String</code> attribute the released value is kept in
+     * @return The number of rows tombstoned, 0 if there is no live row with the id
+     * @throws OptimisticLockException If the row exists but is no longer at the expected version
+     */
+    public static <T extends SoftDeletable> int tombstone(EntityManager em, Class<T> type, Object id,
+                                                          Long expectedVersion, String uniqueKey,
+                                                          String releasedKey) {
+        EntityType<T> entityType = em.getMetamodel().entity(type);
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaUpdate<T> update = cb.createCriteriaUpdate(type);
+        Root<T> root = update.from(type);
+
+        update.set(root.<Boolean>get(SoftDeletable.DELETED), true);
+        update.set(root.<Date>get(SoftDeletable.DELETED_AT), new Date());
+        if (uniqueKey != null) {
+            update.set(root.<String>get(releasedKey), root.<String>get(uniqueKey));
+            update.set(root.<String>get(uniqueKey), RELEASED_PREFIX + id);
+        }
+
+        return execute(em, entityType, update, root, id, expectedVersion);
+    }
+
+    private static <T> int execute(EntityManager em, EntityType<T> entityType, CriteriaUpdate<T> update, Root<T> root,
+                                   Object id, Long expectedVersion) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        Predicate where = live(cb, entityType, root, cb.equal(root.get(idName(entityType)), id));
+
+        String versionName = versionName(entityType);
+        if (versionName != null) {
+            Path<Long> version = root.get(versionName);
+            update.set(version, cb.sum(version, 1L));
+            if (expectedVersion != null) {
+                where = cb.and(where, cb.equal(version, expectedVersion));
+            }
+        }
+        update.where(where);
+
+        int updated = em.createQuery(update).executeUpdate();
+        if (updated == 0 && expectedVersion != null && versionName != null && exists(em, entityType, id)) {
+            throw new OptimisticLockException(entityType.getJavaType().getSimpleName() + " " + id
+                    + " is no longer at version " + expectedVersion);
+        }
+        return updated;
+    }
+
+    /**
+     * <p>Deletes the row with the given id in one DELETE statement, without loading the entity first.</p>
+     *
+     * <p>Cascades and orphan removal are not applied, so dependent rows must be removed beforehand.</p>
+     *
+     * @param em The EntityManager to delete with
+     * @param type The entity class
+     * @param id The id of the row to be deleted
+     * @param expectedVersion The version the row must still be at, or null to delete it whatever its version
+     * @return The number of rows deleted, 0 if there is no row with the id
+     * @throws OptimisticLockException If the row exists but is no longer at the expected version
+     */
+    public static <T> int delete(EntityManager em, Class<T> type, Object id, Long expectedVersion) {
+        EntityType<T> entityType = em.getMetamodel().entity(type);
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaDelete<T> delete = cb.createCriteriaDelete(type);
+        Root<T> root = delete.from(type);
+
+        Predicate where = cb.equal(root.get(idName(entityType)), id);
+
+        String versionName = versionName(entityType);
+        if (versionName != null && expectedVersion != null) {
+            where = cb.and(where, cb.equal(root.get(versionName), expectedVersion));
+        }
+        delete.where(where);
+
+        int deleted = em.createQuery(delete).executeUpdate();
+        if (deleted == 0 && expectedVersion != null && versionName != null && exists(em, entityType, id)) {
+            throw new OptimisticLockException(type.getSimpleName() + " " + id + " is no longer at version "
+                    + expectedVersion);
+        }
+        return deleted;
+    }
+
+    private static <T> Long currentVersion(EntityManager em, EntityType<T> entityType,
+                                           SingularAttribute<? super T, ?> version, Object id) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<T> root = query.from(entityType);
+        query.select(root.<Long>get(version.getName())).where(cb.equal(root.get(idName(entityType)), id));
+        return em.createQuery(query).getSingleResult();
+    }
+
+    private static <T> boolean exists(EntityManager em, EntityType<T> entityType, Object id) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Long> count = cb.createQuery(Long.class);
+        Root<T> root = count.from(entityType);
+        count.select(cb.count(root)).where(live(cb, entityType, root, cb.equal(root.get(idName(entityType)), id)));
+        return em.createQuery(count).getSingleResult() > 0;
+    }
+
+    /**
+     * <p>Restricts the given predicate to rows which have not been tombstoned, if the entity can be.</p>
+     */
+    private static Predicate live(CriteriaBuilder cb, EntityType<?> entityType, Root<?> root, Predicate predicate) {
+        if (!SoftDeletable.class.isAssignableFrom(entityType.getJavaType())) {
+            return predicate;
+        }
+        return cb.and(predicate, cb.isFalse(root.<Boolean>get(SoftDeletable.DELETED)));
+    }
+
+    private static boolean isTombstone(Class<?> type, String attribute) {
+        return SoftDeletable.class.isAssignableFrom(type)
+                && (attribute.equals(SoftDeletable.DELETED) || attribute.equals(SoftDeletable.DELETED_AT));
+    }
+
+    private static String idName(EntityType<?> entityType) {
+        return entityType.getId(entityType.getIdType().getJavaType()).getName();
+    }
+
+    private static String versionName(EntityType<?> entityType) {
+        for (SingularAttribute<?, ?> attribute : entityType.getSingularAttributes()) {
+            if (attribute.isVersion()) {
+                return attribute.getName();
+            }
+        }
+        return null;
+    }
+
+    private static void write(Member member, Object entity, Object value) {
+        try {
+            if (member instanceof Field) {
+                Field field = (Field) member;
+                field.setAccessible(true);
+                field.set(entity, value);
+                return;
+            }
+            String property = member.getName().replaceFirst("^(get|is)", "");
+            Method setter = member.getDeclaringClass().getDeclaredMethod("set" + property,
+                    ((Method) member).getReturnType());
+            setter.setAccessible(true);
+            setter.invoke(entity, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot write " + member.getName() + " of " + entity.getClass().getName(), e);
+        }
+    }
+
+    private static Object read(Member member, Object entity) {
+        try {
+            if (member instanceof Field) {
+                Field field = (Field) member;
+                field.setAccessible(true);
+                return field.get(entity);
+            }
+            Method getter = (Method) member;
+            getter.setAccessible(true);
+            return getter.invoke(entity);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot read " + member.getName() + " of " + entity.getClass().getName(), e);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>The set of fields a client asked for with the <code>?fields=</code> query parameter.</p>
+ *
+ * <p>The selection is pushed down into the query: only the columns behind the requested fields are selected, and each
+ * row is returned as a map holding just those fields, so nothing else is read from the database or written to JSON.</p>
+ *
+ * <p>Example: <pre>GET api/contacts?fields=id,firstName,phoneNumber</pre></p>
+ */
+public final class FieldSelection {
+
+    // JSON field name -> entity attribute name, in the order they were requested
+    private final Map<String, String> fields;
+
+    private FieldSelection(Map<String, String> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * <p>Parses the value of a <code>fields</code> query parameter.</p>
+     *
+     * @param fields The comma separated list of fields requested, may be null
+     * @param available The fields which may be selected, mapped to the entity attribute backing each one
+     * @return The FieldSelection, or null if no fields were requested and the whole resource should be returned
+     * @throws RestServiceException with status 400 if an unknown field is requested
+     */
+    public static FieldSelection parse(String fields, Map<String, String> available) {
+        if (fields == null || fields.trim().isEmpty()) {
+            return null;
+        }
+
+        Map<String, String> selected = new LinkedHashMap<>();
+        Map<String, String> reasons = new HashMap<>();
+
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            String attribute = available.get(name);
+            if (attribute == null) {
+                reasons.put(name, "Unknown field, please use any of " + available.keySet());
+            } else {
+                selected.put(name, attribute);
+            }
+        }
+
+        if (!reasons.isEmpty()) {
+            throw new RestServiceException("Bad Request", reasons, Response.Status.BAD_REQUEST);
+        }
+        return selected.isEmpty() ? null : new FieldSelection(selected);
+    }
+
+    /**
+     * <p>Builds an unmodifiable map of available fields from alternating JSON field and entity attribute names.</p>
+     *
+     * @param namesAndAttributes e.g. <code>"id", "id", "post_code", "postCode"</code>
+     * @return The available fields, in declaration order
+     */
+    public static Map<String, String> available(String... namesAndAttributes) {
+        Map<String, String> available = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndAttributes.length; i += 2) {
+            available.put(namesAndAttributes[i], namesAndAttributes[i + 1]);
+        }
+        return Collections.unmodifiableMap(available);
+    }
+
+    /**
+     * <p>Selects the requested fields of every entity of the given type matching all the filters.</p>
+     *
+     * <p>Tombstoned {@link SoftDeletable} entities are never selected.</p>
+     *
+     * @param em The EntityManager to query with
+     * @param type The entity class
+     * @param filters Entity attribute names mapped to the value they must be equal to
+     * @param orderBy Entity attribute names to sort ascending by
+     * @return One map per matching entity, holding only the requested fields
+     */
+    public <T> List<Map<String, Object>> select(EntityManager em, Class<T> type, Map<String, Object> filters,
+                                                String... orderBy) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Tuple> criteria = cb.createTupleQuery();
+        Root<T> root = criteria.from(type);
+
+        List<Selection<?>> selections = new ArrayList<>(fields.size());
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            selections.add(root.get(field.getValue()).alias(field.getKey()));
+        }
+        criteria.multiselect(selections);
+
+        List<Predicate> predicates = new ArrayList<>(filters.size());
+        for (Map.Entry<String, Object> filter : filters.entrySet()) {
+            predicates.add(cb.equal(root.get(filter.getKey()), filter.getValue()));
+        }
+        if (SoftDeletable.class.isAssignableFrom(type)) {
+            predicates.add(cb.isFalse(root.<Boolean>get(SoftDeletable.DELETED)));
+        }
+        criteria.where(predicates.toArray(new Predicate[predicates.size()]));
+
+        List<Order> orders = new ArrayList<>(orderBy.length);
+        for (String attribute : orderBy) {
+            orders.add(cb.asc(root.get(attribute)));
+        }
+        criteria.orderBy(orders);
+
+        List<Tuple> rows = em.createQuery(criteria).getResultList();
+        List<Map<String, Object>> result = new ArrayList<>(rows.size());
+        for (Tuple row : rows) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (String field : fields.keySet()) {
+                values.put(field, row.get(field));
+            }
+            result.add(values);
+        }
+        return result;
+    }
+
+    /**
+     * <p>Selects the requested fields of every entity the given spec selects for the values, in the order of the
+     * spec. Unlike the selection by filters, no criteria query is built: the JPQL of the spec is reused, and is the
+     * same string for every request of the same shape and fields, which Hibernate has a compiled plan cached for.</p>
+     *
+     * @param em The EntityManager to query with
+     * @param spec The query selecting the entities
+     * @param values One value per condition of the spec, see {@link QuerySpec#bind(EntityManager, Object...)}
+     * @return One map per matching entity, holding only the requested fields
+     */
+    public <T> List<Map<String, Object>> select(EntityManager em, QuerySpec<T> spec, Object... values) {
+        List<?> rows = spec.project(em, new ArrayList<>(fields.values()), values).getResultList();
+        List<Map<String, Object>> result = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            Object[] columns = fields.size() == 1 ? new Object[] {row} : (Object[]) row;
+            Map<String, Object> selected = new LinkedHashMap<>();
+            int i = 0;
+            for (String field : fields.keySet()) {
+                selected.put(field, columns[i++]);
+            }
+            result.add(selected);
+        }
+        return result;
+    }
+}
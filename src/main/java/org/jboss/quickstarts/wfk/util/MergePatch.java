@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.persistence.EntityManager;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.Field;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A partial update received as a JSON Merge Patch (RFC 7386).</p>
+ *
+ * <p>Only the fields present in the patch are changed. A field set to null is cleared, which bean validation rejects
+ * for every required field. The JSON field names are resolved to entity attributes, and each value converted to the
+ * type of its attribute, so that just the changed columns can be validated and written with a targeted UPDATE.</p>
+ *
+ * <p>Example: <pre>PATCH api/restaurants/1</pre> with the body <pre>{"name":"Bistro"}</pre></p>
+ *
+ * @see PATCH
+ */
+public final class MergePatch {
+
+    /** The media type of a JSON Merge Patch document. */
+    public static final String MEDIA_TYPE = "application/merge-patch+json";
+
+    // Converts JSON values to attribute types, reading dates the same way as JacksonConfig.
+    private static final ObjectMapper MAPPER = new ObjectMapper().setDateFormat(new SimpleDateFormat("yyyy-MM-dd"));
+
+    // Entity attribute name -> new value, converted to the attribute type
+    private final Map<String, Object> values;
+
+    private MergePatch(Map<String, Object> values) {
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * <p>Resolves a merge patch document against the fields of an entity.</p>
+     *
+     * @param body The patch document
+     * @param entityType The entity class being patched
+     * @param available The fields of the entity, mapped to the attribute backing each one
+     * @param readOnly The fields which may be read but not patched
+     * @return The MergePatch
+     * @throws RestServiceException with status 400 if the patch is empty, names an unknown or read only field, or holds
+     * a value of the wrong type
+     */
+    public static MergePatch parse(Map<String, Object> body, Class<?> entityType, Map<String, String> available,
+                                   String... readOnly) {
+        if (body == null || body.isEmpty()) {
+            throw new RestServiceException("Bad Request", Collections.singletonMap("patch", "Please supply at least one field"),
+                    Response.Status.BAD_REQUEST);
+        }
+
+        List<String> fixed = Arrays.asList(readOnly);
+        Map<String, Object> values = new LinkedHashMap<>();
+        Map<String, String> reasons = new HashMap<>();
+
+        for (Map.Entry<String, Object> entry : body.entrySet()) {
+            String attribute = available.get(entry.getKey());
+            if (attribute == null) {
+                reasons.put(entry.getKey(), "Unknown field");
+            } else if (fixed.contains(entry.getKey())) {
+                reasons.put(entry.getKey(), "This field cannot be changed");
+            } else {
+                try {
+                    values.put(attribute, convert(entry.getValue(), attributeType(entityType, attribute)));
+                } catch (IllegalArgumentException e) {
+                    reasons.put(entry.getKey(), "Invalid value");
+                }
+            }
+        }
+
+        if (!reasons.isEmpty()) {
+            throw new RestServiceException("Bad Request", reasons, Response.Status.BAD_REQUEST);
+        }
+        return new MergePatch(values);
+    }
+
+    /**
+     * @return Entity attribute names mapped to their new values, in the order they appeared in the patch
+     */
+    public Map<String, Object> getValues() {
+        return values;
+    }
+
+    /**
+     * @param attribute The entity attribute name
+     * @return true if the patch changes the attribute
+     */
+    public boolean changes(String attribute) {
+        return values.containsKey(attribute);
+    }
+
+    /**
+     * @param attribute The entity attribute name
+     * @return The new value of the attribute, or null if it is cleared or not changed
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(String attribute) {
+        return (V) values.get(attribute);
+    }
+
+    /**
+     * <p>Writes the patch to the entity with the given id in one UPDATE statement, which sets only the changed
+     * columns and increments the version.</p>
+     *
+     * <p>The UPDATE bypasses the persistence context, so no managed instance of the entity should be relied on
+     * afterwards within the same transaction.</p>
+     *
+     * @param em The EntityManager to update with
+     * @param type The entity class
+     * @param id The id of the entity to be patched
+     * @param expectedVersion The version the entity must still be at, or null to patch it whatever its version
+     * @return The number of rows updated, 0 if there is no entity with the id
+     * @throws javax.persistence.OptimisticLockException If the entity is no longer at the expected version
+     */
+    public <T> int apply(EntityManager em, Class<T> type, Long id, Long expectedVersion) {
+        return EntityUpdates.update(em, type, id, expectedVersion, values);
+    }
+
+    private static Object convert(Object value, Class<?> type) {
+        return value == null ? null : MAPPER.convertValue(value, type);
+    }
+
+    private static Class<?> attributeType(Class<?> entityType, String attribute) {
+        for (Class<?> type = entityType; type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(attribute);
+                return field.getType();
+            } catch (NoSuchFieldException e) {
+                // keep looking in the superclass
+            }
+        }
+        throw new IllegalStateException(entityType.getName() + " has no attribute " + attribute);
+    }
+}
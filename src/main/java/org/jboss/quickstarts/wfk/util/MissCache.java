@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * <p>Remembers for a short while which lookups found nothing, so that clients which keep asking for an unknown email or
+ * id, such as caller-ID integrations, are answered without a query.</p>
+ *
+ * <p>Misses are keyed by collection, lookup and value. Every write to a collection drops all of its misses once it has
+ * been committed, as a created or changed resource may now match any of them. A miss is only recorded if nothing was
+ * invalidated while the lookup ran, since the lookup may have read the collection before a create committed.</p>
+ *
+ * @see ResourceChanged
+ */
+@ApplicationScoped
+public class MissCache {
+
+    /** Upper bound on the number of misses held. */
+    private static final long MAX_MISSES = 10000;
+
+    /**
+     * Misses are forgotten after this long. The rows inserted by the SeedLoader fire no {@link ResourceChanged}, so an
+     * email or id looked up before seeding would otherwise stay unknown.
+     */
+    private static final long EXPIRE_SECONDS = 60;
+
+    private final Cache<String, Boolean> misses = CacheBuilder.newBuilder()
+            .maximumSize(MAX_MISSES)
+            .expireAfterWrite(EXPIRE_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    private final CacheGeneration generation = new CacheGeneration();
+
+    /**
+     * <p>Runs a lookup, unless the same lookup recently found nothing.</p>
+     *
+     * @param collection The collection looked up, e.g. <code>users</code>
+     * @param lookup The name of the lookup, e.g. <code>email</code>
+     * @param value The value looked up
+     * @param loader Runs the lookup, returning null if nothing was found
+     * @return The result of the lookup, or null if nothing was found now or recently
+     */
+    public <T> T lookup(String collection, String lookup, Object value, Supplier<T> loader) {
+        String key = collection + ":" + lookup + ":" + value;
+        if (misses.getIfPresent(key) != null) {
+            return null;
+        }
+
+        long generation = this.generation.get();
+        T found = loader.get();
+        if (found == null) {
+            this.generation.putIfCurrent(misses, key, Boolean.TRUE, generation);
+        }
+        return found;
+    }
+
+    /**
+     * <p>Drops the misses of a collection once a write to it has been committed.</p>
+     *
+     * @param change The resource written
+     */
+    public void invalidate(@Observes(during = TransactionPhase.AFTER_SUCCESS) ResourceChanged change) {
+        generation.advance();
+        String prefix = change.getCollection() + ":";
+        misses.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * <p>The outcome of fetching many resources by id in one request, marshaled into JSON by jackson.</p>
+ *
+ * <p>The resources found are returned in the order their ids were requested, and the ids which did not match anything
+ * are listed in <code>missing</code> rather than failing the whole request.</p>
+ *
+ * <p>Example: <pre>GET api/restaurants?ids=3,1,99</pre> returns
+ * <pre>{"results":[{"id":3,...},{"id":1,...}],"missing":[99]}</pre></p>
+ *
+ * @param <T> The type of the resources returned
+ */
+public final class MultiGetResult<T> {
+
+    /** Upper bound on the number of ids bound to a single <code>IN</code> list. */
+    public static final int CHUNK_SIZE = 500;
+
+    /** Upper bound on the number of ids a client may ask for at once. */
+    public static final int MAX_IDS = 1000;
+
+    private final List<T> results;
+    private final List<Long> missing;
+
+    private MultiGetResult(List<T> results, List<Long> missing) {
+        this.results = Collections.unmodifiableList(results);
+        this.missing = Collections.unmodifiableList(missing);
+    }
+
+    public List<T> getResults() {
+        return results;
+    }
+
+    public List<Long> getMissing() {
+        return missing;
+    }
+
+    /**
+     * <p>Replaces the resources found, for example with a richer view of each, keeping the missing ids.</p>
+     *
+     * @param mapping Converts the resources found, preserving their order
+     * @return A MultiGetResult holding the converted resources
+     */
+    public <R> MultiGetResult<R> map(Function<List<T>, List<R>> mapping) {
+        return new MultiGetResult<>(mapping.apply(results), missing);
+    }
+
+    /**
+     * <p>Parses the value of an <code>ids</code> query parameter, dropping repeated ids.</p>
+     *
+     * @param ids The comma separated list of ids requested, may be null
+     * @return The distinct ids in the order requested, or null if none were requested
+     * @throws RestServiceException with status 400 if an id is not a number or too many ids are requested
+     */
+    public static List<Long> parseIds(String ids) {
+        if (ids == null || ids.trim().isEmpty()) {
+            return null;
+        }
+
+        LinkedHashSet<Long> parsed = new LinkedHashSet<>();
+        for (String id : ids.split(",")) {
+            String value = id.trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            try {
+                parsed.add(Long.valueOf(value));
+            } catch (NumberFormatException e) {
+                throw new RestServiceException("Bad Request", Collections.singletonMap("ids", value + " is not a valid id"),
+                        Response.Status.BAD_REQUEST);
+            }
+        }
+        return parsed.isEmpty() ? null : checkSize(new ArrayList<>(parsed));
+    }
+
+    /**
+     * <p>Drops null and repeated ids from a list supplied in a request body.</p>
+     *
+     * @param ids The ids requested, may be null
+     * @return The distinct ids in the order requested
+     * @throws RestServiceException with status 400 if no ids or too many ids are requested
+     */
+    public static List<Long> distinctIds(List<Long> ids) {
+        LinkedHashSet<Long> distinct = new LinkedHashSet<>();
+        if (ids != null) {
+            for (Long id : ids) {
+                if (id != null) {
+                    distinct.add(id);
+                }
+            }
+        }
+        if (distinct.isEmpty()) {
+            throw new RestServiceException("Bad Request", Collections.singletonMap("ids", "Please supply at least one id"),
+                    Response.Status.BAD_REQUEST);
+        }
+        return checkSize(new ArrayList<>(distinct));
+    }
+
+    private static List<Long> checkSize(List<Long> ids) {
+        if (ids.size() > MAX_IDS) {
+            throw new RestServiceException("Bad Request",
+                    Collections.singletonMap("ids", "Please request no more than " + MAX_IDS + " ids at once"),
+                    Response.Status.BAD_REQUEST);
+        }
+        return ids;
+    }
+
+    /**
+     * <p>Loads the resources with the given ids, binding at most {@link #CHUNK_SIZE} ids to each query, and lines the
+     * results up with the ids requested.</p>
+     *
+     * @param ids The distinct ids requested
+     * @param query Runs one <code>IN</code> list query for a chunk of ids
+     * @param idOf Extracts the id of a resource returned by the query
+     * @return The resources found, in request order, and the ids not found
+     */
+    public static <T> MultiGetResult<T> load(List<Long> ids, Function<List<Long>, List<T>> query,
+                                             Function<T, Long> idOf) {
+        Map<Long, T> found = new HashMap<>(ids.size() * 2);
+        for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + CHUNK_SIZE, ids.size()));
+            for (T resource : query.apply(chunk)) {
+                found.put(idOf.apply(resource), resource);
+            }
+        }
+
+        List<T> results = new ArrayList<>(found.size());
+        List<Long> missing = new ArrayList<>();
+        for (Long id : ids) {
+            T resource = found.get(id);
+            if (resource == null) {
+                missing.add(id);
+            } else {
+                results.add(resource);
+            }
+        }
+        return new MultiGetResult<>(results, missing);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import java.util.logging.Logger;
+
+/**
+ * <p>Counts the JDBC statements run by each request, and warns when a request runs more than its budget, which is
+ * usually an N+1: a statement per row where one statement for all of them would do.</p>
+ *
+ * <p>The counts are recorded per endpoint in the {@link QueryMetrics}, and returned in the <code>X-Query-Count</code>
+ * and <code>X-Query-Time</code> (milliseconds) response headers. The headers are meant for development, so they are
+ * only added when turned on, as <code>mvn wildfly:run</code> does.</p>
+ *
+ * <p>System properties:
+ * <ul>
+ *     <li><code>quickstart.query.budget</code> - The statements a request may run before a warning is logged, 20 if
+ *     omitted</li>
+ *     <li><code>quickstart.query.headers</code> - Set to true to add the response headers, false if omitted</li>
+ * </ul></p>
+ *
+ * <p>Statements run while the body is written, after the response filters, are not counted.</p>
+ *
+ * @see QueryCounter
+ */
+@Provider
+public class QueryBudgetFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    public static final String QUERY_COUNT = "X-Query-Count";
+    public static final String QUERY_TIME = "X-Query-Time";
+
+    private static final int BUDGET = Integer.getInteger("quickstart.query.budget", 20);
+    private static final boolean HEADERS = Boolean.getBoolean("quickstart.query.headers");
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private QueryMetrics metrics;
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        QueryCounter.start();
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        QueryCounter.Tally tally = QueryCounter.stop();
+        // Requests answered before this filter ran, such as response cache hits, ran no statements.
+        if (tally == null) {
+            return;
+        }
+
+        String endpoint = endpoint(request);
+        boolean overBudget = tally.getCount() > BUDGET;
+        if (overBudget) {
+            log.warning("QueryBudgetFilter - " + endpoint + " (" + request.getUriInfo().getRequestUri() + ") ran "
+                    + tally.getCount() + " statements in " + tally.getMillis() + " ms, over the budget of " + BUDGET);
+        }
+        metrics.record(endpoint, tally, overBudget);
+
+        if (HEADERS) {
+            response.getHeaders().putSingle(QUERY_COUNT, tally.getCount());
+            response.getHeaders().putSingle(QUERY_TIME, tally.getMillis());
+        }
+    }
+
+    private String endpoint(ContainerRequestContext request) {
+        if (resourceInfo == null || resourceInfo.getResourceMethod() == null) {
+            return request.getMethod() + " " + request.getUriInfo().getPath();
+        }
+        return request.getMethod() + " " + resourceInfo.getResourceClass().getSimpleName() + "."
+                + resourceInfo.getResourceMethod().getName();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import javax.annotation.Priority;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+import java.util.Arrays;
+
+/**
+ * <p>Remembers which {@link QueryCaller} method the current thread is in, and with which arguments, so that a slow
+ * query can be logged along with the values it was run for.</p>
+ *
+ * <p>Describing the call is left until a query is actually slow, so an ordinary call only costs two thread local
+ * writes.</p>
+ */
+@QueryCaller
+@Interceptor
+@Priority(Interceptor.Priority.APPLICATION)
+public class QueryCallerInterceptor {
+
+    private static final ThreadLocal<InvocationContext> CURRENT = new ThreadLocal<>();
+
+    @AroundInvoke
+    public Object remember(InvocationContext invocation) throws Exception {
+        InvocationContext outer = CURRENT.get();
+        CURRENT.set(invocation);
+        try {
+            return invocation.proceed();
+        } finally {
+            if (outer == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(outer);
+            }
+        }
+    }
+
+    /**
+     * @return The innermost {@link QueryCaller} call of the current thread, e.g.
+     * <code>UserRepository.findByEmail([jane@mailinator.com])</code>, or null if there is none
+     */
+    static String current() {
+        InvocationContext invocation = CURRENT.get();
+        if (invocation == null) {
+            return null;
+        }
+        return invocation.getMethod().getDeclaringClass().getSimpleName() + "." + invocation.getMethod().getName()
+                + Arrays.deepToString(invocation.getParameters());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+/**
+ * <p>Counts the JDBC statements executed by the current thread, and the time spent in them, between {@link #start()}
+ * and {@link #stop()}.</p>
+ *
+ * <p>The statements are reported by the {@link QueryCountingListener} of every Hibernate session. The
+ * {@link QueryBudgetFilter} counts them per HTTP request; tests can do the same around a call, to check that it runs a
+ * fixed number of statements however many rows it returns:
+ * <pre>
+ * QueryCounter.start();
+ * reviewRestService.retrieveAllReviews(null, null);
+ * assertEquals(1, QueryCounter.stop().getCount());
+ * </pre></p>
+ */
+public final class QueryCounter {
+
+    private static final ThreadLocal<Tally> CURRENT = new ThreadLocal<>();
+
+    private QueryCounter() {
+    }
+
+    /**
+     * <p>Starts counting the statements of the current thread from zero.</p>
+     */
+    public static void start() {
+        CURRENT.set(new Tally());
+    }
+
+    /**
+     * <p>Stops counting the statements of the current thread.</p>
+     *
+     * @return The statements counted since {@link #start()}, or null if counting was not started
+     */
+    public static Tally stop() {
+        Tally tally = CURRENT.get();
+        CURRENT.remove();
+        return tally;
+    }
+
+    /**
+     * @param nanos The time the statement took to execute
+     */
+    static void record(long nanos) {
+        Tally tally = CURRENT.get();
+        if (tally != null) {
+            tally.count++;
+            tally.nanos += nanos;
+        }
+    }
+
+    /**
+     * <p>The number of statements executed, and the time they took.</p>
+     */
+    public static final class Tally {
+
+        private int count;
+        private long nanos;
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getMillis() {
+            return nanos / 1_000_000;
+        }
+    }
+}
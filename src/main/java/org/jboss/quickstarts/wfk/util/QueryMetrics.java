@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Accumulates the JDBC statements run by each endpoint since startup, as counted by the
+ * {@link QueryBudgetFilter}.</p>
+ */
+@ApplicationScoped
+public class QueryMetrics {
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * @param endpoint The endpoint which handled the request, e.g. <code>GET ReviewRestService.retrieveAllReviews</code>
+     * @param tally The statements the request ran
+     * @param overBudget true if the request ran more statements than allowed
+     */
+    public void record(String endpoint, QueryCounter.Tally tally, boolean overBudget) {
+        endpoints.computeIfAbsent(endpoint, name -> new Endpoint()).record(tally, overBudget);
+    }
+
+    /**
+     * @return The statistics of every endpoint which has handled a request, sorted by endpoint
+     */
+    public Map<String, Endpoint> getEndpoints() {
+        return new TreeMap<>(endpoints);
+    }
+
+    /**
+     * <p>The statements run by the requests to one endpoint.</p>
+     */
+    public static final class Endpoint {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder statements = new LongAdder();
+        private final LongAdder millis = new LongAdder();
+        private final LongAccumulator maxStatements = new LongAccumulator(Math::max, 0);
+        private final LongAdder overBudget = new LongAdder();
+
+        private void record(QueryCounter.Tally tally, boolean over) {
+            requests.increment();
+            statements.add(tally.getCount());
+            millis.add(tally.getMillis());
+            maxStatements.accumulate(tally.getCount());
+            if (over) {
+                overBudget.increment();
+            }
+        }
+
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        public long getStatements() {
+            return statements.sum();
+        }
+
+        public long getMillis() {
+            return millis.sum();
+        }
+
+        public long getMaxStatements() {
+            return maxStatements.get();
+        }
+
+        public long getOverBudget() {
+            return overBudget.sum();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.SingularAttribute;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>A typed query over one entity, declared once with the attributes of the JPA static metamodel, for lookups which
+ * combine optional filters.</p>
+ *
+ * <p>Each combination of filters present, the shape of a request, is rendered to JPQL the first time it is run and
+ * kept. Running it again only binds the values, so Hibernate finds the compiled plan in its query plan cache, where a
+ * criteria query would have to be built and rendered again on every call.</p>
+ *
+ * <p>Tombstoned {@link SoftDeletable} entities are never selected.</p>
+ *
+ * <p>Example:
+ * <pre>
+ * QuerySpec&lt;Contact&gt; spec = QuerySpec.from(Contact.class)
+ *         .where(Contact_.lastNameKey, QuerySpec.Operator.LIKE)
+ *         .orderBy(Contact_.lastNameKey)
+ *         .build();
+ * List&lt;Contact&gt; contacts = spec.bind(em, QuerySpec.startsWith("smi")).getResultList();
+ * </pre></p>
+ *
+ * <p>The same spec can also select only some attributes of the entities, see {@link #project} and
+ * {@link FieldSelection}.</p>
+ *
+ * @param <T> The entity class
+ */
+public final class QuerySpec<T> {
+
+    /** The character escaping the wildcards of {@link Operator#LIKE} patterns. */
+    public static final char ESCAPE = '\\';
+
+    /** Each filter doubles the number of shapes, so they are kept to a number whose JPQL can all be held. */
+    private static final int MAX_CONDITIONS = 8;
+
+    /**
+     * <p>How an attribute is compared with the value bound to it.</p>
+     */
+    public enum Operator {
+        EQUAL("="),
+        /** The value is a LIKE pattern escaped with {@link #ESCAPE}, see {@link #startsWith(String)}. */
+        LIKE("LIKE"),
+        GREATER_THAN(">"),
+        AT_LEAST(">="),
+        LESS_THAN("<"),
+        AT_MOST("<=");
+
+        private final String jpql;
+
+        Operator(String jpql) {
+            this.jpql = jpql;
+        }
+    }
+
+    private final Class<T> type;
+    private final String entityName;
+    private final List<SingularAttribute<? super T, ?>> attributes;
+    private final List<Operator> operators;
+    private final List<SingularAttribute<? super T, ?>> orderBy;
+
+    // Shape, a bit set of the conditions present -> rendered JPQL from the FROM clause on
+    private final AtomicReferenceArray<String> jpql;
+
+    private QuerySpec(Builder<T> builder) {
+        this.type = builder.type;
+        Entity entity = type.getAnnotation(Entity.class);
+        this.entityName = entity == null || entity.name().isEmpty() ? type.getSimpleName() : entity.name();
+        this.attributes = Collections.unmodifiableList(new ArrayList<>(builder.attributes));
+        this.operators = Collections.unmodifiableList(new ArrayList<>(builder.operators));
+        this.orderBy = Collections.unmodifiableList(new ArrayList<>(builder.orderBy));
+        this.jpql = new AtomicReferenceArray<>(1 << attributes.size());
+    }
+
+    /**
+     * @param type The entity class to select
+     * @return A builder for a query selecting the entities of the class
+     */
+    public static <T> Builder<T> from(Class<T> type) {
+        return new Builder<>(type);
+    }
+
+    /**
+     * <p>Creates the query of the shape given by the values, with the values bound to it.</p>
+     *
+     * @param em The EntityManager to query with
+     * @param values One value per condition, in the order they were declared, or null to leave the condition out
+     * @return The query, ready to run
+     * @throws IllegalArgumentException If there is not one value per condition
+     */
+    public TypedQuery<T> bind(EntityManager em, Object... values) {
+        return bindValues(em.createQuery("SELECT e" + jpql(shape(values)), type), values);
+    }
+
+    /**
+     * <p>Creates the query of the shape given by the values, with the values bound to it, which selects only the given
+     * attributes of the entities.</p>
+     *
+     * @param em The EntityManager to query with
+     * @param selected The names of the entity attributes to select, at least one
+     * @param values One value per condition, in the order they were declared, or null to leave the condition out
+     * @return The query, ready to run. Each row is the value of the attribute if only one is selected, otherwise an
+     * array of the values in the order of the attributes.
+     * @throws IllegalArgumentException If there is not one value per condition
+     */
+    public Query project(EntityManager em, List<String> selected, Object... values) {
+        StringBuilder select = new StringBuilder("SELECT ");
+        for (int i = 0; i < selected.size(); i++) {
+            select.append(i == 0 ? "e." : ", e.").append(selected.get(i));
+        }
+        return bindValues(em.createQuery(select.append(jpql(shape(values))).toString()), values);
+    }
+
+    /**
+     * @param prefix The start of the values to match, must not be null
+     * @return A {@link Operator#LIKE} pattern matching every value starting with the prefix
+     */
+    public static String startsWith(String prefix) {
+        StringBuilder pattern = new StringBuilder(prefix.length() + 1);
+        for (char c : prefix.toCharArray()) {
+            if (c == '%' || c == '_' || c == ESCAPE) {
+                pattern.append(ESCAPE);
+            }
+            pattern.append(c);
+        }
+        return pattern.append('%').toString();
+    }
+
+    private int shape(Object[] values) {
+        if (values.length != attributes.size()) {
+            throw new IllegalArgumentException("Expected " + attributes.size() + " values but got " + values.length);
+        }
+
+        int shape = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                shape |= 1 << i;
+            }
+        }
+        return shape;
+    }
+
+    private static <Q extends Query> Q bindValues(Q query, Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                query.setParameter(parameter(i), values[i]);
+            }
+        }
+        return query;
+    }
+
+    private String jpql(int shape) {
+        String rendered = jpql.get(shape);
+        if (rendered == null) {
+            // Rendering the same shape twice at once is harmless, both threads produce the same string.
+            rendered = render(shape);
+            jpql.set(shape, rendered);
+        }
+        return rendered;
+    }
+
+    private String render(int shape) {
+        StringBuilder query = new StringBuilder(" FROM ").append(entityName).append(" e");
+
+        List<String> conditions = new ArrayList<>();
+        for (int i = 0; i < attributes.size(); i++) {
+            if ((shape & (1 << i)) != 0) {
+                Operator operator = operators.get(i);
+                String condition = "e." + attributes.get(i).getName() + " " + operator.jpql + " :" + parameter(i);
+                conditions.add(operator == Operator.LIKE ? condition + " ESCAPE '" + ESCAPE + "'" : condition);
+            }
+        }
+        if (SoftDeletable.class.isAssignableFrom(type)) {
+            conditions.add("e." + SoftDeletable.DELETED + " = false");
+        }
+        if (!conditions.isEmpty()) {
+            query.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+
+        for (int i = 0; i < orderBy.size(); i++) {
+            query.append(i == 0 ? " ORDER BY " : ", ").append("e.").append(orderBy.get(i).getName()).append(" ASC");
+        }
+        return query.toString();
+    }
+
+    private static String parameter(int index) {
+        return "p" + index;
+    }
+
+    /**
+     * <p>Declares the conditions and the order of a {@link QuerySpec}.</p>
+     *
+     * @param <T> The entity class
+     */
+    public static final class Builder<T> {
+
+        private final Class<T> type;
+        private final List<SingularAttribute<? super T, ?>> attributes = new ArrayList<>();
+        private final List<Operator> operators = new ArrayList<>();
+        private final List<SingularAttribute<? super T, ?>> orderBy = new ArrayList<>();
+
+        private Builder(Class<T> type) {
+            this.type = type;
+        }
+
+        /**
+         * @param attribute The attribute to compare, from the static metamodel
+         * @param operator How the attribute is compared with the value bound to it
+         * @return This builder
+         */
+        public Builder<T> where(SingularAttribute<? super T, ?> attribute, Operator operator) {
+            if (attributes.size() == MAX_CONDITIONS) {
+                throw new IllegalStateException("A QuerySpec holds at most " + MAX_CONDITIONS + " conditions");
+            }
+            attributes.add(checked(attribute));
+            operators.add(operator);
+            return this;
+        }
+
+        /**
+         * @param attributes The attributes to sort ascending by, from the static metamodel
+         * @return This builder
+         */
+        @SafeVarargs
+        public final Builder<T> orderBy(SingularAttribute<? super T, ?>... attributes) {
+            for (SingularAttribute<? super T, ?> attribute : attributes) {
+                orderBy.add(checked(attribute));
+            }
+            return this;
+        }
+
+        public QuerySpec<T> build() {
+            return new QuerySpec<>(this);
+        }
+
+        private SingularAttribute<? super T, ?> checked(SingularAttribute<? super T, ?> attribute) {
+            if (attribute == null) {
+                throw new IllegalStateException("The static metamodel of " + type.getSimpleName()
+                        + " has not been initialized by the persistence unit yet");
+            }
+            return attribute;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.internal.ConcurrentStatisticsImpl;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Hibernate's statistics, which also keep the latest execution times of every query, to tell its p99 latency, and
+ * write each query slower than <code>quickstart.query.slow.millis</code> (200 by default) to the slow query log.</p>
+ *
+ * <p>The slow query log is the <code>org.jboss.quickstarts.wfk.slowquery</code> category, which the server's logging
+ * configuration can send to a file of its own. Each entry holds the query, the rows it returned, its time and the
+ * {@link QueryCaller} call it was run for, with the arguments which were bound to it.</p>
+ *
+ * @see QueryStatisticsFactory
+ */
+public class RecordingStatistics extends ConcurrentStatisticsImpl {
+
+    /** The category of the slow query log. */
+    public static final String SLOW_QUERY_LOG = "org.jboss.quickstarts.wfk.slowquery";
+
+    private static final Logger SLOW_QUERIES = Logger.getLogger(SLOW_QUERY_LOG);
+
+    private static final long SLOW_MILLIS = Long.getLong("quickstart.query.slow.millis", 200);
+
+    /** The number of latest execution times kept per query. */
+    private static final int SAMPLES = 1024;
+
+    private final ConcurrentMap<String, Samples> samples = new ConcurrentHashMap<>();
+
+    public RecordingStatistics(SessionFactoryImplementor sessionFactory) {
+        super(sessionFactory);
+    }
+
+    @Override
+    public void queryExecuted(String hql, int rows, long time) {
+        super.queryExecuted(hql, rows, time);
+        if (hql == null) {
+            return;
+        }
+        samples.computeIfAbsent(hql, query -> new Samples()).add(time);
+
+        if (time >= SLOW_MILLIS && SLOW_QUERIES.isLoggable(Level.WARNING)) {
+            String caller = QueryCallerInterceptor.current();
+            SLOW_QUERIES.warning(time + " ms, " + rows + " rows: " + hql
+                    + (caller == null ? "" : " called by " + caller));
+        }
+    }
+
+    /**
+     * @param hql The query, as passed to {@link #getQueryStatistics(String)}
+     * @return The 99th percentile of the latest execution times of the query in milliseconds, or 0 if it has not run
+     */
+    public long getQueryP99Time(String hql) {
+        Samples times = samples.get(hql);
+        return times == null ? 0 : times.percentile(99);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        samples.clear();
+    }
+
+    /**
+     * <p>The latest {@link #SAMPLES} execution times of one query, overwriting the oldest.</p>
+     */
+    private static final class Samples {
+
+        private final AtomicLongArray times = new AtomicLongArray(SAMPLES);
+        private final AtomicLong count = new AtomicLong();
+
+        private void add(long time) {
+            times.set((int) (count.getAndIncrement() % SAMPLES), time);
+        }
+
+        private long percentile(int percent) {
+            int size = (int) Math.min(count.get(), SAMPLES);
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = new long[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = times.get(i);
+            }
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(size * percent / 100.0) - 1];
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+/**
+ * <p>Fired by a service whenever it writes a resource, so that anything holding a copy of its representation can drop
+ * it once the write has been committed.</p>
+ *
+ * @see ResponseCache
+ */
+public final class ResourceChanged {
+
+    private final String collection;
+    private final Long id;
+
+    /**
+     * @param collection The path of the collection the resource is served under, e.g. <code>restaurants</code>
+     * @param id The id of the resource written
+     */
+    public ResourceChanged(String collection, Long id) {
+        this.collection = collection;
+        this.id = id;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceChanged{" + collection + "/" + id + "}";
+    }
+}
@@ -23,6 +23,7 @@ import javax.enterprise.inject.spi.InjectionPoint;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.time.Clock;
 import java.util.logging.Logger;
 
 
@@ -56,4 +57,9 @@ public class Resources {
         return new ObjectMapper();
     }
 
+    @Produces
+    public Clock produceClock() {
+        return Clock.systemDefaultZone();
+    }
+
 }
@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Holds the serialized JSON of recent GET responses, keyed by request URI, so that identical requests are answered
+ * without running a query or Jackson.</p>
+ *
+ * <p>Only the collections listed in {@link #COLLECTIONS} are cached. When a resource is written, its own entries and
+ * every entry of its collection which is not about another single resource (lists, lookups by phone number or email,
+ * multi-gets) are dropped once the write has been committed.</p>
+ *
+ * <p>A response is only stored if nothing was invalidated while it was being produced, since it may have been read
+ * before the write committed.</p>
+ *
+ * @see ResponseCacheFilter
+ * @see ResourceChanged
+ */
+@ApplicationScoped
+public class ResponseCache {
+
+    /** The collections whose responses are cached. */
+    public static final Set<String> COLLECTIONS = ImmutableSet.of("restaurants", "users");
+
+    /** Upper bound on the memory held by cached bodies. */
+    private static final long MAX_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * Responses are dropped after this long anyway. Rows changed with SQL run outside the application fire no
+     * {@link ResourceChanged}, so their lists and lookups are otherwise served until evicted.
+     */
+    private static final long EXPIRE_MINUTES = 10;
+
+    private final Cache<String, CachedResponse> responses = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_BYTES)
+            .weigher((String key, CachedResponse response) -> key.length() + response.body.length)
+            .expireAfterWrite(EXPIRE_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    private final CacheGeneration generation = new CacheGeneration();
+
+    public boolean isCacheable(String collection) {
+        return COLLECTIONS.contains(collection);
+    }
+
+    /**
+     * @return The current generation, to be passed to {@link #put} once the response has been produced
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * @param key The request URI
+     * @return The cached response, or null if there is none
+     */
+    public CachedResponse get(String key) {
+        return responses.getIfPresent(key);
+    }
+
+    /**
+     * <p>Caches a response, unless something has been invalidated since the given generation.</p>
+     *
+     * @param key The request URI
+     * @param response The response produced
+     * @param generation The generation read before the response was produced
+     */
+    public void put(String key, CachedResponse response, long generation) {
+        this.generation.putIfCurrent(responses, key, response, generation);
+    }
+
+    /**
+     * <p>Drops the responses which may have been affected by a write, once it has been committed.</p>
+     *
+     * @param change The resource written
+     */
+    public void invalidate(@Observes(during = TransactionPhase.AFTER_SUCCESS) ResourceChanged change) {
+        if (!isCacheable(change.getCollection())) {
+            return;
+        }
+        generation.advance();
+        responses.asMap().values().removeIf(response -> response.isAffectedBy(change));
+    }
+
+    /**
+     * <p>Drops every response of a collection, for when it may have changed as a whole.</p>
+     *
+     * @param collection The collection whose responses are dropped
+     */
+    public void invalidateCollection(String collection) {
+        generation.advance();
+        responses.asMap().values().removeIf(response -> response.collection.equals(collection));
+    }
+
+    /**
+     * <p>The serialized body of a response and the headers needed to replay it.</p>
+     */
+    public static final class CachedResponse {
+
+        private final String collection;
+        private final Long id;
+        private final byte[] body;
+        private final MediaType mediaType;
+        private final EntityTag entityTag;
+
+        /**
+         * @param collection The collection the response belongs to
+         * @param id The id of the single resource the response represents, or null for anything else
+         * @param body The serialized body
+         * @param mediaType The content type of the body
+         * @param entityTag The entity tag of the body
+         */
+        public CachedResponse(String collection, Long id, byte[] body, MediaType mediaType, EntityTag entityTag) {
+            this.collection = collection;
+            this.id = id;
+            this.body = body;
+            this.mediaType = mediaType;
+            this.entityTag = entityTag;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public MediaType getMediaType() {
+            return mediaType;
+        }
+
+        public EntityTag getEntityTag() {
+            return entityTag;
+        }
+
+        boolean isAffectedBy(ResourceChanged change) {
+            return collection.equals(change.getCollection()) && (id == null || Objects.equals(id, change.getId()));
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import com.google.common.hash.Hashing;
+
+import javax.inject.Inject;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.PathSegment;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * <p>Answers GETs from the {@link ResponseCache} and fills it with the serialized bodies of successful GETs.</p>
+ *
+ * <p>On a hit the cached bytes are written as they are, with the stored ETag, or a 304 NOT MODIFIED is returned if the
+ * client already holds them (<code>If-None-Match</code>). On a miss the body is captured while it is serialized.
+ * Single resources keep the ETag holding their version; any other response is tagged with a hash of its body.</p>
+ *
+ * @see ResponseCache
+ */
+@Provider
+public class ResponseCacheFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+    private static final String PENDING = ResponseCacheFilter.class.getName() + ".pending";
+
+    @Inject
+    private ResponseCache cache;
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        if (!HttpMethod.GET.equals(request.getMethod())) {
+            return;
+        }
+
+        List<PathSegment> segments = request.getUriInfo().getPathSegments();
+        String collection = segments.isEmpty() ? "" : segments.get(0).getPath();
+        if (!cache.isCacheable(collection)) {
+            return;
+        }
+
+        String key = key(request.getUriInfo());
+        ResponseCache.CachedResponse cached = cache.get(key);
+        if (cached != null) {
+            Response.ResponseBuilder notModified = request.getRequest().evaluatePreconditions(cached.getEntityTag());
+            if (notModified != null) {
+                request.abortWith(notModified.build());
+            } else {
+                request.abortWith(Response.ok(cached.getBody(), cached.getMediaType())
+                        .tag(cached.getEntityTag())
+                        .build());
+            }
+            return;
+        }
+
+        Long id = null;
+        if (segments.size() == 2 && segments.get(1).getPath().matches("[0-9]+")) {
+            id = Long.valueOf(segments.get(1).getPath());
+        }
+        request.setProperty(PENDING, new Pending(key, collection, id, cache.generation()));
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        // Only successful responses are cached.
+        if (request.getProperty(PENDING) != null
+                && (response.getStatus() != Response.Status.OK.getStatusCode() || !response.hasEntity())) {
+            request.removeProperty(PENDING);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        Pending pending = (Pending) context.getProperty(PENDING);
+        if (pending == null) {
+            context.proceed();
+            return;
+        }
+
+        OutputStream out = context.getOutputStream();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        context.setOutputStream(buffer);
+        try {
+            context.proceed();
+        } finally {
+            context.setOutputStream(out);
+        }
+        byte[] body = buffer.toByteArray();
+
+        // Nothing has been written yet, so the headers can still be changed.
+        Object header = context.getHeaders().getFirst(HttpHeaders.ETAG);
+        EntityTag tag;
+        if (header instanceof EntityTag) {
+            tag = (EntityTag) header;
+        } else if (header != null) {
+            tag = EntityTag.valueOf(header.toString());
+        } else {
+            tag = new EntityTag(Hashing.murmur3_128().hashBytes(body).toString());
+            context.getHeaders().putSingle(HttpHeaders.ETAG, tag);
+        }
+
+        cache.put(pending.key,
+                new ResponseCache.CachedResponse(pending.collection, pending.id, body, context.getMediaType(), tag),
+                pending.generation);
+        out.write(body);
+    }
+
+    private static String key(UriInfo uriInfo) {
+        String query = uriInfo.getRequestUri().getRawQuery();
+        return query == null ? uriInfo.getPath() : uriInfo.getPath() + "?" + query;
+    }
+
+    private static final class Pending {
+        private final String key;
+        private final String collection;
+        private final Long id;
+        private final long generation;
+
+        private Pending(String key, String collection, Long id, long generation) {
+            this.key = key;
+            this.collection = collection;
+            this.id = id;
+            this.generation = generation;
+        }
+    }
+}
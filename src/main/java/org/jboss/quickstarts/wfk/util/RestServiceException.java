@@ -42,53 +42,47 @@ public class RestServiceException extends RuntimeException implements
     private final Response.Status status;
 
     public RestServiceException() {
-        super(defaultMsg);
-        this.reasons = new HashMap<>();
-        this.status = Response.Status.INTERNAL_SERVER_ERROR;
+        this(defaultMsg, new HashMap<>(), Response.Status.INTERNAL_SERVER_ERROR, null);
     }
 
     public RestServiceException(String msg) {
-        super(msg);
-        this.reasons = new HashMap<>();
-        this.status = Response.Status.INTERNAL_SERVER_ERROR;
+        this(msg, new HashMap<>(), Response.Status.INTERNAL_SERVER_ERROR, null);
     }
 
     public RestServiceException(String msg, Response.Status status) {
-        super(msg);
-        this.reasons = new HashMap<>();
-        this.status = status;
+        this(msg, new HashMap<>(), status, null);
     }
 
     public RestServiceException(String msg, Map<String, String> reasons, Response.Status status) {
-        super(msg);
-        this.reasons = reasons;
-        this.status = status;
+        this(msg, reasons, status, null);
     }
 
     public RestServiceException(Exception e) {
-        super(defaultMsg, e);
-        this.reasons = new HashMap<>();
-        this.status = Response.Status.INTERNAL_SERVER_ERROR;
+        this(defaultMsg, new HashMap<>(), Response.Status.INTERNAL_SERVER_ERROR, e);
     }
 
     public RestServiceException(String msg, Exception e) {
-        super(msg, e);
-        this.reasons = new HashMap<>();
-        this.status = Response.Status.INTERNAL_SERVER_ERROR;
+        this(msg, new HashMap<>(), Response.Status.INTERNAL_SERVER_ERROR, e);
     }
 
     public RestServiceException(String msg, Response.Status status, Exception e) {
-        super(msg, e);
-        this.reasons = new HashMap<>();
-        this.status = status;
+        this(msg, new HashMap<>(), status, e);
     }
 
+    /**
+     * <p>Only server errors record a stack trace. Client errors such as 404 and 409 are expected answers to a
+     * request, so walking the stack for them would be wasted work; the cause, if any, keeps its own trace.</p>
+     */
     public RestServiceException(String msg, Map<String, String> reasons, Response.Status status, Exception e) {
-        super(msg, e);
+        super(msg, e, true, isServerError(status));
         this.reasons = reasons;
         this.status = status;
     }
 
+    private static boolean isServerError(Response.Status status) {
+        return status == null || status.getFamily() == Response.Status.Family.SERVER_ERROR;
+    }
+
     public Map<String, String> getReasons() {
         return reasons;
     }
@@ -25,6 +25,7 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.ExceptionMapper;
 import javax.ws.rs.ext.Provider;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -45,8 +46,14 @@ public class RestServiceExceptionHandler implements ExceptionMapper<RestServiceE
     @Override
     public Response toResponse(final RestServiceException e) {
 
-        log.severe("Mapping RestServiceException with status + \"" + e.getStatus() + "\", message: \"" + e.getMessage()
-                + "\" and stack trace:" + System.getProperty("line.separator") + e.toString());
+        if (e.getStatus().getFamily() == Response.Status.Family.SERVER_ERROR) {
+            log.log(Level.SEVERE, "Mapping RestServiceException with status \"" + e.getStatus() + "\", message: \""
+                    + e.getMessage() + "\"", e);
+        } else if (log.isLoggable(Level.FINE)) {
+            // Client errors are expected outcomes, such as a missing id or a duplicate email, and carry no stack trace.
+            log.fine("Mapping RestServiceException with status \"" + e.getStatus() + "\", message: \""
+                    + e.getMessage() + "\"");
+        }
 
         Response.ResponseBuilder builder = Response.status(e.getStatus()).entity(new ErrorMessage(e.getMessage(), e.getReasons()));
 
@@ -54,7 +61,7 @@ public class RestServiceExceptionHandler implements ExceptionMapper<RestServiceE
         if (accepts!=null && accepts.size() > 0) {
             //just pick the first one
             MediaType m = accepts.get(0);
-            log.info("Setting response type to " + m);
+            log.fine("Setting response type to " + m);
             builder = builder.type(m);
         }
         else {
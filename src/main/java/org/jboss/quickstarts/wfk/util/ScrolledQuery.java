@@ -0,0 +1,62 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+
+import javax.persistence.Query;
+import java.util.function.Consumer;
+
+/**
+ * <p>Reads the results of a query through a forward only cursor, handing each row on as soon as it has been read,
+ * instead of loading all of them into one list.</p>
+ *
+ * <p>Meant for scalar queries over whole tables, such as every email of a table, whose results are only needed
+ * once. The query must be run within a transaction, which keeps the connection of the cursor open.</p>
+ */
+public final class ScrolledQuery {
+
+    /** Rows fetched from the database per round trip. */
+    private static final int FETCH_SIZE = 500;
+
+    private ScrolledQuery() {
+    }
+
+    /**
+     * @param query A query selecting a single value per row
+     * @param action Receives the value of each row, in the order of the query
+     * @return The number of rows read
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> long forEach(Query query, Consumer<? super T> action) {
+        ScrollableResults rows = query.unwrap(org.hibernate.Query.class)
+                .setReadOnly(true)
+                .setFetchSize(FETCH_SIZE)
+                .scroll(ScrollMode.FORWARD_ONLY);
+        long count = 0;
+        try {
+            while (rows.next()) {
+                action.accept((T) rows.get(0));
+                count++;
+            }
+        } finally {
+            rows.close();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.Date;
+
+/**
+ * <p>Implemented by entities which are deleted by marking their row with a tombstone, rather than by removing it.</p>
+ *
+ * <p>Tombstoned rows are left out of every query and can no longer be updated, and are removed for good, together with
+ * anything depending on them, by a background purge outside of any request.</p>
+ *
+ * <p>The entity must map a <code>boolean</code> attribute named {@link #DELETED} and a timestamp attribute named
+ * {@link #DELETED_AT}.</p>
+ *
+ * @see EntityUpdates#tombstone(javax.persistence.EntityManager, Class, Object, Long)
+ */
+public interface SoftDeletable {
+
+    /** The name of the attribute set to true once the entity has been deleted. */
+    String DELETED = "deleted";
+
+    /** The name of the attribute holding the time the entity was deleted. */
+    String DELETED_AT = "deletedAt";
+
+    boolean isDeleted();
+
+    Date getDeletedAt();
+}
@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.sql.SQLException;
+
+/**
+ * <p>Recognises unique constraint violations reported by the database, so that they can be translated into the
+ * domain exceptions the REST services already map to 409 Conflict.</p>
+ *
+ * @see UniquenessMode
+ */
+public final class UniqueViolations {
+
+    /** The SQLSTATE for a unique constraint violation, used by H2, PostgreSQL, HSQLDB and DB2 among others. */
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    /** MySQL reports all integrity constraint violations under SQLSTATE 23000, with this vendor code for duplicates. */
+    private static final String INTEGRITY_VIOLATION = "23000";
+    private static final int MYSQL_DUPLICATE_ENTRY = 1062;
+
+    private UniqueViolations() {
+    }
+
+    /**
+     * <p>Checks whether an exception, or any of its causes, is a unique constraint violation.</p>
+     *
+     * @param e The exception thrown by a write, typically a PersistenceException wrapping the JDBC exception
+     * @return true if the write was rejected because a unique key is already in use
+     */
+    public static boolean isUniqueViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                SQLException sql = (SQLException) cause;
+                if (UNIQUE_VIOLATION.equals(sql.getSQLState())
+                        || (INTEGRITY_VIOLATION.equals(sql.getSQLState()) && sql.getErrorCode() == MYSQL_DUPLICATE_ENTRY)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+/**
+ * <p>How the unique constraints on restaurant phone numbers and user email addresses are enforced on writes.</p>
+ *
+ * <p>The mode is read from the <code>quickstart.uniqueness</code> system property, for example
+ * <code>-Dquickstart.uniqueness=QUERY</code>, and defaults to {@link #DATABASE}.</p>
+ */
+public enum UniquenessMode {
+
+    /**
+     * Look the key up before every write. Gives the clearest errors, at the cost of extra queries per write and a
+     * window between the check and the write in which a concurrent request can take the key.
+     */
+    QUERY,
+
+    /**
+     * Write straight away and let the unique constraint of the table reject duplicates. The violation is translated
+     * into the same exception the lookup would have thrown, so each write is a single statement and there is no race.
+     */
+    DATABASE;
+
+    /** The system property selecting the mode. */
+    public static final String PROPERTY = "quickstart.uniqueness";
+
+    /**
+     * @return The configured mode, {@link #DATABASE} if the property is missing or not recognised
+     */
+    public static UniquenessMode current() {
+        String mode = System.getProperty(PROPERTY);
+        return QUERY.name().equalsIgnoreCase(mode) ? QUERY : DATABASE;
+    }
+
+    /**
+     * @return true if keys must be looked up before each write
+     */
+    public static boolean checkWithQuery() {
+        return current() == QUERY;
+    }
+}
@@ -0,0 +1,112 @@
+package org.jboss.quickstarts.wfk.contact;
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests of the {@link BirthdayWindow} searched by {@link ContactService#findUpcomingBirthdays(int)}, each from a
+ * fixed today.</p>
+ *
+ * @see ContactService
+ */
+public class BirthdayWindowTest {
+
+    @Test
+    public void testWithinYear() {
+        assertWindow(310, 317, window("2025-03-10", 7));
+        assertWindow(310, 310, window("2025-03-10", 0));
+    }
+
+    @Test
+    public void testWrapsPastYearEnd() {
+        assertWindow(1228, 104, window("2025-12-28", 7));
+        assertWindow(1231, 101, window("2025-12-31", 1));
+    }
+
+    @Test
+    public void testFebruary29InCommonYears() {
+        // Celebrated on 28 February in 2025
+        assertWindow(221, 229, window("2025-02-21", 7));
+        assertWindow(228, 229, window("2025-02-28", 0));
+        assertWindow(301, 229, window("2025-03-01", 364));
+        // 29 February 2024 is still to come
+        assertWindow(221, 228, window("2024-02-21", 7));
+        assertWindow(222, 229, window("2024-02-22", 7));
+    }
+
+    @Test
+    public void testWholeYear() {
+        // From 1 March 2023 a year ahead runs to 29 February 2024, 366 days away
+        assertWindow(101, 1231, window("2023-03-01", 365));
+        assertWindow(101, 1231, window("2025-06-15", 365));
+        assertWindow(101, 1231, window("2025-06-15", 400));
+    }
+
+    @Test
+    public void testSoonestFirstAcrossYearEnd() {
+        ContactSummary today = contact("Ann", "Doe", "1970-12-28");
+        ContactSummary newYearsEve = contact("Bob", "Doe", "1985-12-31");
+        ContactSummary newYearsDayAbel = contact("Cid", "Abel", "2000-01-01");
+        ContactSummary newYearsDayDoe = contact("Dan", "Doe", "1999-01-01");
+        ContactSummary january = contact("Eve", "Doe", "1990-01-04");
+
+        List<ContactSummary> contacts = new ArrayList<>(Arrays.asList(
+                january, newYearsDayDoe, newYearsEve, today, newYearsDayAbel));
+        contacts.sort(window("2025-12-28", 7).soonestFirst());
+
+        assertEquals("Unexpected order", Arrays.asList(today, newYearsEve, newYearsDayAbel, newYearsDayDoe, january),
+                contacts);
+    }
+
+    @Test
+    public void testSoonestFirstOverWholeYear() {
+        ContactSummary leapDay = contact("Ann", "Doe", "1996-02-29");
+        ContactSummary lastDay = contact("Bob", "Doe", "1980-02-28");
+        ContactSummary today = contact("Cid", "Doe", "1975-03-01");
+        ContactSummary summer = contact("Dan", "Doe", "1988-07-14");
+
+        List<ContactSummary> contacts = new ArrayList<>(Arrays.asList(leapDay, summer, lastDay, today));
+        contacts.sort(window("2023-03-01", 365).soonestFirst());
+
+        assertEquals("Unexpected order", Arrays.asList(today, summer, lastDay, leapDay), contacts);
+    }
+
+    private static BirthdayWindow window(String today, int withinDays) {
+        return BirthdayWindow.starting(LocalDate.parse(today), withinDays);
+    }
+
+    private static void assertWindow(int from, int to, BirthdayWindow window) {
+        assertEquals("Unexpected first day", from, window.getFrom());
+        assertEquals("Unexpected last day", to, window.getTo());
+    }
+
+    private static ContactSummary contact(String firstName, String lastName, String birthDate) {
+        Date date = Date.from(LocalDate.parse(birthDate).atStartOfDay(ZoneId.systemDefault()).toInstant());
+        return new ContactSummary(null, 0L, firstName, lastName, firstName.toLowerCase() + "@mailinator.com",
+                "(212) 555-1234", date, null);
+    }
+}
@@ -0,0 +1,143 @@
+package org.jboss.quickstarts.wfk.contact;
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests of reading and writing {@link CatalogSnapshotFile}s, in particular that every file which does not match
+ * the database is ignored, so that the catalog is loaded from the database instead.</p>
+ *
+ * @see RestaurantCatalog#load()
+ */
+public class CatalogSnapshotFileTest {
+
+    private static final CatalogSnapshotFile.Stamp STAMP = new CatalogSnapshotFile.Stamp(3, 102, 7);
+
+    // Offset of the time written, after the magic number and format version
+    private static final int TIME_OFFSET = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<RestaurantSummary> restaurants = Arrays.asList(
+            new RestaurantSummary(100L, 0L, "Arches", "NE14SS", "01000000100"),
+            new RestaurantSummary(101L, null, "Bistro", "NE14DD", "01000000101"),
+            new RestaurantSummary(102L, 7L, "Curry", null, "01000000102"));
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Path file = written();
+
+        List<RestaurantSummary> read = CatalogSnapshotFile.read(file, STAMP);
+
+        assertNotNull("File should be usable", read);
+        assertEquals("Unexpected number of restaurants", restaurants.size(), read.size());
+        for (int i = 0; i < restaurants.size(); i++) {
+            RestaurantSummary expected = restaurants.get(i);
+            RestaurantSummary actual = read.get(i);
+            assertEquals("Unexpected id", expected.getId(), actual.getId());
+            assertEquals("Unexpected version", expected.getVersion(), actual.getVersion());
+            assertEquals("Unexpected name", expected.getName(), actual.getName());
+            assertEquals("Unexpected post code", expected.getPost_code(), actual.getPost_code());
+            assertEquals("Unexpected phone number", expected.getPhoneNumber(), actual.getPhoneNumber());
+        }
+    }
+
+    @Test
+    public void testMissingFileIsIgnored() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("restaurant-catalog.bin");
+        assertNull("Missing file should not be usable", CatalogSnapshotFile.read(file, STAMP));
+    }
+
+    @Test
+    public void testStaleFileIsIgnored() throws Exception {
+        Path file = written();
+
+        // Written from the database of an earlier deployment, which has since been dropped and created again
+        assertNull("File of another database should not be usable",
+                CatalogSnapshotFile.read(file, new CatalogSnapshotFile.Stamp(2, 101, 0)));
+        // Written before a restaurant was updated
+        assertNull("File written before an update should not be usable",
+                CatalogSnapshotFile.read(file, new CatalogSnapshotFile.Stamp(3, 102, 8)));
+        // Written before a restaurant was created
+        assertNull("File written before a create should not be usable",
+                CatalogSnapshotFile.read(file, new CatalogSnapshotFile.Stamp(4, 103, 7)));
+    }
+
+    @Test
+    public void testOldFileIsIgnored() throws Exception {
+        Path file = written();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer time = ByteBuffer.allocate(8);
+            time.putLong(0, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2));
+            channel.write(time, TIME_OFFSET);
+        }
+
+        assertNull("File older than a day should not be usable", CatalogSnapshotFile.read(file, STAMP));
+    }
+
+    @Test
+    public void testForeignFileIsIgnored() throws Exception {
+        Path file = folder.newFile().toPath();
+        Files.write(file, "id,name,post_code,phone_number\n100,Arches,NE14SS,01000000100\n"
+                .getBytes(StandardCharsets.UTF_8));
+        assertNull("File of another format should not be usable", CatalogSnapshotFile.read(file, STAMP));
+
+        // A file of an older format version
+        file = written();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer version = ByteBuffer.allocate(4);
+            version.putInt(0, 1);
+            channel.write(version, 4);
+        }
+        assertNull("File of an older format version should not be usable", CatalogSnapshotFile.read(file, STAMP));
+    }
+
+    @Test
+    public void testTruncatedFileIsIgnored() throws Exception {
+        byte[] whole = Files.readAllBytes(written());
+
+        for (int length = 0; length < whole.length; length++) {
+            Path file = folder.newFile().toPath();
+            Files.write(file, Arrays.copyOf(whole, length));
+            assertNull("File truncated to " + length + " bytes should not be usable",
+                    CatalogSnapshotFile.read(file, STAMP));
+        }
+    }
+
+    private Path written() throws IOException {
+        Path file = folder.newFolder().toPath().resolve("restaurant-catalog.bin");
+        CatalogSnapshotFile.write(file, STAMP, restaurants);
+        return file;
+    }
+}
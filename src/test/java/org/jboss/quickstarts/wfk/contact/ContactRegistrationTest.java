@@ -25,14 +25,20 @@ import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.EmptyAsset;
 import org.jboss.shrinkwrap.api.spec.WebArchive;
 import org.jboss.shrinkwrap.resolver.api.maven.Maven;
+import org.junit.Assume;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.EntityManager;
 import javax.ws.rs.core.Response;
 import java.io.File;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 import static org.junit.Assert.*;
@@ -79,6 +85,15 @@ public class ContactRegistrationTest {
     @Inject
     ContactRestService contactRestService;
 
+    @Inject
+    EntityManager em;
+
+    @Inject
+    ContactRepository contactRepository;
+
+    @Inject
+    ContactStateWriter contactStateWriter;
+
     @Inject
     @Named("logger") Logger log;
 
@@ -135,6 +150,111 @@ public class ContactRegistrationTest {
 
     }
 
+    @Test
+    @InSequence(4)
+    public void testPatch() throws Exception {
+        Contact contact = createContactInstance("Olga", "Doe", "olga@mailinator.com", "(212) 555-1235", date);
+        contactRestService.createContact(contact);
+        long id = contact.getId();
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("firstName", "Olive");
+        body.put("lastName", "McDoe");
+        Response response = contactRestService.patchContact(id, body, null);
+        assertEquals("Unexpected response status", 204, response.getStatus());
+
+        Contact patched = (Contact) contactRestService.retrieveContactById(id, null).getEntity();
+        assertEquals("Unexpected first name after patch", "Olive", patched.getFirstName());
+        assertEquals("Unexpected last name after patch", "McDoe", patched.getLastName());
+        assertEquals("Unpatched field should be kept", "olga@mailinator.com", patched.getEmail());
+
+        // The lower cased names searched by prefix have to follow the names.
+        Object[] keys = em
+                .createQuery("SELECT c.firstNameKey, c.lastNameKey FROM Contact c WHERE c.id = :id", Object[].class)
+                .setParameter("id", id)
+                .getSingleResult();
+        assertEquals("Unexpected first_name_key after patch", "olive", keys[0]);
+        assertEquals("Unexpected last_name_key after patch", "mcdoe", keys[1]);
+        log.info("Contact " + id + " was patched and returned status " + response.getStatus());
+    }
+
+    @Test
+    @InSequence(5)
+    public void testInvalidPatch() throws Exception {
+        Contact contact = createContactInstance("Pia", "Doe", "pia@mailinator.com", "(212) 555-1236", date);
+        contactRestService.createContact(contact);
+        long id = contact.getId();
+
+        RestServiceException e = assertStatus(Response.Status.BAD_REQUEST,
+                () -> contactRestService.patchContact(id, patchOf("nickname", "Pip"), null));
+        assertEquals("Unexpected response body", "Unknown field", e.getReasons().get("nickname"));
+        e = assertStatus(Response.Status.BAD_REQUEST,
+                () -> contactRestService.patchContact(id, patchOf("id", 1), null));
+        assertEquals("Unexpected response body", "This field cannot be changed", e.getReasons().get("id"));
+        // The state is resolved from the phone number, see ContactEnrichmentService.
+        e = assertStatus(Response.Status.BAD_REQUEST,
+                () -> contactRestService.patchContact(id, patchOf("state", "NY"), null));
+        assertEquals("Unexpected response body", "This field cannot be changed", e.getReasons().get("state"));
+        e = assertStatus(Response.Status.BAD_REQUEST,
+                () -> contactRestService.patchContact(id, patchOf("phoneNumber", "123"), null));
+        assertTrue("Unexpected response body", e.getReasons().containsKey("phoneNumber"));
+
+        assertStatus(Response.Status.NOT_FOUND,
+                () -> contactRestService.patchContact(999999L, patchOf("firstName", "Pia"), null));
+
+        // The email of the contact registered by testDuplicateEmail
+        e = assertStatus(Response.Status.CONFLICT,
+                () -> contactRestService.patchContact(id, patchOf("email", "jane@mailinator.com"), null));
+        assertTrue("Unexpected error. Should be Unique email violation", e.getCause() instanceof UniqueEmailException);
+
+        Contact unchanged = (Contact) contactRestService.retrieveContactById(id, null).getEntity();
+        assertEquals("Refused patches should not change the contact", "pia@mailinator.com", unchanged.getEmail());
+        log.info("Invalid patches of contact " + id + " were refused");
+    }
+
+    @Test
+    @InSequence(6)
+    public void testUnresolvedContactIsNotRequeued() throws Exception {
+        Contact contact = createContactInstance("Rosa", "Doe", "rosa@mailinator.com", "(299) 555-1237", date);
+        contactRestService.createContact(contact);
+        long id = contact.getId();
+
+        contactStateWriter.markUnresolved(Collections.singletonList(id), Collections.singletonList("(299) 555-1237"));
+        // The area service may still have resolved the state in the meantime
+        Assume.assumeTrue(em.find(Contact.class, id).getState() == null);
+        assertFalse("A contact given up on should not be queued at startup", isWithoutState(id));
+
+        contactRestService.patchContact(id, patchOf("phoneNumber", "(298) 555-1237"), null);
+        em.clear();
+        Assume.assumeTrue(em.find(Contact.class, id).getState() == null);
+        assertTrue("A new phone number should be looked up again", isWithoutState(id));
+        log.info("Contact " + id + " was only queued again once its phone number changed");
+    }
+
+    private boolean isWithoutState(long id) {
+        for (ContactSummary contact : contactRepository.findAllWithoutState()) {
+            if (contact.getId() == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Map<String, Object> patchOf(String field, Object value) {
+        return Collections.singletonMap(field, value);
+    }
+
+    private RestServiceException assertStatus(Response.Status status, Callable<Response> call) throws Exception {
+        try {
+            call.call();
+        } catch (RestServiceException e) {
+            assertEquals("Unexpected response status", status, e.getStatus());
+            return e;
+        }
+        fail("Expected a RestServiceException to be thrown");
+        return null;
+    }
+
     /**
      * <p>A utility method to construct a {@link org.jboss.quickstarts.wfk.contact.Contact Contact} object for use in
      * testing. This object is not persisted.</p>
@@ -0,0 +1,138 @@
+package org.jboss.quickstarts.wfk.contact;
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests of the copy-on-write merges of {@link RestaurantCatalog.Snapshot}, checked against snapshots sorted
+ * from scratch.</p>
+ *
+ * @see RestaurantCatalog
+ */
+public class RestaurantCatalogSnapshotTest {
+
+    @Test
+    public void testWithInsertsAtEveryPosition() {
+        List<RestaurantSummary> held = Arrays.asList(
+                restaurant(20, "Bistro", "01000000020"),
+                restaurant(40, "Diner", "01000000040"));
+        RestaurantCatalog.Snapshot snapshot = RestaurantCatalog.Snapshot.of(held);
+
+        List<RestaurantSummary> expected = new ArrayList<>(held);
+        for (RestaurantSummary added : Arrays.asList(
+                restaurant(10, "Zest", "01000000050"),
+                restaurant(30, "Curry", "01000000030"),
+                restaurant(50, "Arches", "01000000010"))) {
+            snapshot = snapshot.with(added);
+            expected.add(added);
+            assertSameAs(expected, snapshot);
+        }
+    }
+
+    @Test
+    public void testWithReplacesAndReorders() {
+        List<RestaurantSummary> expected = new ArrayList<>(Arrays.asList(
+                restaurant(1, "Arches", "01000000001"),
+                restaurant(2, "Bistro", "01000000002"),
+                restaurant(3, "Curry", "01000000003")));
+        RestaurantCatalog.Snapshot snapshot = RestaurantCatalog.Snapshot.of(expected);
+
+        // The first restaurant moves to the end of both orderings.
+        RestaurantSummary renamed = restaurant(1, "Zest", "01000000009");
+        snapshot = snapshot.with(renamed);
+        expected.set(0, renamed);
+
+        assertSameAs(expected, snapshot);
+        assertNull("The old phone number should no longer be found", snapshot.findByPhoneNumber("01000000001"));
+    }
+
+    @Test
+    public void testWithoutRemovesFromEveryPosition() {
+        List<RestaurantSummary> expected = new ArrayList<>(Arrays.asList(
+                restaurant(1, "Curry", "01000000002"),
+                restaurant(2, "Arches", "01000000003"),
+                restaurant(3, "Bistro", "01000000001"),
+                restaurant(4, "Diner", "01000000004")));
+        RestaurantCatalog.Snapshot snapshot = RestaurantCatalog.Snapshot.of(expected);
+
+        for (long id : new long[] {2, 4, 1, 3}) {
+            snapshot = snapshot.without(id);
+            expected.removeIf(restaurant -> restaurant.getId() == id);
+            assertSameAs(expected, snapshot);
+            assertNull("Removed restaurant should not be found", snapshot.findById(id));
+        }
+    }
+
+    @Test
+    public void testWithoutUnknownIdKeepsSnapshot() {
+        RestaurantCatalog.Snapshot snapshot = RestaurantCatalog.Snapshot.of(
+                Arrays.asList(restaurant(1, "Arches", "01000000001")));
+
+        assertSame("Removing an unknown id should not copy the snapshot", snapshot, snapshot.without(2));
+    }
+
+    @Test
+    public void testRandomWritesMatchFullSort() {
+        Random random = new Random(42);
+        List<RestaurantSummary> expected = new ArrayList<>();
+        RestaurantCatalog.Snapshot snapshot = RestaurantCatalog.Snapshot.EMPTY;
+
+        for (int i = 0; i < 500; i++) {
+            long id = 1 + random.nextInt(40);
+            expected.removeIf(restaurant -> restaurant.getId() == id);
+            if (random.nextInt(3) == 0) {
+                snapshot = snapshot.without(id);
+            } else {
+                // Few distinct names, so ties are broken by id.
+                RestaurantSummary written = restaurant(id, "Name " + random.nextInt(8),
+                        String.format("0%010d", random.nextInt(1000)));
+                snapshot = snapshot.with(written);
+                expected.add(written);
+            }
+            assertSameAs(expected, snapshot);
+        }
+    }
+
+    /**
+     * <p>Checks every lookup and ordering of the snapshot against the restaurants it should hold.</p>
+     */
+    private static void assertSameAs(List<RestaurantSummary> expected, RestaurantCatalog.Snapshot snapshot) {
+        List<RestaurantSummary> byName = new ArrayList<>(expected);
+        byName.sort(Comparator.comparing(RestaurantSummary::getName).thenComparing(RestaurantSummary::getId));
+        assertEquals("Unexpected name order", byName, new ArrayList<>(snapshot.orderedByName()));
+
+        for (RestaurantSummary restaurant : expected) {
+            assertSame("Unexpected restaurant by id", restaurant, snapshot.findById(restaurant.getId()));
+            RestaurantSummary byPhone = snapshot.findByPhoneNumber(restaurant.getPhoneNumber());
+            assertNotNull("Restaurant should be found by phone number", byPhone);
+            assertEquals("Unexpected phone number", restaurant.getPhoneNumber(), byPhone.getPhoneNumber());
+        }
+    }
+
+    private static RestaurantSummary restaurant(long id, String name, String phoneNumber) {
+        return new RestaurantSummary(id, 0L, name, "NE14SS", phoneNumber);
+    }
+}
@@ -20,6 +20,7 @@ import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.arquillian.junit.InSequence;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
+import org.jboss.quickstarts.wfk.util.UniquenessMode;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.EmptyAsset;
@@ -30,9 +31,14 @@ import org.junit.runner.RunWith;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.Response;
 import java.io.File;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 import static org.junit.Assert.*;
@@ -136,6 +142,193 @@ public class RestaurantRegistrationTest {
 
     }
 
+    @Test
+    @InSequence(4)
+    public void testReadsFollowWrites() throws Exception {
+        Restaurant restaurant = createRestaurantInstance("Kate Doe", "NE14SS", "01434567894");
+        restaurantRestService.createRestaurant(restaurant);
+        long id = restaurant.getId();
+
+        RestaurantSummary created = (RestaurantSummary) restaurantRestService
+                .retrieveRestaurantById(id, null).getEntity();
+        assertEquals("Unexpected name after create", "Kate Doe", created.getName());
+        RestaurantSummary byPhone = (RestaurantSummary) restaurantRestService
+                .retrieveRestaurantsByPhoneNumber("01434567894", null).getEntity();
+        assertEquals("Unexpected restaurant by phone number after create", id, byPhone.getId().longValue());
+        assertEquals("Unexpected name listed after create", "Kate Doe", listed(id).getName());
+
+        Restaurant changed = createRestaurantInstance("Karl Doe", "NE14SS", "01434567895");
+        changed.setId(id);
+        restaurantRestService.updateRestaurant(id, changed, null);
+
+        RestaurantSummary updated = (RestaurantSummary) restaurantRestService
+                .retrieveRestaurantById(id, null).getEntity();
+        assertEquals("Unexpected name after update", "Karl Doe", updated.getName());
+        byPhone = (RestaurantSummary) restaurantRestService
+                .retrieveRestaurantsByPhoneNumber("01434567895", null).getEntity();
+        assertEquals("Unexpected restaurant by phone number after update", id, byPhone.getId().longValue());
+        assertNotFound(() -> restaurantRestService.retrieveRestaurantsByPhoneNumber("01434567894", null));
+        assertEquals("Unexpected name listed after update", "Karl Doe", listed(id).getName());
+
+        restaurantRestService.deleteRestaurant(id, null);
+
+        assertNotFound(() -> restaurantRestService.retrieveRestaurantById(id, null));
+        assertNotFound(() -> restaurantRestService.retrieveRestaurantsByPhoneNumber("01434567895", null));
+        assertNull("Deleted restaurant should not be listed", listed(id));
+        log.info("Restaurant reads followed create, update and delete of " + id);
+    }
+
+    @SuppressWarnings("unchecked")
+    private RestaurantSummary listed(long id) {
+        List<RestaurantSummary> all = (List<RestaurantSummary>) restaurantRestService
+                .retrieveAllRestaurants(null, null).getEntity();
+        for (RestaurantSummary restaurant : all) {
+            if (restaurant.getId() == id) {
+                return restaurant;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    @InSequence(5)
+    public void testUpdateReturnsNextVersion() throws Exception {
+        Restaurant restaurant = createRestaurantInstance("Lena Doe", "NE14SS", "01534567890");
+        restaurantRestService.createRestaurant(restaurant);
+        long id = restaurant.getId();
+        long version = restaurant.getVersion();
+
+        // Without If-Match the update is unconditional, but the new version is still returned.
+        Response response = restaurantRestService.updateRestaurant(id, updateOf(id, "Lena Doe", "01534567890"), null);
+        assertEquals("Unexpected response status", 200, response.getStatus());
+        assertEquals("Unexpected ETag", new EntityTag(String.valueOf(version + 1)), response.getEntityTag());
+        assertEquals("Unexpected version", Long.valueOf(version + 1), ((Restaurant) response.getEntity()).getVersion());
+
+        String ifMatch = "\"" + (version + 1) + "\"";
+        response = restaurantRestService.updateRestaurant(id, updateOf(id, "Lena Doe", "01534567890"), ifMatch);
+        assertEquals("Unexpected response status", 200, response.getStatus());
+        assertEquals("Unexpected ETag", new EntityTag(String.valueOf(version + 2)), response.getEntityTag());
+    }
+
+    @Test
+    @InSequence(6)
+    public void testUpdatePreconditions() throws Exception {
+        Restaurant restaurant = createRestaurantInstance("Mona Doe", "NE14SS", "01634567890");
+        restaurantRestService.createRestaurant(restaurant);
+        long id = restaurant.getId();
+        String stale = "\"" + restaurant.getVersion() + "\"";
+        restaurantRestService.updateRestaurant(id, updateOf(id, "Mona Doe", "01634567890"), null);
+
+        assertStatus(Response.Status.PRECONDITION_FAILED,
+                () -> restaurantRestService.updateRestaurant(id, updateOf(id, "Mona Doe", "01634567890"), stale));
+        assertStatus(Response.Status.PRECONDITION_FAILED,
+                () -> restaurantRestService.updateRestaurant(id, updateOf(id, "Mona Doe", "01634567890"), "\"abc\""));
+
+        long missing = 999999L;
+        Restaurant absent = updateOf(missing, "Nina Doe", "01634567899");
+        assertStatus(Response.Status.NOT_FOUND, () -> restaurantRestService.updateRestaurant(missing, absent, null));
+        // A missing row is reported as such, not as a version mismatch.
+        assertStatus(Response.Status.NOT_FOUND, () -> restaurantRestService.updateRestaurant(missing, absent, "\"0\""));
+    }
+
+    @Test
+    @InSequence(7)
+    public void testPatch() throws Exception {
+        Restaurant restaurant = createRestaurantInstance("Olga Doe", "NE14SS", "01734567890");
+        restaurantRestService.createRestaurant(restaurant);
+        long id = restaurant.getId();
+
+        Response response = restaurantRestService.patchRestaurant(id, patchOf("name", "Olive Doe"), null);
+        assertEquals("Unexpected response status", 204, response.getStatus());
+
+        RestaurantSummary patched = (RestaurantSummary) restaurantRestService
+                .retrieveRestaurantById(id, null).getEntity();
+        assertEquals("Unexpected name after patch", "Olive Doe", patched.getName());
+        assertEquals("Unpatched field should be kept", "01734567890", patched.getPhoneNumber());
+        assertEquals("Unexpected version after patch", Long.valueOf(restaurant.getVersion() + 1), patched.getVersion());
+        log.info("Restaurant " + id + " was patched and returned status " + response.getStatus());
+    }
+
+    @Test
+    @InSequence(8)
+    public void testInvalidPatch() throws Exception {
+        Restaurant restaurant = createRestaurantInstance("Pia Doe", "NE14SS", "01834567890");
+        restaurantRestService.createRestaurant(restaurant);
+        long id = restaurant.getId();
+
+        RestServiceException e = assertStatus(Response.Status.BAD_REQUEST,
+                () -> restaurantRestService.patchRestaurant(id, patchOf("rating", 5), null));
+        assertEquals("Unexpected response body", "Unknown field", e.getReasons().get("rating"));
+        e = assertStatus(Response.Status.BAD_REQUEST,
+                () -> restaurantRestService.patchRestaurant(id, patchOf("id", 1), null));
+        assertEquals("Unexpected response body", "This field cannot be changed", e.getReasons().get("id"));
+        e = assertStatus(Response.Status.BAD_REQUEST,
+                () -> restaurantRestService.patchRestaurant(id, patchOf("phoneNumber", "123"), null));
+        assertTrue("Unexpected response body", e.getReasons().containsKey("phoneNumber"));
+
+        assertStatus(Response.Status.NOT_FOUND,
+                () -> restaurantRestService.patchRestaurant(999999L, patchOf("name", "Pia Doe"), null));
+
+        // The phone number of the restaurant registered by testDuplicatePhoneNumber
+        e = assertStatus(Response.Status.CONFLICT,
+                () -> restaurantRestService.patchRestaurant(id, patchOf("phoneNumber", "01334567894"), null));
+        assertTrue("Unexpected error. Should be Unique phone number violation",
+                e.getCause() instanceof UniquePhoneNumberException);
+
+        RestaurantSummary unchanged = (RestaurantSummary) restaurantRestService
+                .retrieveRestaurantById(id, null).getEntity();
+        assertEquals("Refused patches should not change the restaurant", "01834567890", unchanged.getPhoneNumber());
+        log.info("Invalid patches of restaurant " + id + " were refused");
+    }
+
+    @Test
+    @InSequence(9)
+    public void testPhoneNumberIsReleasedOnDelete() throws Exception {
+        Restaurant restaurant = createRestaurantInstance("Rosa Doe", "NE14SS", "01934567890");
+        restaurantRestService.createRestaurant(restaurant);
+        restaurantRestService.deleteRestaurant(restaurant.getId(), null);
+
+        Restaurant again = createRestaurantInstance("Rosa Doe", "NE14SS", "01934567890");
+        Response response = restaurantRestService.createRestaurant(again);
+        assertEquals("The phone number of a deleted restaurant should be free", 201, response.getStatus());
+
+        // The lookup of QUERY mode must agree with the unique constraint
+        System.setProperty(UniquenessMode.PROPERTY, UniquenessMode.QUERY.name());
+        try {
+            restaurantRestService.deleteRestaurant(again.getId(), null);
+            response = restaurantRestService.createRestaurant(
+                    createRestaurantInstance("Rosa Doe", "NE14SS", "01934567890"));
+            assertEquals("The phone number of a deleted restaurant should be free", 201, response.getStatus());
+        } finally {
+            System.clearProperty(UniquenessMode.PROPERTY);
+        }
+        log.info("The phone number of deleted restaurants was registered again");
+    }
+
+    private Map<String, Object> patchOf(String field, Object value) {
+        return Collections.singletonMap(field, value);
+    }
+
+    private Restaurant updateOf(long id, String name, String phone) {
+        Restaurant restaurant = createRestaurantInstance(name, "NE14SS", phone);
+        restaurant.setId(id);
+        return restaurant;
+    }
+
+    private void assertNotFound(Callable<Response> read) throws Exception {
+        assertStatus(Response.Status.NOT_FOUND, read);
+    }
+
+    private RestServiceException assertStatus(Response.Status status, Callable<Response> call) throws Exception {
+        try {
+            call.call();
+        } catch (RestServiceException e) {
+            assertEquals("Unexpected response status", status, e.getStatus());
+            return e;
+        }
+        fail("Expected a RestServiceException to be thrown");
+        return null;
+    }
 
     private Restaurant createRestaurantInstance(String name, String postCode, String phone) {
     	Restaurant restaurant = new Restaurant();
@@ -19,6 +19,8 @@ package org.jboss.quickstarts.wfk.contact;
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.arquillian.junit.InSequence;
+import org.jboss.quickstarts.wfk.util.MultiGetResult;
+import org.jboss.quickstarts.wfk.util.QueryCounter;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
@@ -31,9 +33,13 @@ import org.junit.runner.RunWith;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.EntityManager;
 import javax.ws.rs.core.Response;
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.logging.Logger;
 
 import static org.junit.Assert.*;
@@ -83,6 +89,18 @@ public class ReviewRegistrationTest {
     @Inject
     UserRestService userRestService;
 
+    @Inject
+    RestaurantRestService restaurantRestService;
+
+    @Inject
+    ReviewRepository reviewRepository;
+
+    @Inject
+    TombstonePurger purger;
+
+    @Inject
+    EntityManager em;
+
     @Inject
     @Named("logger") Logger log;
 
@@ -142,6 +160,169 @@ public class ReviewRegistrationTest {
 
     }
 
+    @Test
+    @InSequence(4)
+    public void testListingRunsFixedNumberOfStatements() throws Exception {
+        // The reviews so far are of restaurant 100, which is not in the database, so review one which is.
+        User user = createUserInstance("Lisa Doe", "lisa@mailinator.com", "01434567890");
+        userRestService.createUser(user);
+        Restaurant restaurant = createRestaurantInstance("Lisa Bistro", "01434567891");
+        restaurantRestService.createRestaurant(restaurant);
+        reviewRestService.createReview(createReviewInstance(user.getId(), restaurant.getId(), "good food", "4"));
+
+        QueryCounter.start();
+        reviewRestService.retrieveAllReviews(null, null);
+        QueryCounter.Tally list = QueryCounter.stop();
+
+        assertEquals("Listing reviews should run one statement, whatever the number of reviews", 1, list.getCount());
+
+        QueryCounter.start();
+        reviewRestService.retrieveAllReviews(null, "restaurant");
+        QueryCounter.Tally expanded = QueryCounter.stop();
+
+        // The restaurants are read from the catalog, so only the reviews and the ratings are queried.
+        assertEquals("Expanding the restaurants of reviews should run two statements, whatever the number of reviews",
+                2, expanded.getCount());
+    }
+
+    @Test
+    @InSequence(5)
+    public void testReviewOfDeletedUserOrRestaurantIsRefused() throws Exception {
+        User user = createUserInstance("Mary Doe", "mary@mailinator.com", "01534567894");
+        userRestService.createUser(user);
+        Restaurant restaurant = createRestaurantInstance("Mary Bistro", "01534567895");
+        restaurantRestService.createRestaurant(restaurant);
+        userRestService.deleteUser(user.getId(), null);
+
+        try {
+            reviewRestService.createReview(createReviewInstance(user.getId(), restaurant.getId(), "good food", "3"));
+            fail("Expected a RestServiceException to be thrown");
+        } catch (RestServiceException e) {
+            assertEquals("Unexpected response status", Response.Status.BAD_REQUEST, e.getStatus());
+            assertTrue("Unexpected response body", e.getReasons().containsKey("user_id"));
+        }
+
+        User another = createUserInstance("Mark Doe", "mark@mailinator.com", "01534567896");
+        userRestService.createUser(another);
+        restaurantRestService.deleteRestaurant(restaurant.getId(), null);
+
+        try {
+            reviewRestService.createReview(createReviewInstance(another.getId(), restaurant.getId(), "good food", "3"));
+            fail("Expected a RestServiceException to be thrown");
+        } catch (RestServiceException e) {
+            assertEquals("Unexpected response status", Response.Status.BAD_REQUEST, e.getStatus());
+            assertTrue("Unexpected response body", e.getReasons().containsKey("restaurant_id"));
+        }
+        log.info("Reviews of a deleted user and a deleted restaurant were refused");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    @InSequence(6)
+    public void testReviewsOfDeletedUserAreHidden() throws Exception {
+        Restaurant restaurant = createRestaurantInstance("Nora Bistro", "01634567890");
+        restaurantRestService.createRestaurant(restaurant);
+        User kept = createUserInstance("Nora Doe", "nora@mailinator.com", "01634567891");
+        userRestService.createUser(kept);
+        User deleted = createUserInstance("Noel Doe", "noel@mailinator.com", "01634567892");
+        userRestService.createUser(deleted);
+
+        reviewRestService.createReview(createReviewInstance(kept.getId(), restaurant.getId(), "good food", "4"));
+        Review hidden = createReviewInstance(deleted.getId(), restaurant.getId(), "bad food", "2");
+        reviewRestService.createReview(hidden);
+
+        userRestService.deleteUser(deleted.getId(), null);
+
+        List<ReviewSummary> all = (List<ReviewSummary>) reviewRestService.retrieveAllReviews(null, null).getEntity();
+        for (ReviewSummary review : all) {
+            assertNotEquals("Review of deleted user should not be listed", hidden.getId(), review.getId());
+        }
+
+        try {
+            reviewRestService.retrieveReviewsById(deleted.getId(), null, null);
+            fail("Expected a RestServiceException to be thrown");
+        } catch (RestServiceException e) {
+            assertEquals("Unexpected response status", Response.Status.NOT_FOUND, e.getStatus());
+        }
+
+        MultiGetResult<ReviewSummary> looked = (MultiGetResult<ReviewSummary>) reviewRestService
+                .lookupReviews(Collections.singletonList(hidden.getId()), null).getEntity();
+        assertEquals("Review of deleted user should be reported missing",
+                Collections.singletonList(hidden.getId()), looked.getMissing());
+
+        RestaurantRating rating = reviewRepository.findRatingsByRestaurantIds(
+                Collections.singletonList(restaurant.getId())).get(restaurant.getId());
+        assertEquals("Review of deleted user should not be rated", 1, rating.getCount());
+        assertEquals("Review of deleted user should not be rated", 4.0, rating.getAverage(), 0.0);
+    }
+
+    @Test
+    @InSequence(7)
+    public void testReviewsOfDeletedRestaurantAreHidden() throws Exception {
+        Restaurant restaurant = createRestaurantInstance("Olga Bistro", "01734567890");
+        restaurantRestService.createRestaurant(restaurant);
+        User user = createUserInstance("Olga Doe", "olga@mailinator.com", "01734567891");
+        userRestService.createUser(user);
+        reviewRestService.createReview(createReviewInstance(user.getId(), restaurant.getId(), "good food", "4"));
+
+        restaurantRestService.deleteRestaurant(restaurant.getId(), null);
+
+        try {
+            reviewRestService.retrieveReviewsById(user.getId(), null, null);
+            fail("Expected a RestServiceException to be thrown");
+        } catch (RestServiceException e) {
+            assertEquals("Unexpected response status", Response.Status.NOT_FOUND, e.getStatus());
+        }
+    }
+
+    @Test
+    @InSequence(8)
+    public void testPurgeRemovesReviewsBeforeTheirUsersAndRestaurants() throws Exception {
+        Restaurant restaurant = createRestaurantInstance("Paul Bistro", "01834567890");
+        restaurantRestService.createRestaurant(restaurant);
+        User user = createUserInstance("Paul Doe", "paul@mailinator.com", "01834567891");
+        userRestService.createUser(user);
+        User other = createUserInstance("Pam Doe", "pam@mailinator.com", "01834567892");
+        userRestService.createUser(other);
+        Review ofUser = createReviewInstance(user.getId(), restaurant.getId(), "good food", "4");
+        reviewRestService.createReview(ofUser);
+        Review ofOther = createReviewInstance(other.getId(), restaurant.getId(), "good food", "5");
+        reviewRestService.createReview(ofOther);
+
+        userRestService.deleteUser(user.getId(), null);
+        restaurantRestService.deleteRestaurant(restaurant.getId(), null);
+
+        // Every tombstone written so far is older than this.
+        Date cutoff = new Date(System.currentTimeMillis() + 60000);
+
+        purger.purgeUsers(cutoff, 100);
+        purger.purgeRestaurants(cutoff, 100);
+        assertNotNull("User should be kept while it has reviews", em.find(User.class, user.getId()));
+        assertNotNull("Restaurant should be kept while it has reviews", em.find(Restaurant.class, restaurant.getId()));
+
+        while (purger.purgeReviews(cutoff, 1) > 0) {
+            // One review per transaction, until none are left.
+        }
+        for (Long id : Arrays.asList(ofUser.getId(), ofOther.getId())) {
+            assertNull("Reviews of tombstones should be purged", em.find(Review.class, id));
+        }
+
+        purger.purgeUsers(cutoff, 100);
+        purger.purgeRestaurants(cutoff, 100);
+        assertNull("User should be purged once its reviews are", em.find(User.class, user.getId()));
+        assertNull("Restaurant should be purged once its reviews are", em.find(Restaurant.class, restaurant.getId()));
+        assertNotNull("User which was not deleted should be kept", em.find(User.class, other.getId()));
+        log.info("Tombstones were purged after their reviews");
+    }
+
+    private Restaurant createRestaurantInstance(String name, String phone) {
+        Restaurant restaurant = new Restaurant();
+        restaurant.setName(name);
+        restaurant.setPost_code("NE14SS");
+        restaurant.setPhoneNumber(phone);
+        return restaurant;
+    }
+
     private Review createReviewInstance(Long user_id, Long restaurant_id, String review1, String rating) {
     	Review review = new Review();
     	review.setUserId(user_id);
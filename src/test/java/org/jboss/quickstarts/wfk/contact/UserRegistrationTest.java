@@ -19,7 +19,9 @@ package org.jboss.quickstarts.wfk.contact;
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.arquillian.junit.InSequence;
+import org.jboss.quickstarts.wfk.util.QueryCounter;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
+import org.jboss.quickstarts.wfk.util.UniquenessMode;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.EmptyAsset;
@@ -32,7 +34,10 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.ws.rs.core.Response;
 import java.io.File;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 import static org.junit.Assert.*;
@@ -134,6 +139,110 @@ public class UserRegistrationTest {
 
     }
 
+    @Test
+    @InSequence(4)
+    public void testPatch() throws Exception {
+        User user = createUserInstance("Olga Doe", "olga@mailinator.com", "01434567890");
+        userRestService.createUser(user);
+        long id = user.getId();
+
+        Response response = userRestService.patchUser(id, patchOf("name", "Olive Doe"), null);
+        assertEquals("Unexpected response status", 204, response.getStatus());
+
+        User patched = (User) userRestService.retrieveUserById(id, null).getEntity();
+        assertEquals("Unexpected name after patch", "Olive Doe", patched.getName());
+        assertEquals("Unpatched field should be kept", "olga@mailinator.com", patched.getEmail());
+        assertEquals("Unexpected version after patch", Long.valueOf(user.getVersion() + 1), patched.getVersion());
+        log.info("User " + id + " was patched and returned status " + response.getStatus());
+    }
+
+    @Test
+    @InSequence(5)
+    public void testInvalidPatch() throws Exception {
+        User user = createUserInstance("Pia Doe", "pia@mailinator.com", "01534567890");
+        userRestService.createUser(user);
+        long id = user.getId();
+
+        RestServiceException e = assertStatus(Response.Status.BAD_REQUEST,
+                () -> userRestService.patchUser(id, patchOf("password", "secret"), null));
+        assertEquals("Unexpected response body", "Unknown field", e.getReasons().get("password"));
+        e = assertStatus(Response.Status.BAD_REQUEST,
+                () -> userRestService.patchUser(id, patchOf("id", 1), null));
+        assertEquals("Unexpected response body", "This field cannot be changed", e.getReasons().get("id"));
+        e = assertStatus(Response.Status.BAD_REQUEST,
+                () -> userRestService.patchUser(id, patchOf("email", "not an email"), null));
+        assertTrue("Unexpected response body", e.getReasons().containsKey("email"));
+
+        assertStatus(Response.Status.NOT_FOUND,
+                () -> userRestService.patchUser(999999L, patchOf("name", "Pia Doe"), null));
+
+        // The email of the user registered by testDuplicateEmail
+        e = assertStatus(Response.Status.CONFLICT,
+                () -> userRestService.patchUser(id, patchOf("email", "jane@mailinator.com"), null));
+        assertTrue("Unexpected error. Should be Unique email violation", e.getCause() instanceof UniqueEmailException);
+
+        User unchanged = (User) userRestService.retrieveUserById(id, null).getEntity();
+        assertEquals("Refused patches should not change the user", "pia@mailinator.com", unchanged.getEmail());
+        log.info("Invalid patches of user " + id + " were refused");
+    }
+
+    @Test
+    @InSequence(6)
+    public void testMissIsServedWithoutQuery() throws Exception {
+        String email = "quinn@mailinator.com";
+        assertStatus(Response.Status.NOT_FOUND, () -> userRestService.retrieveUsersByEmail(email, null));
+
+        QueryCounter.start();
+        assertStatus(Response.Status.NOT_FOUND, () -> userRestService.retrieveUsersByEmail(email, null));
+        QueryCounter.Tally repeated = QueryCounter.stop();
+        assertEquals("A recent miss should be answered without a statement", 0, repeated.getCount());
+
+        User user = createUserInstance("Quinn Doe", email, "01634567890");
+        userRestService.createUser(user);
+
+        Response response = userRestService.retrieveUsersByEmail(email, null);
+        assertEquals("Creating the user should drop the miss", 200, response.getStatus());
+        assertEquals("Unexpected user", user.getId(), ((User) response.getEntity()).getId());
+        log.info("Miss of " + email + " was served without a statement, and dropped by the create");
+    }
+
+    @Test
+    @InSequence(7)
+    public void testEmailIsReleasedOnDelete() throws Exception {
+        User user = createUserInstance("Rosa Doe", "rosa@mailinator.com", "01734567890");
+        userRestService.createUser(user);
+        userRestService.deleteUser(user.getId(), null);
+
+        User again = createUserInstance("Rosa Doe", "rosa@mailinator.com", "01734567890");
+        Response response = userRestService.createUser(again);
+        assertEquals("The email of a deleted user should be free", 201, response.getStatus());
+
+        // The lookup of QUERY mode must agree with the unique constraint
+        System.setProperty(UniquenessMode.PROPERTY, UniquenessMode.QUERY.name());
+        try {
+            userRestService.deleteUser(again.getId(), null);
+            response = userRestService.createUser(createUserInstance("Rosa Doe", "rosa@mailinator.com", "01734567890"));
+            assertEquals("The email of a deleted user should be free", 201, response.getStatus());
+        } finally {
+            System.clearProperty(UniquenessMode.PROPERTY);
+        }
+        log.info("The email of deleted users was registered again");
+    }
+
+    private Map<String, Object> patchOf(String field, Object value) {
+        return Collections.singletonMap(field, value);
+    }
+
+    private RestServiceException assertStatus(Response.Status status, Callable<Response> call) throws Exception {
+        try {
+            call.call();
+        } catch (RestServiceException e) {
+            assertEquals("Unexpected response status", status, e.getStatus());
+            return e;
+        }
+        fail("Expected a RestServiceException to be thrown");
+        return null;
+    }
 
     private User createUserInstance(String name, String email, String phone) {
     	User user = new User();